@@ -0,0 +1,107 @@
+package ru.sailor.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sailor.GithubLastCommonCommitsFinder;
+import ru.sailor.client.InMemoryGitClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of one {@link GithubLastCommonCommitsFinder#findLastCommonCommits(String, String)} with a cold finder
+ * over a synthetic history, see {@link SyntheticHistory}.
+ * <p>
+ * Besides the time it reports commits polled by the traversal and simulated HTTP calls per query,
+ * allocation rate is reported with the gc profiler:
+ * <pre>
+ * java -jar target/benchmarks.jar -prof gc
+ * java -jar target/benchmarks.jar -p shape=CRISS_CROSS -p size=1000000 -p latencyMillis=20
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class FindLastCommonCommitsBenchmark {
+
+    @Param({"LINEAR", "MERGE_HEAVY", "CRISS_CROSS", "OCTOPUS"})
+    public SyntheticHistory.Shape shape;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    //latency of every simulated HTTP call
+    @Param({"0"})
+    public int latencyMillis;
+
+    private InMemoryGitClient client;
+    private GithubLastCommonCommitsFinder finder;
+
+    //averages per query, reset every iteration
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class QueryCounters {
+        public double commitsVisited;
+        public double httpCalls;
+
+        private long queriesCount;
+        private long commitsVisitedTotal;
+        private long httpCallsTotal;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            queriesCount = commitsVisitedTotal = httpCallsTotal = 0;
+            commitsVisited = httpCalls = 0;
+        }
+
+        void record(long queryCommitsVisited, long queryHttpCalls) {
+            queriesCount++;
+            commitsVisitedTotal += queryCommitsVisited;
+            httpCallsTotal += queryHttpCalls;
+            commitsVisited = (double) commitsVisitedTotal / queriesCount;
+            httpCalls = (double) httpCallsTotal / queriesCount;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createRepository() {
+        var history = SyntheticHistory.generate(shape, size);
+        client = new InMemoryGitClient();
+        client.addCommits(history.getCommits());
+        client.setBranch("branchA", history.getHeadA());
+        client.setBranch("branchB", history.getHeadB());
+        client.setLatency(Duration.ofMillis(latencyMillis));
+    }
+
+    //every query starts with nothing cached
+    @Setup(Level.Invocation)
+    public void createFinder() {
+        finder = new GithubLastCommonCommitsFinder(client);
+    }
+
+    @Benchmark
+    public Collection<String> findLastCommonCommits(QueryCounters counters) throws IOException {
+        var calls = client.getHistoryRequestsCount() + client.getBranchRequestsCount();
+        var result = finder.findLastCommonCommits("branchA", "branchB");
+        counters.record(finder.getPolledCommitsCount(),
+                client.getHistoryRequestsCount() + client.getBranchRequestsCount() - calls);
+        return result;
+    }
+
+}
@@ -0,0 +1,178 @@
+package ru.sailor.benchmark;
+
+import ru.sailor.data.GitCommit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generator of synthetic commit DAGs of a given shape and size.
+ * Commits are numbered in topological order, number is the sha and the commit time in seconds,
+ * so parents are always older than children.
+ * Branch A is the head of the history, branch B is a short feature branch forked from its middle.
+ */
+public class SyntheticHistory {
+
+    private static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 0, 0);
+    private static final int FEATURE_SIZE = 10;
+
+    public enum Shape {
+        //one line, feature branch forked from the middle
+        LINEAR,
+        //every 10th main commit merges a short topic branch forked 30 commits earlier,
+        //feature branch merges main once after the fork
+        MERGE_HEAVY,
+        //two lines merge each other every 50 commits, so heads have two last common commits
+        CRISS_CROSS,
+        //every 100th main commit is an octopus merge of 8 topic branches forked 50 commits earlier
+        OCTOPUS
+    }
+
+    private final List<GitCommit> commits;
+    private final String headA;
+    private final String headB;
+
+    private SyntheticHistory(List<GitCommit> commits, String headA, String headB) {
+        this.commits = commits;
+        this.headA = headA;
+        this.headB = headB;
+    }
+
+    public List<GitCommit> getCommits() {
+        return commits;
+    }
+
+    public String getHeadA() {
+        return headA;
+    }
+
+    public String getHeadB() {
+        return headB;
+    }
+
+    public static String sha(int number) {
+        return String.format("%040x", number);
+    }
+
+    /**
+     * @param size count of commits, about
+     */
+    public static SyntheticHistory generate(Shape shape, int size) {
+        var builder = new Builder(size);
+        switch (shape) {
+            case LINEAR:
+                return linear(builder, size);
+            case MERGE_HEAVY:
+                return mergeHeavy(builder, size);
+            case CRISS_CROSS:
+                return crissCross(builder, size);
+            case OCTOPUS:
+                return octopus(builder, size);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    private static SyntheticHistory linear(Builder builder, int size) {
+        var main = new int[size];
+        main[0] = builder.add();
+        for (int i = 1; i < size; i++) {
+            main[i] = builder.add(main[i - 1]);
+        }
+        return builder.build(main[size - 1], builder.addChain(main[size / 2], FEATURE_SIZE));
+    }
+
+    private static SyntheticHistory mergeHeavy(Builder builder, int size) {
+        var mainSize = size * 3 / 4;
+        var main = new int[mainSize];
+        main[0] = builder.add();
+        for (int i = 1; i < mainSize; i++) {
+            if (i % 10 == 0 && i >= 30) {
+                var topic = builder.addChain(main[i - 30], 2);
+                main[i] = builder.add(main[i - 1], topic);
+            } else {
+                main[i] = builder.add(main[i - 1]);
+            }
+        }
+        var feature = builder.addChain(main[mainSize / 2], FEATURE_SIZE / 2);
+        feature = builder.add(feature, main[mainSize * 3 / 4]);
+        return builder.build(main[mainSize - 1], builder.addChain(feature, FEATURE_SIZE / 2));
+    }
+
+    private static SyntheticHistory crissCross(Builder builder, int size) {
+        var lineA = builder.add();
+        var lineB = builder.add(lineA);
+        for (int i = 2; i < size; i += 2) {
+            if (i % 50 == 0) {
+                var crossA = builder.add(lineA, lineB);
+                var crossB = builder.add(lineB, lineA);
+                lineA = crossA;
+                lineB = crossB;
+            } else {
+                lineA = builder.add(lineA);
+                lineB = builder.add(lineB);
+            }
+        }
+        return builder.build(lineA, lineB);
+    }
+
+    private static SyntheticHistory octopus(Builder builder, int size) {
+        var mainSize = size / 2;
+        var main = new int[mainSize];
+        main[0] = builder.add();
+        for (int i = 1; i < mainSize; i++) {
+            if (i % 100 == 0) {
+                var parents = new int[9];
+                parents[0] = main[i - 1];
+                for (int topic = 1; topic < parents.length; topic++) {
+                    parents[topic] = builder.addChain(main[i - 50], 5);
+                }
+                main[i] = builder.add(parents);
+            } else {
+                main[i] = builder.add(main[i - 1]);
+            }
+        }
+        return builder.build(main[mainSize - 1], builder.addChain(main[mainSize / 2], FEATURE_SIZE));
+    }
+
+    private static class Builder {
+
+        private final List<GitCommit> commits;
+        private final List<GitCommit> noParents = Collections.emptyList();
+        private int lastNumber;
+
+        Builder(int size) {
+            commits = new ArrayList<>(size + size / 4);
+        }
+
+        int add(int... parents) {
+            var number = ++lastNumber;
+            var parentCommits = parents.length == 0 ? noParents : new ArrayList<GitCommit>(parents.length);
+            for (var parent : parents) {
+                parentCommits.add(GitCommit.builder().sha(sha(parent)).parents(noParents).build());
+            }
+            commits.add(GitCommit.builder()
+                    .sha(sha(number))
+                    .timestamp(START.plusSeconds(number))
+                    .parents(parentCommits)
+                    .build());
+            return number;
+        }
+
+        //chain of commits on top of the parent, returns its head
+        int addChain(int parent, int length) {
+            var head = parent;
+            for (int i = 0; i < length; i++) {
+                head = add(head);
+            }
+            return head;
+        }
+
+        SyntheticHistory build(int headA, int headB) {
+            return new SyntheticHistory(commits, sha(headA), sha(headB));
+        }
+    }
+
+}
@@ -1,151 +1,1002 @@
 package ru.sailor;
 
+import ru.sailor.client.AdaptiveHistoryDepth;
 import ru.sailor.client.GitClient;
 import ru.sailor.client.GithubClient;
-import ru.sailor.data.GitBranch;
+import ru.sailor.client.HistoryPrefetcher;
+import ru.sailor.client.SharedHistoryRequests;
 import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitComparison;
+import ru.sailor.exceptions.DataNotFoundException;
 import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.graph.CommitBitsets;
+import ru.sailor.graph.CommitCacheStats;
+import ru.sailor.graph.CommitFlags;
+import ru.sailor.graph.CommitGraph;
+import ru.sailor.graph.EvictionPolicy;
+import ru.sailor.graph.GenerationQueue;
+import ru.sailor.jfr.FinderQueryEvent;
+import ru.sailor.metrics.Metrics;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Thread safe, one finder could serve concurrent queries to the repository:
+ * they share known commits and history requests in flight, so a page is fetched once.
+ */
 public class GithubLastCommonCommitsFinder implements LastCommonCommitsFinder {
 
-    private final Integer maxCommitsToFastAsk;
+    private final AdaptiveHistoryDepth historyDepth;
     private final GitClient githubClient;
-    private Map<String, GitCommit> knownCommits;
-    private final Integer MAX_PARENTS_COUNT = 2;
+    private final CommitGraph knownCommits;
+    private final SharedHistoryRequests historyRequests;
+    private final Executor prefetchExecutor;
+    //results of the full traversal by branch pair, heads are usually moved by a few commits between polls
+    private final Map<List<String>, LastResult> lastResults = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, LastResult> eldest) {
+                    return size() > MAX_LAST_RESULTS;
+                }
+            });
+    private final LongAdder polledCommitsCount = new LongAdder();
+    private final Metrics metrics;
+    private final long maxCacheBytes;
+    private final EvictionPolicy evictionPolicy;
+    //queries hold commit ids under the read lock, eviction renumbers commits under the write one
+    private final ReadWriteLock idsLock = new ReentrantReadWriteLock();
+    private final LongAdder evictionsCount = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    //branch pairs polled by CI of one repository, least recently queried ones are forgotten
+    private static final int MAX_LAST_RESULTS = 1_000;
+    private static final int PREFETCH_THREADS_COUNT = 8;
+    private static final Executor PREFETCH_EXECUTOR = Executors.newFixedThreadPool(PREFETCH_THREADS_COUNT, runnable -> {
+        var thread = new Thread(runnable, "commits-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //async queries that can't be answered by compare requests walk the history here, waiting for pages on the way
+    private static final int TRAVERSAL_THREADS_COUNT = 8;
+    private static final Executor TRAVERSAL_EXECUTOR = Executors.newFixedThreadPool(TRAVERSAL_THREADS_COUNT, runnable -> {
+        var thread = new Thread(runnable, "commits-traversal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //pages of a deeper history are requested in parallel waves, 30 pages take 8 round trips instead of 30
+    private static final int MAX_HISTORY_DEPTH = 30 * GithubClient.MAX_COMMITS_PER_PAGE;
+
+    //longer chains are cheaper to check with a traversal that stops at the common frontier
+    private static final int MAX_INCREMENTAL_COMMITS = 1_000;
+
+    private static final int REACHABLE_FROM_A = 1;
+    private static final int REACHABLE_FROM_B = 1 << 1;
+    private static final int REACHABLE_FROM_BOTH = REACHABLE_FROM_A | REACHABLE_FROM_B;
+    private static final int STALE = 1 << 2;
+    private static final int IN_QUEUE = 1 << 3;
 
     public GithubLastCommonCommitsFinder(String owner, String repo, String token) {
-        if (token == null) {
-            githubClient = new GithubClient(owner, repo);
-        } else {
-            githubClient = new GithubClient(owner, repo, token);
+        this(token == null ? new GithubClient(owner, repo) : new GithubClient(owner, repo, token));
+    }
+
+    public GithubLastCommonCommitsFinder(GitClient githubClient) {
+        this(githubClient, PREFETCH_EXECUTOR);
+    }
+
+    public GithubLastCommonCommitsFinder(GitClient githubClient, Metrics metrics) {
+        this(githubClient, PREFETCH_EXECUTOR, metrics);
+    }
+
+    /**
+     * @param knownCommits commits known from the start, e.g. read from a snapshot by {@link CommitGraph#readSnapshot}
+     */
+    public GithubLastCommonCommitsFinder(GitClient githubClient, Metrics metrics, CommitGraph knownCommits) {
+        this(githubClient, PREFETCH_EXECUTOR, metrics, Long.MAX_VALUE, EvictionPolicy.LEAST_RECENTLY_USED,
+                knownCommits);
+    }
+
+    /**
+     * @param prefetchExecutor runs speculative history requests for the traversal frontier,
+     *                         its size bounds the count of parallel requests
+     */
+    public GithubLastCommonCommitsFinder(GitClient githubClient, Executor prefetchExecutor) {
+        this(githubClient, prefetchExecutor, Metrics.NOOP);
+    }
+
+    /**
+     * @param metrics receives known commits lookups and traversal work of every query
+     */
+    public GithubLastCommonCommitsFinder(GitClient githubClient, Executor prefetchExecutor, Metrics metrics) {
+        this(githubClient, prefetchExecutor, metrics, Long.MAX_VALUE, EvictionPolicy.LEAST_RECENTLY_USED);
+    }
+
+    /**
+     * @param maxCacheBytes  memory budget of known commits, when it is exceeded after a query commits are evicted
+     *                       by the policy, and their history is requested again if a traversal needs it.
+     *                       The budget is soft: eviction waits for a moment without queries in progress
+     * @param evictionPolicy chooses commits to keep
+     */
+    public GithubLastCommonCommitsFinder(GitClient githubClient, Executor prefetchExecutor, Metrics metrics,
+                                         long maxCacheBytes, EvictionPolicy evictionPolicy) {
+        this(githubClient, prefetchExecutor, metrics, maxCacheBytes, evictionPolicy, new CommitGraph());
+    }
+
+    public GithubLastCommonCommitsFinder(GitClient githubClient, Executor prefetchExecutor, Metrics metrics,
+                                         long maxCacheBytes, EvictionPolicy evictionPolicy, CommitGraph knownCommits) {
+        this.githubClient = githubClient;
+        this.prefetchExecutor = prefetchExecutor;
+        this.metrics = metrics;
+        this.maxCacheBytes = maxCacheBytes;
+        this.evictionPolicy = evictionPolicy;
+        this.knownCommits = knownCommits;
+        historyDepth = new AdaptiveHistoryDepth(GithubClient.MAX_COMMITS_PER_PAGE, MAX_HISTORY_DEPTH);
+        historyRequests = new SharedHistoryRequests(githubClient, prefetchExecutor, historyDepth::get,
+                knownCommits::addAll, this::isLoaded);
+    }
+
+    /**
+     * Closes the client, queries in progress fail.
+     */
+    @Override
+    public void close() throws IOException {
+        githubClient.close();
+    }
+
+    public CommitCacheStats getCommitCacheStats() {
+        return CommitCacheStats.builder()
+                .commitsCount(knownCommits.size())
+                .loadedCommitsCount(knownCommits.getLoadedCount())
+                .memoryBytes(knownCommits.getMemoryBytes())
+                .maxMemoryBytes(maxCacheBytes)
+                .evictionsCount(evictionsCount.sum())
+                .evictedCommitsCount(knownCommits.getEvictedCount())
+                .hitsCount(cacheHits.sum())
+                .missesCount(cacheMisses.sum())
+                .build();
+    }
+
+    /**
+     * Loads the full history of the branches, so later queries don't wait for it.
+     * Histories of all unknown commits of the frontier are requested in parallel, each one with the deepest
+     * request. Commits known already, e.g. read from a snapshot, are not requested again.
+     * The cache budget is checked only when the crawl is finished.
+     *
+     * @return count of loaded commits
+     */
+    public int warmUp(Collection<String> branchNames) throws IOException {
+        return holdingIds(() -> warmUpHoldingIds(branchNames));
+    }
+
+    private int warmUpHoldingIds(Collection<String> branchNames) throws IOException {
+        var crawlRequests = new SharedHistoryRequests(githubClient, prefetchExecutor, () -> MAX_HISTORY_DEPTH,
+                knownCommits::addAll, this::isLoaded);
+        var queue = new ArrayDeque<Integer>();
+        var isQueued = new BitSet();
+        for (var branchName : branchNames) {
+            var head = knownCommits.add(githubClient.getBranchInfo(branchName).getLastCommit());
+            if (!isQueued.get(head)) {
+                isQueued.set(head);
+                queue.add(head);
+            }
         }
-        knownCommits = new HashMap<>();
-        maxCommitsToFastAsk = GithubClient.MAX_COMMITS_PER_PAGE;
+
+        try (var prefetcher = new HistoryPrefetcher(crawlRequests)) {
+            while (!queue.isEmpty()) {
+                var commit = queue.poll();
+                if (!knownCommits.isLoaded(commit)) {
+                    prefetcher.getCommitHistory(knownCommits.getSha(commit));
+                }
+                for (int i = 0; i < knownCommits.getParentsCount(commit); i++) {
+                    var parent = knownCommits.getParent(commit, i);
+                    if (!isQueued.get(parent)) {
+                        isQueued.set(parent);
+                        queue.add(parent);
+                        if (!knownCommits.isLoaded(parent)) {
+                            prefetcher.prefetch(knownCommits.getSha(parent));
+                        }
+                    }
+                }
+            }
+        }
+        return knownCommits.getLoadedCount();
+    }
+
+    /**
+     * Writes known commits to a snapshot, a finder of another process starts with them
+     * if it is created with {@link CommitGraph#readSnapshot}.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        knownCommits.writeSnapshot(path);
+    }
+
+    /**
+     * @return count of commits polled from traversal queues by all queries, a measure of the walk length
+     */
+    public long getPolledCommitsCount() {
+        return polledCommitsCount.sum();
     }
 
     @Override
     public Collection<String> findLastCommonCommits(String branchAName, String branchBName) throws IOException {
-        var branchA = githubClient.getBranchInfo(branchAName);
-        var branchB = githubClient.getBranchInfo(branchBName);
-        addLastBranchCommitToKnownCommits(branchA, branchB);
-        //make extra request to potentially not doing two requests
-        makeRequestToGithubOnMerge(branchA.getLastCommit());
-        makeRequestToGithubOnMerge(branchB.getLastCommit());
-
-        var previousA = new HashSet<String>() {{
-            add(branchA.getLastCommit().getSha());
-        }};
-        var previousB = new HashSet<String>() {{
-            add(branchB.getLastCommit().getSha());
-        }};
-
-        //queue to get the newestCommit from not processed
-        var commitsQueue = new PriorityQueue<GitCommit>((c1, c2) -> c2.getTimestamp().compareTo(c1.getTimestamp()));
-        var uniqInCommitsQueueSha = new HashSet<String>();
-        //queue to get the newestCommit from reachable from A and B commits
-        var reachableCommits = new PriorityQueue<GitCommit>((c1, c2) -> c2.getTimestamp().compareTo(c1.getTimestamp()));
-        var uniqInReachableCommitsSha = new HashSet<String>();
-        commitsQueue.add(branchA.getLastCommit());
-        commitsQueue.add(branchB.getLastCommit());
-        uniqInCommitsQueueSha.add(branchA.getLastCommit().getSha());
-        uniqInCommitsQueueSha.add(branchB.getLastCommit().getSha());
+        var event = FinderQueryEvent.start(branchAName, branchBName, 2);
+        try {
+            if (!lastResults.containsKey(List.of(branchAName, branchBName))) {
+                var mergeBase = findSingleMergeBase(branchAName, branchBName);
+                if (mergeBase != null) {
+                    event.setResult(FinderQueryEvent.COMPARE, 1);
+                    return Set.of(mergeBase);
+                }
+            }
+            return findLastCommonCommitsByHistory(branchAName, branchBName, event);
+        } finally {
+            event.finish();
+        }
+    }
+
+    /**
+     * Compare requests are made without blocking a thread, with a client that sends requests asynchronously,
+     * e.g. {@link ru.sailor.client.GithubHttp2Client}. Only queries that need a traversal of the history
+     * take a thread from a fixed pool while they walk.
+     */
+    @Override
+    public CompletableFuture<Collection<String>> findLastCommonCommitsAsync(String branchAName, String branchBName) {
+        var event = FinderQueryEvent.start(branchAName, branchBName, 2);
+        var mergeBase = lastResults.containsKey(List.of(branchAName, branchBName)) ?
+                CompletableFuture.<String>completedFuture(null) : findSingleMergeBaseAsync(branchAName, branchBName);
+        return mergeBase.<Collection<String>>thenCompose(sha -> {
+            if (sha != null) {
+                event.setResult(FinderQueryEvent.COMPARE, 1);
+                return CompletableFuture.completedFuture(Set.of(sha));
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return findLastCommonCommitsByHistory(branchAName, branchBName, event);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, TRAVERSAL_EXECUTOR);
+        }).whenComplete((result, e) -> event.finish());
+    }
+
+    /**
+     * Checks the last result of the pair for new heads, or walks the history from them.
+     */
+    private Collection<String> findLastCommonCommitsByHistory(String branchAName, String branchBName,
+                                                              FinderQueryEvent event) throws IOException {
+        return holdingIds(() -> findLastCommonCommitsByHistoryHoldingIds(branchAName, branchBName, event));
+    }
+
+    private Collection<String> findLastCommonCommitsByHistoryHoldingIds(String branchAName, String branchBName,
+                                                                        FinderQueryEvent event) throws IOException {
+        var branchPair = List.of(branchAName, branchBName);
+        var lastResult = lastResults.get(branchPair);
+        var lastCommitA = knownCommits.add(githubClient.getBranchInfo(branchAName).getLastCommit());
+        var lastCommitB = knownCommits.add(githubClient.getBranchInfo(branchBName).getLastCommit());
+        if (lastResult != null) {
+            try (var prefetcher = new HistoryPrefetcher(historyRequests)) {
+                if (isResultKept(lastResult, lastCommitA, lastCommitB, prefetcher)) {
+                    lastResults.put(branchPair, new LastResult(lastCommitA, lastCommitB, lastResult.commonCommits));
+                    event.setResult(FinderQueryEvent.INCREMENTAL, lastResult.commonCommits.size());
+                    return new HashSet<>(lastResult.commonCommits);
+                }
+            }
+        }
+        Collection<String> commonCommits;
+        try (var prefetcher = new HistoryPrefetcher(historyRequests)) {
+            //make extra request to potentially not doing two requests
+            makeRequestToGithubOnMerge(lastCommitA, prefetcher);
+            makeRequestToGithubOnMerge(lastCommitB, prefetcher);
+            commonCommits = findLastCommonCommits(lastCommitA, lastCommitB, prefetcher, event);
+        }
+        lastResults.put(branchPair, new LastResult(lastCommitA, lastCommitB, Set.copyOf(commonCommits)));
+        event.setResult(FinderQueryEvent.TRAVERSAL, commonCommits.size());
+        return commonCommits;
+    }
+
+    /**
+     * Checks whether the last result holds for the new heads without a traversal.
+     * If a head moved forward by a chain of commits without merges, the chain adds no common commits, unless
+     * the other side reaches it: then the other side reaches the old head too, so the old head was a last common commit,
+     * or the other side moved along the same chain.
+     * Walk costs O(new commits) and stops with false as soon as it meets a merge or goes too deep.
+     */
+    private boolean isResultKept(LastResult lastResult, int lastCommitA, int lastCommitB,
+                                 HistoryPrefetcher prefetcher) throws GitCommunicationException {
+        var newCommitsA = findNewChain(lastResult.lastCommitA, lastCommitA, prefetcher);
+        if (newCommitsA == null) {
+            return false;
+        }
+        var newCommitsB = findNewChain(lastResult.lastCommitB, lastCommitB, prefetcher);
+        if (newCommitsB == null) {
+            return false;
+        }
+        if (!newCommitsA.isEmpty() && lastResult.commonCommits.contains(knownCommits.getSha(lastResult.lastCommitA)) ||
+                !newCommitsB.isEmpty() && lastResult.commonCommits.contains(knownCommits.getSha(lastResult.lastCommitB))) {
+            return false;
+        }
+        return newCommitsA.stream().noneMatch(newCommitsB::contains);
+    }
+
+    /**
+     * @return commits from the new head down to the old one excluding it,
+     * or null if they are not a chain without merges on top of the old head
+     */
+    private Set<Integer> findNewChain(int oldLastCommit, int lastCommit,
+                                      HistoryPrefetcher prefetcher) throws GitCommunicationException {
+        var newCommits = new HashSet<Integer>();
+        var commit = lastCommit;
+        while (commit != oldLastCommit) {
+            if (newCommits.size() == MAX_INCREMENTAL_COMMITS || knownCommits.getParentsCount(commit) != 1) {
+                return null;
+            }
+            newCommits.add(commit);
+            loadParents(commit, prefetcher);
+            commit = knownCommits.getParent(commit, 0);
+        }
+        return newCommits;
+    }
+
+    /**
+     * Walks the history once for all branches: every commit keeps a bitset of the branches it is reachable from
+     * and of the branches whose last common commit with the base is above it (stale bits).
+     * For every pair of the base and a branch it is the same painting as for two branches,
+     * and the walk stops when no queued commit matters for any pair.
+     * Compare API is not used here: it costs requests per branch, while the shared walk fetches each page once.
+     */
+    @Override
+    public Map<String, Collection<String>> findLastCommonCommits(String baseBranchName,
+                                                                 Collection<String> branchNames) throws IOException {
+        var names = new ArrayList<>(new LinkedHashSet<>(branchNames));
+        var event = FinderQueryEvent.start(baseBranchName, null, names.size() + 1);
+        try {
+            return holdingIds(() -> findLastCommonCommitsHoldingIds(baseBranchName, names, event));
+        } finally {
+            event.finish();
+        }
+    }
+
+    private Map<String, Collection<String>> findLastCommonCommitsHoldingIds(String baseBranchName, List<String> names,
+                                                                            FinderQueryEvent event) throws IOException {
+        var branchNames = new ArrayList<String>(names.size() + 1);
+        branchNames.add(baseBranchName);
+        branchNames.addAll(names);
+        //repository is checked once for the whole batch
+        var branches = githubClient.getBranchesInfo(branchNames);
+        var baseCommit = knownCommits.add(branches.get(0).getLastCommit());
+        var lastCommits = new int[names.size()];
+        for (int i = 0; i < lastCommits.length; i++) {
+            lastCommits[i] = knownCommits.add(branches.get(i + 1).getLastCommit());
+        }
+
+        List<Set<String>> commonCommits;
+        try (var prefetcher = new HistoryPrefetcher(historyRequests)) {
+            //histories of all merge heads are in flight at once
+            prefetchMergeHistory(baseCommit, prefetcher);
+            for (var lastCommit : lastCommits) {
+                prefetchMergeHistory(lastCommit, prefetcher);
+            }
+            makeRequestToGithubOnMerge(baseCommit, prefetcher);
+            for (var lastCommit : lastCommits) {
+                makeRequestToGithubOnMerge(lastCommit, prefetcher);
+            }
+            commonCommits = findLastCommonCommits(baseCommit, lastCommits, prefetcher, event);
+        }
+
+        var lastCommonCommits = new LinkedHashMap<String, Collection<String>>();
+        var resultSize = 0;
+        for (int i = 0; i < names.size(); i++) {
+            lastCommonCommits.put(names.get(i), commonCommits.get(i));
+            resultSize += commonCommits.get(i).size();
+        }
+        event.setResult(FinderQueryEvent.BATCH, resultSize);
+        return lastCommonCommits;
+    }
+
+    private List<Set<String>> findLastCommonCommits(int baseCommit, int[] lastCommits, HistoryPrefetcher prefetcher,
+                                                    FinderQueryEvent event) throws GitCommunicationException {
+        var startTime = System.nanoTime();
+        var traversal = new BatchTraversal(lastCommits.length,
+                new GenerationQueue(knownCommits.getGenerations(), this::compareNewestFirst));
+        var words = traversal.getWordsCount();
+        var reachable = new long[words];
+        var stale = new long[words];
+        reachable[0] = BatchTraversal.BASE_BIT;
+        paint(traversal, baseCommit, reachable, stale, prefetcher);
+        for (int i = 0; i < lastCommits.length; i++) {
+            Arrays.fill(reachable, 0);
+            reachable[BatchTraversal.word(i)] = BatchTraversal.bit(i);
+            paint(traversal, lastCommits[i], reachable, stale, prefetcher);
+        }
+
+        //pairs of commit and branch index
+        var commonCommits = new ArrayList<int[]>();
+        while (traversal.hasActiveCommits()) {
+            var newestCommit = traversal.poll(reachable, stale);
+            if ((reachable[0] & BatchTraversal.BASE_BIT) != 0) {
+                for (int word = 0; word < words; word++) {
+                    var branches = reachable[word] & ~stale[word] & BatchTraversal.branchesMask(word);
+                    for (; branches != 0; branches &= branches - 1) {
+                        commonCommits.add(new int[]{newestCommit, word * Long.SIZE + Long.numberOfTrailingZeros(branches) - 1});
+                    }
+                    //everything reachable from common commit is not the last one
+                    stale[word] |= reachable[word] & BatchTraversal.branchesMask(word);
+                }
+            }
+
+            loadParents(newestCommit, prefetcher);
+            for (int i = 0; i < knownCommits.getParentsCount(newestCommit); i++) {
+                paint(traversal, knownCommits.getParent(newestCommit, i), reachable, stale, prefetcher);
+            }
+        }
+
+        onQueryFinished(event, traversal.getPolledCount(), traversal.getPeakQueueSize(), startTime);
+
+        var commonCommitsSha = new ArrayList<Set<String>>();
+        for (int i = 0; i < lastCommits.length; i++) {
+            commonCommitsSha.add(new HashSet<>());
+        }
+        for (var common : commonCommits) {
+            if (!traversal.isStale(common[0], common[1])) {
+                commonCommitsSha.get(common[1]).add(knownCommits.getSha(common[0]));
+            }
+        }
+        return commonCommitsSha;
+    }
+
+    /**
+     * Paints commits reachable from A and B walking from the newest commit to older ones, like git merge-base.
+     * A commit painted by both sides is a last common commit, unless it is reachable from another one,
+     * and everything reachable from it is painted stale.
+     * Walk stops as soon as all queued commits are stale: nothing new can be found below them.
+     * Commits are walked in generation order, when generations are known, so the walk also stops
+     * when one of the sides has nothing to paint anymore, and doesn't depend on commit dates.
+     */
+    private Collection<String> findLastCommonCommits(int lastCommitA, int lastCommitB, HistoryPrefetcher prefetcher,
+                                                     FinderQueryEvent event) throws GitCommunicationException {
+        var startTime = System.nanoTime();
+        var flags = new CommitFlags();
+        var commitsQueue = new GenerationQueue(knownCommits.getGenerations(), this::compareNewestFirst);
+        var traversal = new Traversal(flags, commitsQueue);
+        paint(traversal, lastCommitA, REACHABLE_FROM_A, prefetcher);
+        paint(traversal, lastCommitB, REACHABLE_FROM_B, prefetcher);
+
+        var commonCommits = new ArrayList<Integer>();
+        while (traversal.canFindCommonCommits()) {
+            var newestCommit = traversal.poll();
+            var newestCommitFlags = flags.get(newestCommit) & (REACHABLE_FROM_BOTH | STALE);
+            if (newestCommitFlags == REACHABLE_FROM_BOTH) {
+                commonCommits.add(newestCommit);
+                traversal.onCommonCommitFound(newestCommit);
+                //everything reachable from common commit is not the last one
+                newestCommitFlags |= STALE;
+            }
+
+            loadParents(newestCommit, prefetcher);
+            for (int i = 0; i < knownCommits.getParentsCount(newestCommit); i++) {
+                var parent = knownCommits.getParent(newestCommit, i);
+                if (!flags.has(parent, newestCommitFlags)) {
+                    paint(traversal, parent, newestCommitFlags, prefetcher);
+                }
+            }
+        }
+
+        onQueryFinished(event, traversal.getPolledCount(), traversal.getPeakQueueSize(), startTime);
+        //next queries to the repository will likely walk as deep, a history is requested for one side
+        historyDepth.record(traversal.getCommonCommitsDepth());
+
+        //common commit could be painted stale after it was found, if it was polled in commit date order
+        commonCommits.removeIf(commit -> flags.has(commit, STALE));
+        if (traversal.isCommonCommitFoundOutOfOrder() && commonCommits.size() > 1) {
+            removeReachableFromOthers(commonCommits);
+        }
 
         var commonCommitsSha = new HashSet<String>();
-        while (!commitsQueue.isEmpty()) {
-            //process common commit to don't add extra common commits,
-            // to result, that are reachable from another common commit.
-            if (isSameCommits(commitsQueue, reachableCommits)) {
-                commitsQueue.poll();
+        for (var commit : commonCommits) {
+            commonCommitsSha.add(knownCommits.getSha(commit));
+        }
+        return commonCommitsSha;
+    }
+
+    /**
+     * Walk in commit date order stops when all queued commits are stale, but with skewed dates
+     * a common commit could be reachable from another one through commits that were not painted yet, like in git.
+     * If generation of the lowest common commit is known by now, walks down over loaded commits
+     * and drops common commits reachable from others: commits of lower generation can't reach any of them.
+     */
+    private void removeReachableFromOthers(List<Integer> commonCommits) {
+        var generations = knownCommits.getGenerations();
+        var lowestGeneration = CommitGraph.GENERATION_INFINITY;
+        for (var commit : commonCommits) {
+            lowestGeneration = Math.min(lowestGeneration, generations.applyAsInt(commit));
+        }
+        if (lowestGeneration == CommitGraph.GENERATION_INFINITY) {
+            return;
+        }
+
+        var visited = new CommitFlags();
+        var stack = new ArrayDeque<Integer>(commonCommits);
+        var reachable = new HashSet<Integer>();
+        while (!stack.isEmpty()) {
+            int commit = stack.pop();
+            if (!knownCommits.isLoaded(commit) || generations.applyAsInt(commit) < lowestGeneration) {
                 continue;
             }
-            if (!reachableCommits.isEmpty() && isReachableCommitNewest(commitsQueue, reachableCommits)) {
-                addParentsToQueue(reachableCommits.poll(), reachableCommits, uniqInReachableCommitsSha);
-                continue;
+            for (int i = 0; i < knownCommits.getParentsCount(commit); i++) {
+                var parent = knownCommits.getParent(commit, i);
+                if (!visited.has(parent, IN_QUEUE)) {
+                    visited.add(parent, IN_QUEUE);
+                    stack.push(parent);
+                    if (commonCommits.contains(parent)) {
+                        reachable.add(parent);
+                    }
+                }
             }
+        }
+        commonCommits.removeAll(reachable);
+    }
 
-            //process new uncommon commit
-            var newestCommit = commitsQueue.poll();
-            if (previousA.contains(newestCommit.getSha()) && previousB.contains(newestCommit.getSha())) {
-                commonCommitsSha.add(newestCommit.getSha());
-                reachableCommits.add(newestCommit);
-                continue;
+    /**
+     * Compare API returns a merge base in one request, but only one of them.
+     * It is the only one, if commits of any side that are not reachable from the other side
+     * have no merges: then this side is a chain on top of the merge base.
+     *
+     * @return sha of the only last common commit or null if it can't be proven cheaply
+     */
+    private String findSingleMergeBase(String branchAName, String branchBName) throws GitCommunicationException {
+        try {
+            var comparison = githubClient.compare(branchAName, branchBName);
+            if (comparison == null) {
+                return null;
+            }
+            if (isChainOnMergeBase(comparison)) {
+                return comparison.getMergeBase().getSha();
             }
 
-            addParentsToQueue(newestCommit, commitsQueue, uniqInCommitsQueueSha);
-            addParentsToPrevious(newestCommit, previousA, previousB);
+            var reversedComparison = githubClient.compare(branchBName, branchAName);
+            if (reversedComparison != null && isChainOnMergeBase(reversedComparison)) {
+                return reversedComparison.getMergeBase().getSha();
+            }
+        } catch (DataNotFoundException e) {
+            //full traversal reports invalid branches with a proper message
         }
+        return null;
+    }
 
-        return commonCommitsSha;
+    private CompletableFuture<String> findSingleMergeBaseAsync(String branchAName, String branchBName) {
+        return githubClient.compareAsync(branchAName, branchBName).thenCompose(comparison -> {
+            if (comparison == null) {
+                return CompletableFuture.<String>completedFuture(null);
+            }
+            if (isChainOnMergeBase(comparison)) {
+                return CompletableFuture.completedFuture(comparison.getMergeBase().getSha());
+            }
+            return githubClient.compareAsync(branchBName, branchAName).thenApply(reversedComparison ->
+                    reversedComparison != null && isChainOnMergeBase(reversedComparison) ?
+                            reversedComparison.getMergeBase().getSha() : null);
+        }).exceptionally(error -> {
+            var cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof DataNotFoundException) {
+                //full traversal reports invalid branches with a proper message
+                return null;
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        });
     }
 
-    private void makeRequestToGithubOnMerge(GitCommit commit) throws GitCommunicationException {
-        if (commit.hasSecondParent() &&
-                !knownCommits.containsKey(commit.getFirstParentSha()) &&
-                !knownCommits.containsKey(commit.getSecondParentSha())) {
-            knownCommits.putAll(
-                    githubClient.getCommitHistory(commit.getSha(), maxCommitsToFastAsk).stream()
-                            .collect(Collectors.toMap(GitCommit::getSha, c -> c))
-            );
+    private boolean isChainOnMergeBase(GitComparison comparison) {
+        knownCommits.add(comparison.getMergeBase());
+        knownCommits.addAll(comparison.getHeadCommits());
+        return comparison.hasAllHeadCommits() &&
+                comparison.getHeadCommits().stream().noneMatch(GitCommit::hasSecondParent);
+    }
+
+    /**
+     * History of a merge commit brings both of its parents, it is shared with other queries
+     * starting from the same head. Loaded history is added to known commits by shared requests.
+     */
+    private void makeRequestToGithubOnMerge(int commit, HistoryPrefetcher prefetcher) throws GitCommunicationException {
+        if (isMergeOfNotLoaded(commit)) {
+            prefetcher.getCommitHistory(knownCommits.getSha(commit),
+                    sha -> isMergeOfNotLoaded(knownCommits.getId(sha)));
         }
     }
 
-    private boolean isSameCommits(PriorityQueue<GitCommit> commitsQueue, PriorityQueue<GitCommit> reachableCommits) {
-        if (commitsQueue.isEmpty() || reachableCommits.isEmpty()) {
-            return false;
+    private void prefetchMergeHistory(int commit, HistoryPrefetcher prefetcher) {
+        if (isMergeOfNotLoaded(commit)) {
+            prefetcher.prefetch(knownCommits.getSha(commit), sha -> isMergeOfNotLoaded(knownCommits.getId(sha)));
         }
+    }
 
-        return commitsQueue.peek().equals(reachableCommits.peek());
+    private boolean isMergeOfNotLoaded(int commit) {
+        return commit != CommitGraph.NO_COMMIT && knownCommits.getParentsCount(commit) > 1 &&
+                !knownCommits.isLoaded(knownCommits.getParent(commit, 0)) &&
+                !knownCommits.isLoaded(knownCommits.getParent(commit, 1));
     }
 
-    private boolean isReachableCommitNewest(PriorityQueue<GitCommit> commitsQueue, PriorityQueue<GitCommit> reachableCommits) {
-        if (commitsQueue.isEmpty() || reachableCommits.isEmpty()) {
-            return false;
+    private void onQueryFinished(FinderQueryEvent event, long polledCount, int peakQueueSize, long startTime) {
+        event.setCommitsVisited(polledCount);
+        polledCommitsCount.add(polledCount);
+        metrics.onQuery(polledCount, peakQueueSize, System.nanoTime() - startTime);
+    }
+
+    private boolean isLoaded(String commitSHA) {
+        var commit = knownCommits.getId(commitSHA);
+        return commit != CommitGraph.NO_COMMIT && knownCommits.isLoaded(commit);
+    }
+
+    private int compareNewestFirst(int commitA, int commitB) {
+        return Long.compare(knownCommits.getTimestamp(commitB), knownCommits.getTimestamp(commitA));
+    }
+
+    /**
+     * Paints the commit and, if it gets to the queue not stale, starts requests for its unknown parents:
+     * they will be needed when the commit is polled.
+     */
+    private void paint(Traversal traversal, int commit, int paintFlags, HistoryPrefetcher prefetcher) {
+        if (traversal.paint(commit, paintFlags) && !traversal.isStale(commit)) {
+            prefetchParents(commit, prefetcher);
         }
+    }
 
-        return commitsQueue.peek().getTimestamp().compareTo(reachableCommits.peek().getTimestamp()) > 0;
+    private void prefetchParents(int commit, HistoryPrefetcher prefetcher) {
+        for (int i = 0; i < knownCommits.getParentsCount(commit); i++) {
+            var parent = knownCommits.getParent(commit, i);
+            if (!knownCommits.isLoaded(parent)) {
+                prefetcher.prefetch(knownCommits.getSha(parent));
+            }
+        }
+    }
+
+    private void paint(BatchTraversal traversal, int commit, long[] reachable, long[] stale,
+                       HistoryPrefetcher prefetcher) {
+        if (traversal.paint(commit, reachable, stale) && traversal.isActive(commit)) {
+            prefetchParents(commit, prefetcher);
+        }
     }
 
-    private void addParentsToPrevious(GitCommit newestCommit, HashSet<String> previousA, HashSet<String> previousB) {
-        for (int i = 0; i < MAX_PARENTS_COUNT; i++) {
-            if (newestCommit.getParents().size() > i) {
-                if (previousA.contains(newestCommit.getSha())) {
-                    previousA.add(newestCommit.getParents().get(i).getSha());
-                } else {
-                    previousB.add(newestCommit.getParents().get(i).getSha());
+    private void loadParents(int commit, HistoryPrefetcher prefetcher) throws GitCommunicationException {
+        knownCommits.touch(commit);
+        for (int i = 0; i < knownCommits.getParentsCount(commit); i++) {
+            var parent = knownCommits.getParent(commit, i);
+            var isLoaded = knownCommits.isLoaded(parent);
+            metrics.onKnownCommitsLookup(isLoaded);
+            (isLoaded ? cacheHits : cacheMisses).increment();
+            if (!isLoaded) {
+                //loaded history is added to known commits by shared requests
+                prefetcher.getCommitHistory(knownCommits.getSha(parent));
+            }
+        }
+    }
+
+    /**
+     * Runs a query that holds commit ids, evicts commits after it if the cache is over the budget.
+     */
+    private <T> T holdingIds(IdsQuery<T> query) throws IOException {
+        idsLock.readLock().lock();
+        try {
+            knownCommits.nextAccessTick();
+            return query.run();
+        } finally {
+            idsLock.readLock().unlock();
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Evicts commits down to 3/4 of the budget, so the next queries don't evict again right away.
+     * Heads of the last results are not kept anyway: a result whose head is forgotten is dropped,
+     * the next query of the pair walks the history. Eviction renumbers commits,
+     * so it is skipped while other queries hold ids, one of them evicts when it finishes.
+     */
+    private void evictIfNeeded() {
+        if (knownCommits.getMemoryBytes() <= maxCacheBytes || !idsLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            if (knownCommits.getMemoryBytes() <= maxCacheBytes) {
+                return;
+            }
+            var newIds = knownCommits.evict(evictionPolicy, maxCacheBytes / 4 * 3);
+            synchronized (lastResults) {
+                for (var iterator = lastResults.entrySet().iterator(); iterator.hasNext(); ) {
+                    var entry = iterator.next();
+                    var result = entry.getValue();
+                    var lastCommitA = newIds[result.lastCommitA];
+                    var lastCommitB = newIds[result.lastCommitB];
+                    if (lastCommitA == CommitGraph.NO_COMMIT || lastCommitB == CommitGraph.NO_COMMIT) {
+                        iterator.remove();
+                    } else {
+                        entry.setValue(new LastResult(lastCommitA, lastCommitB, result.commonCommits));
+                    }
                 }
             }
+            evictionsCount.increment();
+        } finally {
+            idsLock.writeLock().unlock();
         }
     }
 
-    private void addLastBranchCommitToKnownCommits(GitBranch branchA, GitBranch branchB) {
-        knownCommits.put(branchA.getLastCommit().getSha(), branchA.getLastCommit());
-        knownCommits.put(branchB.getLastCommit().getSha(), branchB.getLastCommit());
+    private interface IdsQuery<T> {
+        T run() throws IOException;
+    }
+
+    private static class LastResult {
+
+        private final int lastCommitA;
+        private final int lastCommitB;
+        private final Set<String> commonCommits;
+
+        LastResult(int lastCommitA, int lastCommitB, Set<String> commonCommits) {
+            this.lastCommitA = lastCommitA;
+            this.lastCommitB = lastCommitB;
+            this.commonCommits = commonCommits;
+        }
     }
 
-    private void addParentsToQueue(GitCommit commit, PriorityQueue<GitCommit> commitsQueue,
-                                   HashSet<String> uniqInCommitsQueueSha) throws GitCommunicationException {
-        for (int i = 0; i < MAX_PARENTS_COUNT; i++) {
-            if (commit.getParents().size() > i) {
-                if (!knownCommits.containsKey(commit.getParents().get(i).getSha())) {
-                    knownCommits.putAll(
-                            githubClient.getCommitHistory(commit.getParents().get(i).getSha(), maxCommitsToFastAsk).stream()
-                                    .collect(Collectors.toMap(GitCommit::getSha, c -> c))
-                    );
+    /**
+     * Queue of painted commits, that knows how many of them are not stale yet and from which sides.
+     */
+    private static class Traversal {
+
+        private final CommitFlags flags;
+        private final GenerationQueue commitsQueue;
+        private int notStaleCount;
+        private int notStaleCountA;
+        private int notStaleCountB;
+        private boolean isCommonCommitFoundOutOfOrder;
+        private long polledCount;
+        private long polledCountA;
+        private long polledCountB;
+        private long commonCommitDepth = -1;
+        private int peakQueueSize;
+
+        Traversal(CommitFlags flags, GenerationQueue commitsQueue) {
+            this.flags = flags;
+            this.commitsQueue = commitsQueue;
+        }
+
+        boolean isCommonCommitFoundOutOfOrder() {
+            return isCommonCommitFoundOutOfOrder;
+        }
+
+        long getPolledCount() {
+            return polledCount;
+        }
+
+        int getPeakQueueSize() {
+            return peakQueueSize;
+        }
+
+        /**
+         * @return commits walked from a head down to the last found common commit, by the deeper side,
+         * or the deeper walk of a side if there are no common commits
+         */
+        long getCommonCommitsDepth() {
+            return commonCommitDepth >= 0 ? commonCommitDepth : Math.max(polledCountA, polledCountB);
+        }
+
+        boolean isStale(int commit) {
+            return flags.has(commit, STALE);
+        }
+
+        /**
+         * Once only commits of known generation are left, they are polled children first,
+         * so a commit not painted by a side now will never be: a new common commit needs
+         * a not stale commit of each side in the queue.
+         */
+        boolean canFindCommonCommits() {
+            if (notStaleCount == 0) {
+                return false;
+            }
+            if (commitsQueue.hasInfiniteGenerations() || isCommonCommitFoundOutOfOrder) {
+                return true;
+            }
+            return notStaleCountA > 0 && notStaleCountB > 0;
+        }
+
+        /**
+         * Common commit of infinite generation could be found before a common commit it is reachable from,
+         * then the walk should go on to paint it stale.
+         */
+        void onCommonCommitFound(int commit) {
+            commonCommitDepth = Math.max(polledCountA, polledCountB);
+            if (commitsQueue.getGeneration(commit) == CommitGraph.GENERATION_INFINITY) {
+                isCommonCommitFoundOutOfOrder = true;
+            }
+        }
+
+        int poll() {
+            var commit = commitsQueue.poll();
+            polledCount++;
+            if (flags.has(commit, REACHABLE_FROM_A)) {
+                polledCountA++;
+            }
+            if (flags.has(commit, REACHABLE_FROM_B)) {
+                polledCountB++;
+            }
+            flags.clear(commit, IN_QUEUE);
+            count(commit, -1);
+            return commit;
+        }
+
+        /**
+         * @return true if the commit was added to the queue
+         */
+        boolean paint(int commit, int paintFlags) {
+            if (!flags.has(commit, IN_QUEUE)) {
+                flags.add(commit, paintFlags | IN_QUEUE);
+                commitsQueue.add(commit);
+                peakQueueSize = Math.max(peakQueueSize, commitsQueue.size());
+                count(commit, 1);
+                return true;
+            }
+            count(commit, -1);
+            flags.add(commit, paintFlags);
+            count(commit, 1);
+            return false;
+        }
+
+        private void count(int commit, int delta) {
+            var commitFlags = flags.get(commit);
+            if ((commitFlags & STALE) != 0) {
+                return;
+            }
+            notStaleCount += delta;
+            if ((commitFlags & REACHABLE_FROM_A) != 0) {
+                notStaleCountA += delta;
+            }
+            if ((commitFlags & REACHABLE_FROM_B) != 0) {
+                notStaleCountB += delta;
+            }
+        }
+    }
+
+    /**
+     * Queue of commits painted for many pairs of the base and a branch, that knows how many of them
+     * still matter for some pair.
+     * Bit 0 of reachable bits is the base, bit i + 1 is the branch i, stale bit i + 1 is set
+     * when the last common commit of the base and the branch i is above the commit.
+     */
+    private static class BatchTraversal {
+
+        static final long BASE_BIT = 1;
+
+        private final CommitBitsets reachable;
+        private final CommitBitsets stale;
+        private final CommitFlags flags = new CommitFlags();
+        private final GenerationQueue commitsQueue;
+        private final int branchesCount;
+        private int activeCount;
+        private long polledCount;
+        private int peakQueueSize;
+
+        BatchTraversal(int branchesCount, GenerationQueue commitsQueue) {
+            this.branchesCount = branchesCount;
+            this.commitsQueue = commitsQueue;
+            reachable = new CommitBitsets(branchesCount + 1);
+            stale = new CommitBitsets(branchesCount + 1);
+        }
+
+        static int word(int branch) {
+            return (branch + 1) / Long.SIZE;
+        }
+
+        static long bit(int branch) {
+            return 1L << ((branch + 1) % Long.SIZE);
+        }
+
+        static long branchesMask(int word) {
+            return word == 0 ? ~BASE_BIT : -1L;
+        }
+
+        int getWordsCount() {
+            return reachable.getWordsCount();
+        }
+
+        long getPolledCount() {
+            return polledCount;
+        }
+
+        int getPeakQueueSize() {
+            return peakQueueSize;
+        }
+
+        boolean isStale(int commit, int branch) {
+            return (stale.get(commit, word(branch)) & bit(branch)) != 0;
+        }
+
+        /**
+         * Commit matters for a pair if it is reachable from the base or the branch and is not stale for the pair.
+         */
+        boolean isActive(int commit) {
+            var fromBase = (reachable.get(commit, 0) & BASE_BIT) != 0;
+            for (int word = 0; word < getWordsCount(); word++) {
+                var notStale = ~stale.get(commit, word) & branchesMask(word) & lastWordMask(word);
+                if ((fromBase ? notStale : reachable.get(commit, word) & notStale) != 0) {
+                    return true;
                 }
+            }
+            return false;
+        }
+
+        boolean hasActiveCommits() {
+            return activeCount > 0;
+        }
+
+        /**
+         * Polls the newest commit and copies its bits.
+         */
+        int poll(long[] reachableBits, long[] staleBits) {
+            var commit = commitsQueue.poll();
+            polledCount++;
+            flags.clear(commit, IN_QUEUE);
+            if (isActive(commit)) {
+                activeCount--;
+            }
+            for (int word = 0; word < getWordsCount(); word++) {
+                reachableBits[word] = reachable.get(commit, word);
+                staleBits[word] = stale.get(commit, word);
+            }
+            return commit;
+        }
 
-                if (!uniqInCommitsQueueSha.contains(commit.getParents().get(i).getSha())) {
-                    uniqInCommitsQueueSha.add(commit.getParents().get(i).getSha());
-                    commitsQueue.add(knownCommits.get(commit.getParents().get(i).getSha()));
+        /**
+         * @return true if the commit was added to the queue
+         */
+        boolean paint(int commit, long[] reachableBits, long[] staleBits) {
+            var inQueue = flags.has(commit, IN_QUEUE);
+            var wasActive = inQueue && isActive(commit);
+            var changed = false;
+            for (int word = 0; word < getWordsCount(); word++) {
+                changed |= reachable.or(commit, word, reachableBits[word]);
+                changed |= stale.or(commit, word, staleBits[word]);
+            }
+            if (!changed) {
+                return false;
+            }
+
+            var isActive = isActive(commit);
+            if (!inQueue) {
+                flags.add(commit, IN_QUEUE);
+                commitsQueue.add(commit);
+                peakQueueSize = Math.max(peakQueueSize, commitsQueue.size());
+                if (isActive) {
+                    activeCount++;
                 }
+                return true;
+            }
+            if (wasActive != isActive) {
+                activeCount += isActive ? 1 : -1;
             }
+            return false;
+        }
+
+        private long lastWordMask(int word) {
+            var bitsInLastWord = (branchesCount + 1) % Long.SIZE;
+            return word < getWordsCount() - 1 || bitsInLastWord == 0 ? -1L : (1L << bitsInLastWord) - 1;
         }
     }
 
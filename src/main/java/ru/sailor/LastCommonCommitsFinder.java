@@ -1,9 +1,13 @@
 package ru.sailor;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public interface LastCommonCommitsFinder {
+public interface LastCommonCommitsFinder extends Closeable {
 
     /**
      * Finds SHAs of last commits that are reachable from both
@@ -16,4 +20,44 @@ public interface LastCommonCommitsFinder {
      */
     Collection<String> findLastCommonCommits(String branchA, String branchB) throws IOException;
 
+    /**
+     * Non-blocking {@link #findLastCommonCommits(String, String)}, by default the query runs in the calling thread
+     *
+     * @param branchA   branch name (e.g. "main")
+     * @param branchB   branch name (e.g. "dev")
+     * @return  SHAs of last common commits, completed exceptionally with IOException if any error occurs
+     */
+    default CompletableFuture<Collection<String>> findLastCommonCommitsAsync(String branchA, String branchB) {
+        try {
+            return CompletableFuture.completedFuture(findLastCommonCommits(branchA, branchB));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Finds SHAs of last common commits of the base branch and each of the branches
+     *
+     * @param baseBranch    branch name (e.g. "main")
+     * @param branches      branch names (e.g. open pull requests)
+     * @return  SHAs of last common commits by branch name
+     * @throws IOException  if any error occurs
+     */
+    default Map<String, Collection<String>> findLastCommonCommits(String baseBranch, Collection<String> branches) throws IOException {
+        var lastCommonCommits = new LinkedHashMap<String, Collection<String>>();
+        for (var branch : branches) {
+            lastCommonCommits.put(branch, findLastCommonCommits(baseBranch, branch));
+        }
+        return lastCommonCommits;
+    }
+
+    /**
+     * Releases connections of the finder
+     *
+     * @throws IOException  if any error occurs
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
 }
@@ -0,0 +1,264 @@
+package ru.sailor.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Value;
+import ru.sailor.LastCommonCommitsFinder;
+import ru.sailor.factory.LastCommonCommitsFinderFactory;
+import ru.sailor.factory.LastCommonCommitsFinderFactoryImpl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Command line tool finding merge bases for many pairs of branches.
+ * <p>
+ * Reads {@code owner/repo branchA branchB} lines and writes a JSON line for every query as soon as it is
+ * answered, so the output order differs from the input one, {@code line} field tells the input line number.
+ * Lines of one repository share a finder and its commit cache and are answered one by one,
+ * repositories are processed in parallel.
+ * <p>
+ * Lines go to the queue of their repository as they are read, so answers start before the input ends
+ * and at most {@link #MAX_PENDING_QUERIES} queries wait in memory, reading waits for them to be answered.
+ * A finder is kept for every repository till the end of the input: its lines may come again later.
+ */
+public class BatchMergeBase {
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int MAX_PENDING_QUERIES = 10_000;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final LastCommonCommitsFinderFactory factory;
+    private final String token;
+    private final int concurrency;
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    /**
+     * @param token       personal access token for all repositories or null for anonymous access
+     * @param concurrency count of repositories processed at once
+     */
+    public BatchMergeBase(LastCommonCommitsFinderFactory factory, String token, int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency should be positive");
+        }
+        this.factory = factory;
+        this.token = token;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Usage: {@code [--concurrency N] [file]}, lines are read from stdin if there is no file.
+     * Token is read from GITHUB_TOKEN environment variable. Exit code is 1 if some query failed.
+     */
+    public static void main(String[] args) throws IOException {
+        var concurrency = DEFAULT_CONCURRENCY;
+        Path file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--concurrency") && i + 1 < args.length) {
+                concurrency = Integer.parseInt(args[++i]);
+            } else {
+                file = Path.of(args[i]);
+            }
+        }
+
+        var input = file == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(file);
+        var output = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        int failedCount;
+        try (input; var factory = new LastCommonCommitsFinderFactoryImpl()) {
+            failedCount = new BatchMergeBase(factory, System.getenv("GITHUB_TOKEN"), concurrency).run(input, output);
+        }
+        System.exit(failedCount == 0 ? 0 : 1);
+    }
+
+    /**
+     * Answers all queries of the input, blank lines and lines starting with # are skipped.
+     *
+     * @return count of failed queries, they are written with {@code error} field
+     */
+    public int run(BufferedReader input, Writer output) throws IOException {
+        failedCount.set(0);
+        var executor = Executors.newFixedThreadPool(concurrency);
+        var pendingQueries = new Semaphore(MAX_PENDING_QUERIES);
+        var workers = new LinkedHashMap<String, Worker>();
+        try {
+            var lineNumber = 0;
+            String line;
+            while ((line = input.readLine()) != null) {
+                lineNumber++;
+                var trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                var parts = trimmed.split("\\s+");
+                var repository = parts[0].split("/");
+                if (parts.length != 3 || repository.length != 2 || repository[0].isBlank() || repository[1].isBlank()) {
+                    write(output, result(lineNumber, trimmed, null, null, "Expected 'owner/repo branchA branchB'"));
+                    continue;
+                }
+                pendingQueries.acquire();
+                var worker = workers.computeIfAbsent(parts[0],
+                        key -> new Worker(repository[0], repository[1], output, pendingQueries));
+                if (worker.add(new Query(lineNumber, repository[0], repository[1], parts[1], parts[2]))) {
+                    executor.execute(worker);
+                }
+            }
+            //all permits are back when the last query is answered
+            pendingQueries.acquire(MAX_PENDING_QUERIES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for results", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            executor.shutdownNow();
+            for (var worker : workers.values()) {
+                worker.close();
+            }
+        }
+        for (var worker : workers.values()) {
+            if (worker.getError() != null) {
+                throw worker.getError();
+            }
+        }
+        return failedCount.get();
+    }
+
+    private Map<String, Object> result(int line, String repository, String branchA, String branchB, String error) {
+        var result = new LinkedHashMap<String, Object>();
+        result.put("line", line);
+        result.put("repo", repository);
+        if (branchA != null) {
+            result.put("a", branchA);
+            result.put("b", branchB);
+        }
+        if (error != null) {
+            failedCount.incrementAndGet();
+            result.put("error", error);
+        }
+        return result;
+    }
+
+    private static void write(Writer output, Map<String, Object> result) {
+        try {
+            var json = mapper.writeValueAsString(result);
+            //lines of different repositories are written from different threads
+            synchronized (output) {
+                output.write(json);
+                output.write('\n');
+                output.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Answers queries of one repository in order of lines, runs on the pool while it has queries.
+     */
+    private class Worker implements Runnable, Closeable {
+
+        private final String owner;
+        private final String repo;
+        private final Writer output;
+        private final Semaphore pendingQueries;
+        private final Queue<Query> queries = new ArrayDeque<>();
+        private boolean isScheduled;
+        private LastCommonCommitsFinder finder;
+        private volatile IOException error;
+
+        Worker(String owner, String repo, Writer output, Semaphore pendingQueries) {
+            this.owner = owner;
+            this.repo = repo;
+            this.output = output;
+            this.pendingQueries = pendingQueries;
+        }
+
+        /**
+         * @return true if the worker should be scheduled, it isn't running or waiting for a thread
+         */
+        synchronized boolean add(Query query) {
+            queries.add(query);
+            if (isScheduled) {
+                return false;
+            }
+            isScheduled = true;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Query query;
+                synchronized (this) {
+                    query = queries.poll();
+                    if (query == null) {
+                        isScheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    answer(query);
+                } catch (UncheckedIOException e) {
+                    error = e.getCause();
+                } finally {
+                    pendingQueries.release();
+                }
+            }
+        }
+
+        private void answer(Query query) {
+            var result = result(query.getLine(), owner + "/" + repo, query.getBranchA(), query.getBranchB(), null);
+            try {
+                if (finder == null) {
+                    finder = factory.create(owner, repo, token);
+                }
+                var mergeBases = new ArrayList<>(finder.findLastCommonCommits(query.getBranchA(), query.getBranchB()));
+                mergeBases.sort(null);
+                result.put("mergeBases", mergeBases);
+            } catch (IOException | RuntimeException e) {
+                failedCount.incrementAndGet();
+                result.put("error", e.getMessage());
+            }
+            write(output, result);
+        }
+
+        IOException getError() {
+            return error;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finder != null) {
+                finder.close();
+            }
+        }
+    }
+
+    @Value
+    private static class Query {
+        int line;
+        String owner;
+        String repo;
+        String branchA;
+        String branchB;
+    }
+
+}
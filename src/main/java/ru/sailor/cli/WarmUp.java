@@ -0,0 +1,57 @@
+package ru.sailor.cli;
+
+import ru.sailor.GithubLastCommonCommitsFinder;
+import ru.sailor.client.GitClient;
+import ru.sailor.client.GithubClient;
+import ru.sailor.factory.LastCommonCommitsFinderFactoryImpl;
+import ru.sailor.graph.CommitGraph;
+import ru.sailor.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Command line tool loading the full history of branches into a commit graph snapshot,
+ * finders created by {@link LastCommonCommitsFinderFactoryImpl} with the snapshot directory start with it.
+ * <p>
+ * If the snapshot exists already, only commits pushed after it are requested.
+ */
+public class WarmUp {
+
+    /**
+     * Usage: {@code snapshotDirectory owner/repo branch...}, token is read from GITHUB_TOKEN environment variable.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args[1].split("/").length != 2) {
+            System.err.println("Usage: WarmUp snapshotDirectory owner/repo branch...");
+            System.exit(2);
+        }
+        var repository = args[1].split("/");
+        var snapshotPath = LastCommonCommitsFinderFactoryImpl.getSnapshotPath(Path.of(args[0]), repository[0], repository[1]);
+        var branchNames = Arrays.asList(args).subList(2, args.length);
+
+        var startTime = System.currentTimeMillis();
+        var commitsCount = warmUp(new GithubClient(repository[0], repository[1], System.getenv("GITHUB_TOKEN")),
+                snapshotPath, branchNames);
+        System.out.println("Loaded " + commitsCount + " commits of " + args[1] + " in "
+                + (System.currentTimeMillis() - startTime) + " ms to " + snapshotPath);
+    }
+
+    /**
+     * Crawls the history of the branches and writes the snapshot, the client is closed.
+     *
+     * @return count of commits in the snapshot
+     */
+    public static int warmUp(GitClient client, Path snapshotPath, Collection<String> branchNames) throws IOException {
+        var knownCommits = Files.exists(snapshotPath) ? CommitGraph.readSnapshot(snapshotPath) : new CommitGraph();
+        try (var finder = new GithubLastCommonCommitsFinder(client, Metrics.NOOP, knownCommits)) {
+            var commitsCount = finder.warmUp(branchNames);
+            finder.writeSnapshot(snapshotPath);
+            return commitsCount;
+        }
+    }
+
+}
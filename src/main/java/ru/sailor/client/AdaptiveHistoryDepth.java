@@ -0,0 +1,47 @@
+package ru.sailor.client;
+
+import java.util.Arrays;
+
+/**
+ * Count of commits to request with a history, adapted to how deep recent queries walked.
+ * When last common commits are thousands of commits behind the heads, a page per request
+ * costs a round trip per page, while a deeper request fetches its pages in parallel.
+ */
+public class AdaptiveHistoryDepth {
+
+    private static final int RECENT_QUERIES_COUNT = 16;
+
+    private final int minDepth;
+    private final int maxDepth;
+    private final long[] recentDepths = new long[RECENT_QUERIES_COUNT];
+    private int recordedCount;
+    private volatile int depth;
+
+    /**
+     * @param minDepth depth used until something is recorded, also the step of depth
+     * @param maxDepth upper bound of the depth
+     */
+    public AdaptiveHistoryDepth(int minDepth, int maxDepth) {
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+        depth = minDepth;
+    }
+
+    public int get() {
+        return depth;
+    }
+
+    /**
+     * @param commitsVisited commits walked by the query to find last common commits
+     */
+    public synchronized void record(long commitsVisited) {
+        recentDepths[recordedCount++ % RECENT_QUERIES_COUNT] = commitsVisited;
+        //median is not moved by a single query that walked the whole history
+        var recent = Arrays.copyOf(recentDepths, Math.min(recordedCount, RECENT_QUERIES_COUNT));
+        Arrays.sort(recent);
+        var median = recent[recent.length / 2];
+        var pages = (Math.min(median, maxDepth) + minDepth - 1) / minDepth;
+        depth = (int) Math.max(minDepth, pages * minDepth);
+    }
+
+}
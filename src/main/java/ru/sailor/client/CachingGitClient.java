@@ -0,0 +1,99 @@
+package ru.sailor.client;
+
+import ru.sailor.data.GitBranch;
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitComparison;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.storage.CommitStore;
+import ru.sailor.storage.Sha;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * GitClient that answers history requests from the local {@link CommitStore} when the stored history
+ * is complete, and saves everything the delegate returns into the store.
+ * Branch heads move, so branch requests always go to the delegate.
+ */
+public class CachingGitClient implements GitClient {
+
+    private final GitClient delegate;
+    private final CommitStore store;
+
+    public CachingGitClient(GitClient delegate, CommitStore store) {
+        this.delegate = delegate;
+        this.store = store;
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+        return getCommitHistory(commitSHA, countOfCommits, sha -> false);
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits,
+                                            Predicate<String> isKnown) throws GitCommunicationException {
+        if (countOfCommits >= 0 && Sha.isValid(commitSHA) && store.contains(commitSHA)) {
+            List<GitCommit> storedHistory;
+            try {
+                storedHistory = store.getCompleteHistory(commitSHA, countOfCommits);
+            } catch (IOException e) {
+                throw new GitCommunicationException("Error while reading commits from the local store");
+            }
+            if (storedHistory != null) {
+                return storedHistory;
+            }
+        }
+
+        var commitHistory = delegate.getCommitHistory(commitSHA, countOfCommits, isKnown);
+        save(commitHistory);
+        return commitHistory;
+    }
+
+    /**
+     * Closes the delegate, the store is shared and is closed by its owner.
+     */
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public GitBranch getBranchInfo(String branchName) throws GitCommunicationException {
+        var branch = delegate.getBranchInfo(branchName);
+        save(List.of(branch.getLastCommit()));
+        return branch;
+    }
+
+    @Override
+    public List<GitBranch> getBranchesInfo(List<String> branchNames) throws GitCommunicationException {
+        var branches = delegate.getBranchesInfo(branchNames);
+        var heads = new ArrayList<GitCommit>(branches.size());
+        for (var branch : branches) {
+            heads.add(branch.getLastCommit());
+        }
+        save(heads);
+        return branches;
+    }
+
+    @Override
+    public GitComparison compare(String baseRef, String headRef) throws GitCommunicationException {
+        var comparison = delegate.compare(baseRef, headRef);
+        if (comparison != null) {
+            save(List.of(comparison.getMergeBase()));
+            save(comparison.getHeadCommits());
+        }
+        return comparison;
+    }
+
+    private void save(List<GitCommit> commits) throws GitCommunicationException {
+        try {
+            store.putAll(commits);
+        } catch (IOException e) {
+            throw new GitCommunicationException("Error while saving commits to the local store");
+        }
+    }
+
+}
@@ -2,15 +2,84 @@ package ru.sailor.client;
 
 import ru.sailor.data.GitBranch;
 import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitComparison;
 import ru.sailor.exceptions.GitCommunicationException;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
-public interface GitClient {
+public interface GitClient extends Closeable {
 
     List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException;
 
+    /**
+     * Requests history like {@link #getCommitHistory(String, Integer)}, but may return less commits
+     * when the rest of the history is known to the caller already.
+     *
+     * @param isKnown tells whether the caller has the commit with its history
+     */
+    default List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits,
+                                             Predicate<String> isKnown) throws GitCommunicationException {
+        return getCommitHistory(commitSHA, countOfCommits);
+    }
+
     GitBranch getBranchInfo(String branchName) throws GitCommunicationException;
 
+    /**
+     * Heads of many branches at once, e.g. for a batch query. A client may check the repository
+     * once for all of them instead of once per branch.
+     *
+     * @return branches in the order of names
+     */
+    default List<GitBranch> getBranchesInfo(List<String> branchNames) throws GitCommunicationException {
+        var branches = new ArrayList<GitBranch>(branchNames.size());
+        for (var branchName : branchNames) {
+            branches.add(getBranchInfo(branchName));
+        }
+        return branches;
+    }
+
+    /**
+     * Compares two refs in a single request.
+     *
+     * @return merge base and commits reachable only from headRef,
+     * or null if the client can't compare refs or they have no common ancestor
+     */
+    default GitComparison compare(String baseRef, String headRef) throws GitCommunicationException {
+        return null;
+    }
+
+    /**
+     * Non-blocking {@link #getBranchInfo(String)}, by default the request is made in the calling thread.
+     */
+    default CompletableFuture<GitBranch> getBranchInfoAsync(String branchName) {
+        try {
+            return CompletableFuture.completedFuture(getBranchInfo(branchName));
+        } catch (GitCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Non-blocking {@link #compare(String, String)}, by default the request is made in the calling thread.
+     */
+    default CompletableFuture<GitComparison> compareAsync(String baseRef, String headRef) {
+        try {
+            return CompletableFuture.completedFuture(compare(baseRef, headRef));
+        } catch (GitCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Releases connections owned by the client, shared ones are left to their owner.
+     */
+    @Override
+    default void close() throws IOException {
+    }
 
 }
@@ -1,132 +1,333 @@
 package ru.sailor.client;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 import lombok.SneakyThrows;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import ru.sailor.converter.GithubBranchToGitCommitConverter;
-import ru.sailor.converter.GithubCommitToGitCommitConverter;
+import ru.sailor.converter.GithubCommitsStreamDecoder;
+import ru.sailor.converter.GithubCompareToGitComparisonConverter;
 import ru.sailor.data.GitBranch;
 import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitComparison;
 import ru.sailor.data.GithubBranch;
-import ru.sailor.data.GithubCommit;
+import ru.sailor.data.GithubCommitsPage;
+import ru.sailor.data.GithubCompare;
 import ru.sailor.data.GithubRepo;
 import ru.sailor.exceptions.ApiRateLimitException;
 import ru.sailor.exceptions.DataNotFoundException;
 import ru.sailor.exceptions.GitCommunicationException;
 import ru.sailor.exceptions.InvalidAuthTokenException;
 import ru.sailor.exceptions.InvalidCommitCountException;
+import ru.sailor.jfr.CommitHistoryEvent;
+import ru.sailor.jfr.HttpRequestEvent;
+import ru.sailor.metrics.Metrics;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 public class GithubClient implements GitClient {
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    private static final String GITHUB_API_URL = "https://api.github.com/repos";
+    public static final String GITHUB_API_URL = "https://api.github.com/repos";
     public static final Integer MAX_COMMITS_PER_PAGE = 100;
-    private final CloseableHttpClient client = HttpClients.createDefault();
+    public static final int MAX_PARALLEL_PAGES = 4;
+    //traversal prefetches histories in parallel, default pool allows only 2 connections per route
+    private static final Integer MAX_CONNECTIONS = 16;
+    //the scheduler waits before each retry, the limit only stops a server rejecting requests forever
+    private static final int MAX_RATE_LIMITED_ATTEMPTS = 5;
+    //handler result when the response was rejected by the rate limit and the request should be repeated
+    private static final Object RETRY = new Object();
+    private static final Executor PAGES_EXECUTOR = Executors.newFixedThreadPool(MAX_CONNECTIONS, runnable -> {
+        var thread = new Thread(runnable, "github-pages");
+        thread.setDaemon(true);
+        return thread;
+    });
 
+    private final CloseableHttpClient client;
+    private final boolean isClientOwned;
     private final String githubUrl;
-    private final Boolean hasToken;
-    private final String authToken;
+    private final RateLimitScheduler scheduler;
+    private final HttpResponseCache responseCache;
+    private final Metrics metrics;
 
     public GithubClient(String owner, String repo) {
-        githubUrl = GITHUB_API_URL + "/" + owner + "/" + repo;
-        authToken = "";
-        hasToken = false;
+        this(GITHUB_API_URL, owner, repo, null);
     }
 
     public GithubClient(String owner, String repo, String authToken) {
-        githubUrl = GITHUB_API_URL + "/" + owner + "/" + repo;
-        this.authToken = "Bearer " + authToken;
-        hasToken = true;
+        this(GITHUB_API_URL, owner, repo, authToken);
+    }
+
+    /**
+     * @param apiUrl    repos API root, e.g. {@link #GITHUB_API_URL} or a GitHub Enterprise/local address
+     * @param authToken personal access token or null for anonymous access
+     */
+    public GithubClient(String apiUrl, String owner, String repo, String authToken) {
+        this(apiUrl, owner, repo, authToken, new HttpResponseCache());
+    }
+
+    /**
+     * @param responseCache cache of responses to make conditional requests, could be shared by clients
+     *                      with the same token
+     */
+    public GithubClient(String apiUrl, String owner, String repo, String authToken, HttpResponseCache responseCache) {
+        this(apiUrl, owner, repo, authToken, responseCache, Metrics.NOOP);
+    }
+
+    /**
+     * @param metrics receives endpoint, status, size and latency of every response and the remaining rate limit
+     */
+    public GithubClient(String apiUrl, String owner, String repo, String authToken, HttpResponseCache responseCache,
+                        Metrics metrics) {
+        this(apiUrl, owner, repo, RateLimitScheduler.forToken(authToken), responseCache, metrics);
+    }
+
+    /**
+     * @param scheduler pool of tokens to make requests with, could be shared by clients of different repositories
+     */
+    public GithubClient(String apiUrl, String owner, String repo, RateLimitScheduler scheduler,
+                        HttpResponseCache responseCache, Metrics metrics) {
+        //builder also sends "Accept-Encoding: gzip,deflate" and decompresses responses on the fly
+        this(apiUrl, owner, repo, scheduler, responseCache, metrics, HttpClients.custom()
+                .setMaxConnPerRoute(MAX_CONNECTIONS)
+                .setMaxConnTotal(MAX_CONNECTIONS)
+                .build(), true);
+    }
+
+    /**
+     * @param client pooled client shared by clients of different repositories, it is not closed with this client
+     */
+    public GithubClient(String apiUrl, String owner, String repo, RateLimitScheduler scheduler,
+                        HttpResponseCache responseCache, Metrics metrics, CloseableHttpClient client) {
+        this(apiUrl, owner, repo, scheduler, responseCache, metrics, client, false);
+    }
+
+    private GithubClient(String apiUrl, String owner, String repo, RateLimitScheduler scheduler,
+                         HttpResponseCache responseCache, Metrics metrics, CloseableHttpClient client,
+                         boolean isClientOwned) {
+        this.client = client;
+        this.isClientOwned = isClientOwned;
+        githubUrl = apiUrl + "/" + owner + "/" + repo;
+        this.scheduler = scheduler;
+        this.responseCache = responseCache;
+        this.metrics = metrics;
+    }
+
+    public HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClientOwned) {
+            client.close();
+        }
     }
 
     @Override
     public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+        return getCommitHistory(commitSHA, countOfCommits, sha -> false);
+    }
+
+    /**
+     * Requests pages of the history, up to {@link #MAX_PARALLEL_PAGES} of them in parallel when more than
+     * one page is needed. Stops at the end of the history or at a page where all commits are known already.
+     */
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits,
+                                            Predicate<String> isKnown) throws GitCommunicationException {
         if (countOfCommits < 0) {
             throw new InvalidCommitCountException("Count of commits should be > 0, " + countOfCommits + " < 0");
         }
 
-        var commitHistory = new ArrayList<GithubCommit>();
-        Integer pageCount = 1;
-        while (countOfCommits > 0) {
-            var previousCommits = getPreviousCommits(commitSHA, pageCount, Math.min(countOfCommits, MAX_COMMITS_PER_PAGE));
-            if (previousCommits.isEmpty()) {
-                break;
-            }
-
-            commitHistory.addAll(previousCommits);
-
-            countOfCommits -= Math.min(countOfCommits, MAX_COMMITS_PER_PAGE);
-            pageCount++;
-
-            if (hasTheFirstCommit(commitHistory)) {
-                break;
+        var event = CommitHistoryEvent.start();
+        var pages = new GithubResponses.HistoryPages(countOfCommits, isKnown);
+        try {
+            for (var count = pages.getNextWaveSize(); count > 0; count = pages.getNextWaveSize()) {
+                pages.add(getPages(commitSHA, pages.getNextPage(), count));
             }
+            return pages.getHistory();
+        } finally {
+            event.finish(commitSHA, countOfCommits, pages.getHistory().size(), pages.getRequestedPages());
         }
-
-        return commitHistory.stream()
-                .map(GithubCommitToGitCommitConverter::toGit)
-                .collect(Collectors.toList());
     }
 
     @Override
     public GitBranch getBranchInfo(String branchName) throws GitCommunicationException {
         checkGithubConnection();
+        return requestBranchInfo(branchName);
+    }
 
-        var request = new HttpGet(branchInfoUri(branchName));
-        if (hasToken)
-            request.addHeader(HttpHeaders.AUTHORIZATION, authToken);
+    /**
+     * Checks the repository once for all branches.
+     */
+    @Override
+    public List<GitBranch> getBranchesInfo(List<String> branchNames) throws GitCommunicationException {
+        checkGithubConnection();
+        var branches = new ArrayList<GitBranch>(branchNames.size());
+        for (var branchName : branchNames) {
+            branches.add(requestBranchInfo(branchName));
+        }
+        return branches;
+    }
 
-        String responseBody;
+    private GitBranch requestBranchInfo(String branchName) throws GitCommunicationException {
         GithubBranch branchInfo;
         try {
-            responseBody = client.execute(request, httpResponse ->
-                    IOUtils.toString(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8.name()));
-            branchInfo = mapper.readValue(responseBody, GithubBranch.class);
+            branchInfo = get("branches", 0, branchInfoUri(branchName), body -> mapper.readValue(body, GithubBranch.class));
 
+        } catch (GitCommunicationException e) {
+            throw e;
         } catch (IOException e) {
-            throw new GitCommunicationException("Unknown error while making request to github");
+            throw new GitCommunicationException("Unknown error while making request to github", e);
         }
         checkGithubErrorMessage(branchInfo.getErrorMessage());
 
         return GithubBranchToGitCommitConverter.toGit(branchInfo);
     }
 
-    private List<GithubCommit> getPreviousCommits(String commitSHA, Integer pageCount, Integer countOfCommits) throws GitCommunicationException {
-        var request = new HttpGet(commitHistoryUri(commitSHA, pageCount, Math.min(countOfCommits, MAX_COMMITS_PER_PAGE)));
+    @Override
+    public GitComparison compare(String baseRef, String headRef) throws GitCommunicationException {
+        GithubCompare compare;
+        try {
+            compare = get("compare", 0, compareUri(baseRef, headRef), body -> mapper.readValue(body, GithubCompare.class));
+        } catch (GitCommunicationException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new GitCommunicationException("Unknown error while making request to github", e);
+        }
+        checkGithubErrorMessage(compare.getErrorMessage());
+
+        //e.g. "No common ancestor between ..."
+        if (compare.getMergeBaseCommit() == null) {
+            return null;
+        }
+        return GithubCompareToGitComparisonConverter.toGit(compare);
+    }
+
+    /**
+     * Requests pages in parallel, the first one in the calling thread.
+     */
+    private List<List<GitCommit>> getPages(String commitSHA, int firstPage, int count) throws GitCommunicationException {
+        var otherPages = new ArrayList<CompletableFuture<List<GitCommit>>>();
+        for (int pageNumber = firstPage + 1; pageNumber < firstPage + count; pageNumber++) {
+            var page = pageNumber;
+            otherPages.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return getPreviousCommits(commitSHA, page);
+                } catch (GitCommunicationException e) {
+                    throw new CompletionException(e);
+                }
+            }, PAGES_EXECUTOR));
+        }
 
-        if (hasToken)
-            request.addHeader(HttpHeaders.AUTHORIZATION, authToken);
+        var pages = new ArrayList<List<GitCommit>>();
+        pages.add(getPreviousCommits(commitSHA, firstPage));
+        for (var page : otherPages) {
+            try {
+                pages.add(page.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof GitCommunicationException) {
+                    throw (GitCommunicationException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return pages;
+    }
 
-        String responseBody = null;
+    //pages are always full sized: page N with a smaller per_page would start at another offset
+    private List<GitCommit> getPreviousCommits(String commitSHA, Integer pageCount) throws GitCommunicationException {
+        GithubCommitsPage page;
         try {
-            responseBody = client.execute(request, httpResponse ->
-                    IOUtils.toString(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8.name()));
-            return mapper.readValue(responseBody, new TypeReference<ArrayList<GithubCommit>>() {});
-        } catch (MismatchedInputException e) {
-            checkGithubErrorMessage(responseBody);
-            throw new GitCommunicationException("Unknown error while making request to github");
+            page = get("commits", pageCount, commitHistoryUri(commitSHA, pageCount, MAX_COMMITS_PER_PAGE),
+                    GithubCommitsStreamDecoder::decode);
+        } catch (GitCommunicationException e) {
+            throw e;
         } catch (IOException e) {
+            throw new GitCommunicationException("Unknown error while making request to github", e);
+        }
+        if (page.getErrorMessage() != null) {
+            checkGithubErrorMessage(page.getErrorMessage());
             throw new GitCommunicationException("Unknown error while making request to github");
         }
+        return page.getCommits();
+    }
+
+    /**
+     * Makes GET request, conditional one if the response is cached, and reads the body straight from the response.
+     * On 304 Not Modified the cached body is read instead.
+     * The request waits for the rate limit scheduler and is repeated when it was rejected by the rate limit,
+     * the last rejected response is read as usual to report the error.
+     *
+     * @param endpoint kind of the request for metrics
+     * @param page     page of a paged request or 0
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T get(String endpoint, int page, URI uri, BodyReader<T> bodyReader) throws IOException {
+        var url = uri.toString();
+        for (int attempt = 1; ; attempt++) {
+            var lease = scheduler.acquire();
+            var request = new HttpGet(uri);
+            if (lease.getAuthorization() != null)
+                request.addHeader(HttpHeaders.AUTHORIZATION, lease.getAuthorization());
+
+            var cached = GithubResponses.getCached(responseCache, endpoint, url);
+            if (cached != null) {
+                if (cached.getETag() != null)
+                    request.addHeader(HttpHeaders.IF_NONE_MATCH, cached.getETag());
+                if (cached.getLastModified() != null)
+                    request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+
+            var isLastAttempt = attempt == MAX_RATE_LIMITED_ATTEMPTS;
+            var event = HttpRequestEvent.start();
+            var startTime = System.nanoTime();
+            var result = client.execute(request, httpResponse -> {
+                var status = httpResponse.getStatusLine().getStatusCode();
+                UnaryOperator<String> headers = name -> headerValue(httpResponse, name);
+                var shouldRetry = GithubResponses.recordRateLimit(scheduler, metrics, lease, status, headers) &&
+                        !isLastAttempt;
+                var content = new CountingInputStream(httpResponse.getEntity() == null ? InputStream.nullInputStream() :
+                        httpResponse.getEntity().getContent());
+                try {
+                    return shouldRetry ? RETRY :
+                            GithubResponses.readBody(responseCache, endpoint, url, cached, status, headers, content,
+                                    bodyReader);
+                } finally {
+                    metrics.onHttpRequest(endpoint, status, content.getByteCount(), System.nanoTime() - startTime);
+                    event.finish(endpoint, url, page, status, content.getByteCount());
+                }
+            });
+            if (result != RETRY) {
+                return (T) result;
+            }
+        }
+    }
+
+    private static String headerValue(HttpResponse httpResponse, String name) {
+        var header = httpResponse.getFirstHeader(name);
+        return header == null ? null : header.getValue();
     }
 
-    private Boolean hasTheFirstCommit(List<GithubCommit> commits) {
+    static Boolean hasTheFirstCommit(List<GitCommit> commits) {
         return commits.get(commits.size() - 1).getParents().size() == 0;
     }
 
@@ -139,6 +340,11 @@ public class GithubClient implements GitClient {
                 .build();
     }
 
+    @SneakyThrows
+    private URI compareUri(String baseRef, String headRef) {
+        return new URI(githubUrl + "/compare/" + baseRef + "..." + headRef);
+    }
+
     @SneakyThrows
     private URI branchInfoUri(String branchName) {
         return new URI(githubUrl + "/branches/" + branchName);
@@ -147,24 +353,19 @@ public class GithubClient implements GitClient {
 
     //actually only for branchInfo in current realization, so to make solution faster use only hear
     private void checkGithubConnection() throws GitCommunicationException {
-        var request = new HttpGet(githubUrl);
-        if (hasToken)
-            request.addHeader(HttpHeaders.AUTHORIZATION, authToken);
-
-        String responseBody;
         GithubRepo repoInfo;
         try {
-            responseBody = client.execute(request, httpResponse ->
-                    IOUtils.toString(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8.name()));
-            repoInfo = mapper.readValue(responseBody, GithubRepo.class);
-        } catch (IOException e) {
-            throw new GitCommunicationException("Unknown error while making request to github");
+            repoInfo = get("repo", 0, new URI(githubUrl), body -> mapper.readValue(body, GithubRepo.class));
+        } catch (GitCommunicationException e) {
+            throw e;
+        } catch (IOException | URISyntaxException e) {
+            throw new GitCommunicationException("Unknown error while making request to github", e);
         }
 
         checkGithubErrorMessage(repoInfo.getErrorMessage());
     }
 
-    private void checkGithubErrorMessage(String errorMessage) throws GitCommunicationException {
+    static void checkGithubErrorMessage(String errorMessage) throws GitCommunicationException {
         if (errorMessage == null) {
             //all is correct
             return;
@@ -180,4 +381,8 @@ public class GithubClient implements GitClient {
         }
     }
 
+    interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
 }
@@ -0,0 +1,191 @@
+package ru.sailor.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import ru.sailor.converter.GithubGraphQLCommitToGitCommitConverter;
+import ru.sailor.data.GitBranch;
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GithubGraphQLCommit;
+import ru.sailor.exceptions.ApiRateLimitException;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.exceptions.InvalidAuthTokenException;
+import ru.sailor.exceptions.InvalidCommitCountException;
+import ru.sailor.storage.Sha;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GitClient on top of GitHub GraphQL API.
+ * <p>
+ * Unlike REST /commits it selects only oid, parents and committedDate of every commit
+ * and pages through the history connection with cursors.
+ * GitHub doesn't allow anonymous GraphQL calls, so the token is required.
+ */
+public class GithubGraphQLClient implements GitClient {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static final URI GITHUB_GRAPHQL_URL = URI.create("https://api.github.com/graphql");
+    public static final Integer MAX_COMMITS_PER_PAGE = 100;
+    //octopus merges with more parents are not met in practice
+    private static final Integer MAX_PARENTS_COUNT = 100;
+
+    private static final String COMMIT_FIELDS = "oid committedDate parents(first: " + MAX_PARENTS_COUNT + ") { nodes { oid } }";
+
+    private static final String HISTORY_QUERY = "query($owner: String!, $repo: String!, $sha: GitObjectID!, $first: Int!, $after: String) {"
+            + " repository(owner: $owner, name: $repo) { object(oid: $sha) { ... on Commit {"
+            + " history(first: $first, after: $after) { pageInfo { hasNextPage endCursor } nodes { " + COMMIT_FIELDS + " } }"
+            + " } } } }";
+
+    private static final String BRANCH_QUERY = "query($owner: String!, $repo: String!, $branch: String!) {"
+            + " repository(owner: $owner, name: $repo) { ref(qualifiedName: $branch) { name target { ... on Commit { "
+            + COMMIT_FIELDS + " } } } } }";
+
+    private final CloseableHttpClient client = HttpClients.createDefault();
+
+    private final URI graphqlUrl;
+    private final String owner;
+    private final String repo;
+    private final String authToken;
+
+    public GithubGraphQLClient(String owner, String repo, String authToken) {
+        this(owner, repo, authToken, GITHUB_GRAPHQL_URL);
+    }
+
+    public GithubGraphQLClient(String owner, String repo, String authToken, URI graphqlUrl) {
+        this.owner = owner;
+        this.repo = repo;
+        this.authToken = "Bearer " + authToken;
+        this.graphqlUrl = graphqlUrl;
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+        if (countOfCommits < 0) {
+            throw new InvalidCommitCountException("Count of commits should be > 0, " + countOfCommits + " < 0");
+        }
+        if (!Sha.isValid(commitSHA)) {
+            throw new DataNotFoundException("Commit not found. Invalid commit sha " + commitSHA);
+        }
+
+        var commitHistory = new ArrayList<GitCommit>();
+        String cursor = null;
+        while (countOfCommits > 0) {
+            var variables = new HashMap<String, Object>();
+            variables.put("owner", owner);
+            variables.put("repo", repo);
+            variables.put("sha", commitSHA);
+            variables.put("first", Math.min(countOfCommits, MAX_COMMITS_PER_PAGE));
+            variables.put("after", cursor);
+
+            var commit = execute(HISTORY_QUERY, variables).path("repository").path("object");
+            if (commit.isMissingNode() || commit.isNull()) {
+                throw new DataNotFoundException("Commit " + commitSHA + " not found");
+            }
+
+            var history = commit.path("history");
+            var nodes = history.path("nodes");
+            for (var node : nodes) {
+                commitHistory.add(toGit(node));
+            }
+            countOfCommits -= nodes.size();
+
+            var pageInfo = history.path("pageInfo");
+            if (nodes.size() == 0 || !pageInfo.path("hasNextPage").asBoolean()) {
+                break;
+            }
+            cursor = pageInfo.path("endCursor").asText();
+        }
+
+        return commitHistory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Override
+    public GitBranch getBranchInfo(String branchName) throws GitCommunicationException {
+        var variables = new HashMap<String, Object>();
+        variables.put("owner", owner);
+        variables.put("repo", repo);
+        variables.put("branch", "refs/heads/" + branchName);
+
+        var ref = execute(BRANCH_QUERY, variables).path("repository").path("ref");
+        if (ref.isMissingNode() || ref.isNull()) {
+            throw new DataNotFoundException("Branch not found. Invalid branch name " + branchName);
+        }
+
+        return GitBranch.builder()
+                .name(ref.path("name").asText())
+                .lastCommit(toGit(ref.path("target")))
+                .build();
+    }
+
+    private GitCommit toGit(JsonNode node) throws GitCommunicationException {
+        try {
+            return GithubGraphQLCommitToGitCommitConverter.toGit(mapper.treeToValue(node, GithubGraphQLCommit.class));
+        } catch (IOException e) {
+            throw new GitCommunicationException("Unexpected commit format in github response");
+        }
+    }
+
+    private JsonNode execute(String query, Map<String, Object> variables) throws GitCommunicationException {
+        var request = new HttpPost(graphqlUrl);
+        request.addHeader(HttpHeaders.AUTHORIZATION, authToken);
+
+        JsonNode response;
+        try {
+            var body = mapper.writeValueAsString(Map.of("query", query, "variables", variables));
+            request.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+            var responseBody = client.execute(request, httpResponse ->
+                    IOUtils.toString(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8.name()));
+            response = mapper.readTree(responseBody);
+        } catch (IOException e) {
+            throw new GitCommunicationException("Unknown error while making request to github");
+        }
+
+        checkGithubErrors(response);
+        return response.path("data");
+    }
+
+    private void checkGithubErrors(JsonNode response) throws GitCommunicationException {
+        var message = response.path("message").asText("");
+        if (message.contains("Bad credentials")) {
+            throw new InvalidAuthTokenException("Bad credentials. Invalid auth token.");
+        }
+        if (message.contains("API rate limit exceeded")) {
+            throw new ApiRateLimitException("API rate limit exceeded.");
+        }
+
+        for (var error : response.path("errors")) {
+            var type = error.path("type").asText("");
+            if (type.equals("RATE_LIMITED")) {
+                throw new ApiRateLimitException("API rate limit exceeded.");
+            }
+            if (type.equals("NOT_FOUND")) {
+                throw new DataNotFoundException("Repository not found. Invalid owner or repo name");
+            }
+            throw new GitCommunicationException("Github error: " + error.path("message").asText());
+        }
+        if (!response.has("data")) {
+            throw new GitCommunicationException("Unknown error while making request to github");
+        }
+    }
+
+}
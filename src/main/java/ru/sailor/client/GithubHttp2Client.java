@@ -0,0 +1,281 @@
+package ru.sailor.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.SneakyThrows;
+import org.apache.http.client.utils.URIBuilder;
+import ru.sailor.converter.GithubBranchToGitCommitConverter;
+import ru.sailor.converter.GithubCommitsStreamDecoder;
+import ru.sailor.converter.GithubCompareToGitComparisonConverter;
+import ru.sailor.data.GitBranch;
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitComparison;
+import ru.sailor.data.GithubBranch;
+import ru.sailor.data.GithubCompare;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.exceptions.InvalidCommitCountException;
+import ru.sailor.jfr.CommitHistoryEvent;
+import ru.sailor.jfr.HttpRequestEvent;
+import ru.sailor.metrics.Metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
+
+import static ru.sailor.client.GithubClient.MAX_COMMITS_PER_PAGE;
+import static ru.sailor.client.GithubClient.checkGithubErrorMessage;
+
+/**
+ * GitClient on top of GitHub REST API and JDK {@link HttpClient}.
+ * <p>
+ * Requests are sent asynchronously and multiplexed over HTTP/2 connections, so concurrent queries don't hold
+ * a thread or a connection each while they wait for responses. Servers without HTTP/2 are served over HTTP/1.1.
+ * Like {@link GithubClient} it makes conditional requests with a response cache and waits for the rate limit
+ * scheduler, but without blocking a thread.
+ */
+public class GithubHttp2Client implements GitClient {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    //the scheduler waits before each retry, the limit only stops a server rejecting requests forever
+    private static final int MAX_RATE_LIMITED_ATTEMPTS = 5;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+
+    private final String githubUrl;
+    private final RateLimitScheduler scheduler;
+    private final HttpResponseCache responseCache;
+    private final Metrics metrics;
+
+    /**
+     * @param authToken personal access token or null for anonymous access
+     */
+    public GithubHttp2Client(String owner, String repo, String authToken) {
+        this(GithubClient.GITHUB_API_URL, owner, repo, RateLimitScheduler.forToken(authToken),
+                new HttpResponseCache(), Metrics.NOOP);
+    }
+
+    /**
+     * @param apiUrl    repos API root, e.g. {@link GithubClient#GITHUB_API_URL} or a GitHub Enterprise/local address
+     * @param scheduler pool of tokens to make requests with, could be shared with other clients
+     */
+    public GithubHttp2Client(String apiUrl, String owner, String repo, RateLimitScheduler scheduler,
+                             HttpResponseCache responseCache, Metrics metrics) {
+        githubUrl = apiUrl + "/" + owner + "/" + repo;
+        this.scheduler = scheduler;
+        this.responseCache = responseCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+        return getCommitHistory(commitSHA, countOfCommits, sha -> false);
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits,
+                                            Predicate<String> isKnown) throws GitCommunicationException {
+        if (countOfCommits < 0) {
+            throw new InvalidCommitCountException("Count of commits should be > 0, " + countOfCommits + " < 0");
+        }
+        return join(getCommitHistoryAsync(commitSHA, countOfCommits, isKnown));
+    }
+
+    /**
+     * Requests pages of the history in waves of {@link GithubClient#MAX_PARALLEL_PAGES},
+     * stops at the end of the history or at a page where all commits are known already.
+     */
+    public CompletableFuture<List<GitCommit>> getCommitHistoryAsync(String commitSHA, int countOfCommits,
+                                                                    Predicate<String> isKnown) {
+        var event = CommitHistoryEvent.start();
+        var pages = new GithubResponses.HistoryPages(countOfCommits, isKnown);
+        return getHistoryFrom(commitSHA, pages).whenComplete((history, error) ->
+                event.finish(commitSHA, countOfCommits, pages.getHistory().size(), pages.getRequestedPages()));
+    }
+
+    @Override
+    public GitBranch getBranchInfo(String branchName) throws GitCommunicationException {
+        return join(getBranchInfoAsync(branchName));
+    }
+
+    @Override
+    public CompletableFuture<GitBranch> getBranchInfoAsync(String branchName) {
+        return getAsync("branches", 0, branchInfoUri(branchName), body -> mapper.readValue(body, GithubBranch.class), 1)
+                .thenApply(branchInfo -> {
+                    checkErrorMessage(branchInfo.getErrorMessage());
+                    return GithubBranchToGitCommitConverter.toGit(branchInfo);
+                });
+    }
+
+    @Override
+    public GitComparison compare(String baseRef, String headRef) throws GitCommunicationException {
+        return join(compareAsync(baseRef, headRef));
+    }
+
+    @Override
+    public CompletableFuture<GitComparison> compareAsync(String baseRef, String headRef) {
+        return getAsync("compare", 0, compareUri(baseRef, headRef), body -> mapper.readValue(body, GithubCompare.class), 1)
+                .thenApply(compare -> {
+                    checkErrorMessage(compare.getErrorMessage());
+                    //e.g. "No common ancestor between ..."
+                    return compare.getMergeBaseCommit() == null ? null : GithubCompareToGitComparisonConverter.toGit(compare);
+                });
+    }
+
+    private CompletableFuture<List<GitCommit>> getHistoryFrom(String commitSHA, GithubResponses.HistoryPages pages) {
+        var count = pages.getNextWaveSize();
+        if (count == 0) {
+            return CompletableFuture.completedFuture(pages.getHistory());
+        }
+        var wave = new ArrayList<CompletableFuture<List<GitCommit>>>();
+        for (int page = pages.getNextPage(); wave.size() < count; page++) {
+            wave.add(getPreviousCommitsAsync(commitSHA, page));
+        }
+
+        return CompletableFuture.allOf(wave.toArray(new CompletableFuture<?>[0])).thenCompose(ignored -> {
+            var previousCommits = new ArrayList<List<GitCommit>>();
+            for (var page : wave) {
+                previousCommits.add(page.join());
+            }
+            pages.add(previousCommits);
+            return getHistoryFrom(commitSHA, pages);
+        });
+    }
+
+    //pages are always full sized: page N with a smaller per_page would start at another offset
+    private CompletableFuture<List<GitCommit>> getPreviousCommitsAsync(String commitSHA, int pageNumber) {
+        return getAsync("commits", pageNumber, commitHistoryUri(commitSHA, pageNumber), GithubCommitsStreamDecoder::decode, 1)
+                .thenApply(page -> {
+                    if (page.getErrorMessage() != null) {
+                        checkErrorMessage(page.getErrorMessage());
+                        throw new CompletionException(new GitCommunicationException("Unknown error while making request to github"));
+                    }
+                    return page.getCommits();
+                });
+    }
+
+    /**
+     * Makes GET request, conditional one if the response is cached, after the rate limit scheduler allows it.
+     * A request rejected by the rate limit is repeated, the last rejected response is read as usual to report the error.
+     * The future fails with {@link GitCommunicationException}.
+     *
+     * @param endpoint kind of the request for metrics
+     * @param page     page of a paged request or 0
+     */
+    private <T> CompletableFuture<T> getAsync(String endpoint, int page, URI uri, GithubClient.BodyReader<T> bodyReader,
+                                              int attempt) {
+        var url = uri.toString();
+        return scheduler.acquireAsync().thenCompose(lease -> {
+            var request = HttpRequest.newBuilder(uri).GET().header("Accept-Encoding", "gzip");
+            if (lease.getAuthorization() != null)
+                request.header("Authorization", lease.getAuthorization());
+
+            var cached = GithubResponses.getCached(responseCache, endpoint, url);
+            if (cached != null) {
+                if (cached.getETag() != null)
+                    request.header("If-None-Match", cached.getETag());
+                if (cached.getLastModified() != null)
+                    request.header("If-Modified-Since", cached.getLastModified());
+            }
+
+            var event = HttpRequestEvent.start();
+            var startTime = System.nanoTime();
+            return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray()).thenCompose(response -> {
+                var status = response.statusCode();
+                UnaryOperator<String> headers = name -> response.headers().firstValue(name).orElse(null);
+                var shouldRetry = GithubResponses.recordRateLimit(scheduler, metrics, lease, status, headers) &&
+                        attempt < MAX_RATE_LIMITED_ATTEMPTS;
+                byte[] body;
+                try {
+                    body = decompress(response);
+                } catch (IOException e) {
+                    event.finish(endpoint, url, page, status, response.body().length);
+                    throw new CompletionException(e);
+                }
+                metrics.onHttpRequest(endpoint, status, body.length, System.nanoTime() - startTime);
+                event.finish(endpoint, url, page, status, body.length);
+
+                if (shouldRetry) {
+                    return getAsync(endpoint, page, uri, bodyReader, attempt + 1);
+                }
+                try {
+                    return CompletableFuture.completedFuture(GithubResponses.readBody(responseCache, endpoint, url, cached,
+                            status, headers, new ByteArrayInputStream(body), bodyReader));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }).exceptionally(error -> {
+            var cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof GitCommunicationException) {
+                throw new CompletionException(cause);
+            }
+            throw new CompletionException(new GitCommunicationException("Unknown error while making request to github",
+                    cause));
+        });
+    }
+
+    //unlike apache client JDK client doesn't decompress responses itself
+    private static byte[] decompress(HttpResponse<byte[]> response) throws IOException {
+        if (!response.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip")) {
+            return response.body();
+        }
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private static void checkErrorMessage(String errorMessage) {
+        try {
+            checkGithubErrorMessage(errorMessage);
+        } catch (GitCommunicationException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws GitCommunicationException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof GitCommunicationException) {
+                throw (GitCommunicationException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @SneakyThrows
+    private URI commitHistoryUri(String commitSHA, int pageNumber) {
+        return new URIBuilder(githubUrl + "/commits")
+                .addParameter("sha", commitSHA)
+                .addParameter("per_page", MAX_COMMITS_PER_PAGE.toString())
+                .addParameter("page", String.valueOf(pageNumber))
+                .build();
+    }
+
+    @SneakyThrows
+    private URI compareUri(String baseRef, String headRef) {
+        return new URI(githubUrl + "/compare/" + baseRef + "..." + headRef);
+    }
+
+    @SneakyThrows
+    private URI branchInfoUri(String branchName) {
+        return new URI(githubUrl + "/branches/" + branchName);
+    }
+
+}
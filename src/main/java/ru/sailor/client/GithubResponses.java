@@ -0,0 +1,169 @@
+package ru.sailor.client;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import ru.sailor.data.GitCommit;
+import ru.sailor.metrics.Metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static ru.sailor.client.GithubClient.MAX_COMMITS_PER_PAGE;
+import static ru.sailor.client.GithubClient.MAX_PARALLEL_PAGES;
+
+/**
+ * Handling of GitHub REST responses shared by {@link GithubClient} and {@link GithubHttp2Client},
+ * headers are looked up by a function, so it doesn't depend on the HTTP client.
+ */
+final class GithubResponses {
+
+    private static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+    private static final String RATE_LIMIT_LIMIT = "X-RateLimit-Limit";
+    private static final String RATE_LIMIT_RESET = "X-RateLimit-Reset";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_NOT_MODIFIED = 304;
+
+    private GithubResponses() {
+    }
+
+    /**
+     * @param headers value of the first header by name or null
+     * @return true if the request was rejected by the rate limit and should be repeated
+     */
+    static boolean recordRateLimit(RateLimitScheduler scheduler, Metrics metrics, RateLimitScheduler.Lease lease,
+                                   int status, UnaryOperator<String> headers) {
+        var remaining = longHeaderValue(headers, RATE_LIMIT_REMAINING);
+        if (remaining != null) {
+            metrics.onRateLimitRemaining(remaining);
+        }
+        return scheduler.onResponse(lease, status, remaining, longHeaderValue(headers, RATE_LIMIT_LIMIT),
+                longHeaderValue(headers, RATE_LIMIT_RESET), longHeaderValue(headers, RETRY_AFTER));
+    }
+
+    /**
+     * Pages of commits are not cached: they are keyed by an immutable sha and are not requested again
+     * once their commits are known, so a conditional request for them saves nothing.
+     *
+     * @param endpoint kind of the request, e.g. branches or commits
+     * @return cached response to make a conditional request with or null
+     */
+    static HttpResponseCache.Entry getCached(HttpResponseCache responseCache, String endpoint, String url) {
+        return isCacheable(endpoint) ? responseCache.get(url) : null;
+    }
+
+    /**
+     * Reads the body of a response to a conditional request: the cached one on 304 Not Modified,
+     * otherwise the content, cached if the response has validators and may change, see {@link #getCached}.
+     */
+    static <T> T readBody(HttpResponseCache responseCache, String endpoint, String url, HttpResponseCache.Entry cached,
+                          int status, UnaryOperator<String> headers, InputStream content,
+                          GithubClient.BodyReader<T> bodyReader) throws IOException {
+        if (status == STATUS_NOT_MODIFIED && cached != null) {
+            responseCache.recordHit();
+            return bodyReader.read(new ByteArrayInputStream(cached.getBody()));
+        }
+
+        var eTag = headers.apply("ETag");
+        var lastModified = headers.apply("Last-Modified");
+        if (status != STATUS_OK || (eTag == null && lastModified == null) || !isCacheable(endpoint)) {
+            return bodyReader.read(content);
+        }
+
+        //copy the body for the cache while it is parsed, parser closes the stream and may not read its tail
+        responseCache.recordMiss();
+        var body = new ByteArrayOutputStream();
+        var result = bodyReader.read(new TeeInputStream(new CloseShieldInputStream(content), body));
+        IOUtils.copy(content, body);
+        responseCache.put(url, eTag, lastModified, body.toByteArray());
+        return result;
+    }
+
+    private static boolean isCacheable(String endpoint) {
+        return !endpoint.equals("commits");
+    }
+
+    //null if there is no header or it is not a number, e.g. Retry-After with a date
+    private static Long longHeaderValue(UnaryOperator<String> headers, String name) {
+        var value = headers.apply(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.strip());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * History collected from pages of the commits endpoint, requested in waves of up to
+     * {@link GithubClient#MAX_PARALLEL_PAGES} pages. Walk stops at the end of the history
+     * or at a page where all commits are known already.
+     */
+    static class HistoryPages {
+
+        private final int countOfCommits;
+        private final Predicate<String> isKnown;
+        private final int pagesCount;
+        private final List<GitCommit> history = new ArrayList<>();
+        private int requestedPages;
+        private boolean isComplete;
+
+        HistoryPages(int countOfCommits, Predicate<String> isKnown) {
+            this.countOfCommits = countOfCommits;
+            this.isKnown = isKnown;
+            pagesCount = (countOfCommits + MAX_COMMITS_PER_PAGE - 1) / MAX_COMMITS_PER_PAGE;
+        }
+
+        /**
+         * @return number of the first page of the next wave
+         */
+        int getNextPage() {
+            return requestedPages + 1;
+        }
+
+        /**
+         * @return count of pages to request in parallel next, 0 if the history is complete
+         */
+        int getNextWaveSize() {
+            return isComplete ? 0 : Math.min(MAX_PARALLEL_PAGES, pagesCount - requestedPages);
+        }
+
+        /**
+         * @param wave pages from {@link #getNextPage()} in order
+         */
+        void add(List<List<GitCommit>> wave) {
+            requestedPages += wave.size();
+            for (var previousCommits : wave) {
+                if (previousCommits.isEmpty() || previousCommits.stream().allMatch(commit -> isKnown.test(commit.getSha()))) {
+                    isComplete = true;
+                    return;
+                }
+
+                history.addAll(previousCommits.subList(0, Math.min(previousCommits.size(), countOfCommits - history.size())));
+
+                if (previousCommits.size() < MAX_COMMITS_PER_PAGE || GithubClient.hasTheFirstCommit(history)) {
+                    isComplete = true;
+                    return;
+                }
+            }
+        }
+
+        List<GitCommit> getHistory() {
+            return history;
+        }
+
+        int getRequestedPages() {
+            return requestedPages;
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package ru.sailor.client;
+
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.GitCommunicationException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+
+/**
+ * Starts commit history requests in background, so requests for the whole traversal frontier
+ * are in flight at once and the traversal waits only for the history it needs right now.
+ * Requests themselves are shared with other traversals through {@link SharedHistoryRequests}.
+ * Not thread safe, it is used by one traversal.
+ */
+public class HistoryPrefetcher implements AutoCloseable {
+
+    private final SharedHistoryRequests sharedRequests;
+    private final Map<String, CompletableFuture<List<GitCommit>>> requests = new HashMap<>();
+
+    public HistoryPrefetcher(SharedHistoryRequests sharedRequests) {
+        this.sharedRequests = sharedRequests;
+    }
+
+    public void prefetch(String commitSHA) {
+        requests.computeIfAbsent(commitSHA, sharedRequests::acquire);
+    }
+
+    /**
+     * Waits for the prefetched history of the commit, requests it now if it wasn't prefetched.
+     * History is empty if the commit was loaded by another request already.
+     */
+    public List<GitCommit> getCommitHistory(String commitSHA) throws GitCommunicationException {
+        prefetch(commitSHA);
+        return await(commitSHA);
+    }
+
+    /**
+     * Waits for the history of the commit, requests it now if it is needed and wasn't requested.
+     *
+     * @param isNeeded see {@link SharedHistoryRequests#acquire(String, Predicate)}
+     */
+    public List<GitCommit> getCommitHistory(String commitSHA, Predicate<String> isNeeded) throws GitCommunicationException {
+        prefetch(commitSHA, isNeeded);
+        return await(commitSHA);
+    }
+
+    /**
+     * @param isNeeded see {@link SharedHistoryRequests#acquire(String, Predicate)}
+     */
+    public void prefetch(String commitSHA, Predicate<String> isNeeded) {
+        requests.computeIfAbsent(commitSHA, sha -> sharedRequests.acquire(sha, isNeeded));
+    }
+
+    private List<GitCommit> await(String commitSHA) throws GitCommunicationException {
+        var request = requests.remove(commitSHA);
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitCommunicationException("Interrupted while waiting for commit history");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GitCommunicationException) {
+                throw (GitCommunicationException) e.getCause();
+            }
+            throw new GitCommunicationException("Unknown error while making request to github");
+        } finally {
+            sharedRequests.release(commitSHA, request);
+        }
+    }
+
+    /**
+     * Releases requests the traversal doesn't need anymore, not started ones are cancelled
+     * if no other traversal waits for them.
+     */
+    @Override
+    public void close() {
+        requests.forEach(sharedRequests::release);
+        requests.clear();
+    }
+
+}
@@ -0,0 +1,91 @@
+package ru.sailor.client;
+
+import lombok.Value;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of GET responses keyed by URL, that keeps ETag and Last-Modified validators
+ * to make conditional requests. GitHub doesn't count 304 Not Modified responses against the rate limit.
+ * The cache is bounded by total size of bodies: a response may be hundreds of kilobytes.
+ */
+public class HttpResponseCache {
+
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final AtomicLong hitsCount = new AtomicLong();
+    private final AtomicLong missesCount = new AtomicLong();
+
+    public HttpResponseCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes total size of cached bodies, least recently used responses are dropped above it
+     */
+    public HttpResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Saves the response if it has any validator, otherwise it can't be revalidated.
+     */
+    public synchronized void put(String url, String eTag, String lastModified, byte[] body) {
+        if (eTag == null && lastModified == null || body.length > maxBytes) {
+            return;
+        }
+        var previous = entries.put(url, new Entry(eTag, lastModified, body));
+        bytes += body.length - (previous == null ? 0 : previous.getBody().length);
+        var iterator = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= iterator.next().getBody().length;
+            iterator.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size of cached bodies
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public void recordHit() {
+        hitsCount.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        missesCount.incrementAndGet();
+    }
+
+    /**
+     * @return count of responses served from the cache after 304 Not Modified
+     */
+    public long getHitsCount() {
+        return hitsCount.get();
+    }
+
+    public long getMissesCount() {
+        return missesCount.get();
+    }
+
+    @Value
+    public static class Entry {
+        String eTag;
+        String lastModified;
+        byte[] body;
+    }
+
+}
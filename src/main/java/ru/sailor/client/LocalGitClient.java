@@ -0,0 +1,175 @@
+package ru.sailor.client;
+
+import ru.sailor.data.GitBranch;
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.exceptions.InvalidCommitCountException;
+import ru.sailor.storage.GitObjectDatabase;
+import ru.sailor.storage.Sha;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * GitClient over a repository cloned to the local file system, works without network at all.
+ * Commits are read straight from the objects directory, branches are looked up in local branches first
+ * and then in branches of origin remote, both loose and packed refs.
+ */
+public class LocalGitClient implements GitClient {
+
+    private static final String SYMBOLIC_REF_PREFIX = "ref: ";
+    private static final String GIT_DIR_PREFIX = "gitdir: ";
+    private static final String[] BRANCH_REF_PREFIXES = {"refs/heads/", "refs/remotes/origin/", ""};
+    private static final int MAX_SYMBOLIC_REFS_DEPTH = 5;
+
+    private final Path gitDirectory;
+    private final GitObjectDatabase objects;
+
+    private LocalGitClient(Path gitDirectory, GitObjectDatabase objects) {
+        this.gitDirectory = gitDirectory;
+        this.objects = objects;
+    }
+
+    /**
+     * @param repository work tree with .git inside or .git directory itself, bare repositories are supported too
+     */
+    public static LocalGitClient open(Path repository) throws IOException {
+        var gitDirectory = findGitDirectory(repository.toAbsolutePath().normalize());
+        //linked work trees keep objects and refs in the main repository
+        var commonDirectoryFile = gitDirectory.resolve("commondir");
+        if (Files.isRegularFile(commonDirectoryFile)) {
+            gitDirectory = gitDirectory.resolve(Files.readString(commonDirectoryFile).strip()).normalize();
+        }
+        return new LocalGitClient(gitDirectory, GitObjectDatabase.open(gitDirectory.resolve("objects")));
+    }
+
+    public Path getGitDirectory() {
+        return gitDirectory;
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+        if (countOfCommits < 0) {
+            throw new InvalidCommitCountException("Count of commits should be > 0, " + countOfCommits + " < 0");
+        }
+        var start = Sha.isValid(commitSHA) ? readCommit(commitSHA) : null;
+        if (start == null) {
+            throw new DataNotFoundException("Commit " + commitSHA + " not found");
+        }
+
+        var commitHistory = new ArrayList<GitCommit>();
+        var queue = new PriorityQueue<GitCommit>((c1, c2) -> c2.getTimestamp().compareTo(c1.getTimestamp()));
+        var visited = new HashSet<String>();
+        queue.add(start);
+        visited.add(commitSHA);
+        while (!queue.isEmpty() && commitHistory.size() < countOfCommits) {
+            var commit = queue.poll();
+            commitHistory.add(commit);
+            for (var parent : commit.getParents()) {
+                if (visited.add(parent.getSha())) {
+                    //parents are missing behind the boundary of a shallow clone
+                    var parentCommit = readCommit(parent.getSha());
+                    if (parentCommit != null) {
+                        queue.add(parentCommit);
+                    }
+                }
+            }
+        }
+        return commitHistory;
+    }
+
+    @Override
+    public GitBranch getBranchInfo(String branchName) throws GitCommunicationException {
+        String commitSHA;
+        try {
+            commitSHA = resolveBranch(branchName);
+        } catch (IOException e) {
+            throw new GitCommunicationException("Error while reading refs of the local repository");
+        }
+        var lastCommit = commitSHA == null ? null : readCommit(commitSHA);
+        if (lastCommit == null) {
+            throw new DataNotFoundException("Branch not found. Invalid branch name " + branchName);
+        }
+        return GitBranch.builder()
+                .name(branchName)
+                .lastCommit(lastCommit)
+                .build();
+    }
+
+    private GitCommit readCommit(String commitSHA) throws GitCommunicationException {
+        try {
+            return objects.readCommit(commitSHA);
+        } catch (IOException e) {
+            throw new GitCommunicationException("Error while reading commit " + commitSHA + " from the local repository");
+        }
+    }
+
+    private String resolveBranch(String branchName) throws IOException {
+        for (var prefix : BRANCH_REF_PREFIXES) {
+            var commitSHA = resolveRef(prefix + branchName, 0);
+            if (commitSHA != null) {
+                return commitSHA;
+            }
+        }
+        return null;
+    }
+
+    private String resolveRef(String refName, int depth) throws IOException {
+        var refPath = gitDirectory.resolve(refName).normalize();
+        //branch name comes from outside, it shouldn't point out of the repository
+        if (depth > MAX_SYMBOLIC_REFS_DEPTH || refName.isEmpty() || !refPath.startsWith(gitDirectory)) {
+            return null;
+        }
+        if (Files.isRegularFile(refPath)) {
+            var value = Files.readString(refPath, StandardCharsets.UTF_8).strip();
+            if (value.startsWith(SYMBOLIC_REF_PREFIX)) {
+                return resolveRef(value.substring(SYMBOLIC_REF_PREFIX.length()), depth + 1);
+            }
+            return Sha.isValid(value) ? value : null;
+        }
+        return findPackedRef(refName);
+    }
+
+    //packed-refs lines: "<sha> <ref name>", peeled tags "^<sha>" and comments "#..."
+    private String findPackedRef(String refName) throws IOException {
+        var packedRefs = gitDirectory.resolve("packed-refs");
+        if (!Files.isRegularFile(packedRefs)) {
+            return null;
+        }
+        for (var line : Files.readAllLines(packedRefs, StandardCharsets.UTF_8)) {
+            var separator = line.indexOf(' ');
+            if (separator == 2 * Sha.BYTES && line.startsWith(refName, separator + 1)
+                    && line.length() == separator + 1 + refName.length()) {
+                return line.substring(0, separator);
+            }
+        }
+        return null;
+    }
+
+    private static Path findGitDirectory(Path repository) throws IOException {
+        var dotGit = repository.resolve(".git");
+        if (Files.isDirectory(dotGit)) {
+            return dotGit;
+        }
+        //work trees and submodules have .git file pointing to the real directory
+        if (Files.isRegularFile(dotGit)) {
+            var content = Files.readString(dotGit, StandardCharsets.UTF_8).strip();
+            if (content.startsWith(GIT_DIR_PREFIX)) {
+                return repository.resolve(content.substring(GIT_DIR_PREFIX.length())).normalize();
+            }
+        }
+        if (Files.isDirectory(repository.resolve("objects")) && Files.isRegularFile(repository.resolve("HEAD"))) {
+            return repository;
+        }
+        throw new NoSuchFileException(repository.toString(), null, "Not a git repository");
+    }
+
+}
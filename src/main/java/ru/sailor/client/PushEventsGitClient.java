@@ -0,0 +1,103 @@
+package ru.sailor.client;
+
+import ru.sailor.data.GitBranch;
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitComparison;
+import ru.sailor.exceptions.GitCommunicationException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * GitClient that answers branch and history requests from push events when it can,
+ * so a finder kept fresh by webhooks doesn't poll branch heads.
+ * A branch is answered from events only after its first push, until then it is requested from the delegate.
+ */
+public class PushEventsGitClient implements GitClient {
+
+    private final GitClient delegate;
+    private final PushedRefs refs;
+
+    public PushEventsGitClient(GitClient delegate, PushedRefs refs) {
+        this.delegate = delegate;
+        this.refs = refs;
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+        return getCommitHistory(commitSHA, countOfCommits, sha -> false);
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits,
+                                            Predicate<String> isKnown) throws GitCommunicationException {
+        var pushedHistory = countOfCommits > 0 ? refs.getHistory(commitSHA, countOfCommits, isKnown) : null;
+        if (pushedHistory != null) {
+            return pushedHistory;
+        }
+        return delegate.getCommitHistory(commitSHA, countOfCommits, isKnown);
+    }
+
+    @Override
+    public GitBranch getBranchInfo(String branchName) throws GitCommunicationException {
+        var head = refs.getHead(branchName);
+        if (head != null) {
+            return GitBranch.builder().name(branchName).lastCommit(head).build();
+        }
+        return delegate.getBranchInfo(branchName);
+    }
+
+    /**
+     * Requests only branches that were not pushed, with one call to the delegate.
+     */
+    @Override
+    public List<GitBranch> getBranchesInfo(List<String> branchNames) throws GitCommunicationException {
+        var branches = new ArrayList<GitBranch>(branchNames.size());
+        var notPushed = new ArrayList<String>();
+        for (var branchName : branchNames) {
+            var head = refs.getHead(branchName);
+            branches.add(head == null ? null : GitBranch.builder().name(branchName).lastCommit(head).build());
+            if (head == null) {
+                notPushed.add(branchName);
+            }
+        }
+        if (notPushed.isEmpty()) {
+            return branches;
+        }
+        var requested = delegate.getBranchesInfo(notPushed).iterator();
+        for (int i = 0; i < branches.size(); i++) {
+            if (branches.get(i) == null) {
+                branches.set(i, requested.next());
+            }
+        }
+        return branches;
+    }
+
+    @Override
+    public GitComparison compare(String baseRef, String headRef) throws GitCommunicationException {
+        return delegate.compare(baseRef, headRef);
+    }
+
+    @Override
+    public CompletableFuture<GitBranch> getBranchInfoAsync(String branchName) {
+        var head = refs.getHead(branchName);
+        if (head != null) {
+            return CompletableFuture.completedFuture(GitBranch.builder().name(branchName).lastCommit(head).build());
+        }
+        return delegate.getBranchInfoAsync(branchName);
+    }
+
+    @Override
+    public CompletableFuture<GitComparison> compareAsync(String baseRef, String headRef) {
+        return delegate.compareAsync(baseRef, headRef);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+}
@@ -0,0 +1,101 @@
+package ru.sailor.client;
+
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitPush;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Branch heads and commits of one repository reported by push events.
+ * Thread safe, shared by all clients of the repository.
+ */
+public class PushedRefs {
+
+    public static final int DEFAULT_MAX_COMMITS = 100_000;
+
+    private final int maxCommits;
+    private final Map<String, GitCommit> heads = new HashMap<>();
+    //in order of pushes, the oldest are dropped first: finders have loaded them by then
+    private final LinkedHashMap<String, GitCommit> commits = new LinkedHashMap<>();
+
+    public PushedRefs() {
+        this(DEFAULT_MAX_COMMITS);
+    }
+
+    /**
+     * @param maxCommits count of pushed commits kept for history requests
+     */
+    public PushedRefs(int maxCommits) {
+        this.maxCommits = maxCommits;
+    }
+
+    /**
+     * Moves the branch to the pushed head if the push starts from the known head or no head is known.
+     * Otherwise, or if the pushed head is not known, forgets the branch: webhooks may come late, out of order
+     * or twice, and an old event must not move the branch back.
+     */
+    public synchronized void onPush(GitPush push) {
+        for (var commit : push.getCommits()) {
+            commits.put(commit.getSha(), commit);
+        }
+        var iterator = commits.keySet().iterator();
+        while (commits.size() > maxCommits) {
+            iterator.next();
+            iterator.remove();
+        }
+
+        var head = heads.get(push.getBranchName());
+        var isNextPush = head == null || head.getSha().equals(push.getBefore());
+        if (push.getHead() == null || !isNextPush) {
+            heads.remove(push.getBranchName());
+        } else {
+            heads.put(push.getBranchName(), push.getHead());
+        }
+    }
+
+    /**
+     * @return last pushed head of the branch or null if it should be requested
+     */
+    public synchronized GitCommit getHead(String branchName) {
+        return heads.get(branchName);
+    }
+
+    /**
+     * Walks pushed commits from the given one newest first, down to commits known to the caller
+     * or not pushed: their history is requested as usual.
+     *
+     * @return history or null if the commit was not pushed
+     */
+    public synchronized List<GitCommit> getHistory(String commitSHA, int countOfCommits, Predicate<String> isKnown) {
+        var commit = commits.get(commitSHA);
+        if (commit == null) {
+            return null;
+        }
+
+        var history = new ArrayList<GitCommit>();
+        var queue = new PriorityQueue<>(Comparator.comparing(GitCommit::getTimestamp).reversed());
+        var queued = new HashSet<String>();
+        queue.add(commit);
+        queued.add(commitSHA);
+        while (!queue.isEmpty() && history.size() < countOfCommits) {
+            var next = queue.poll();
+            history.add(next);
+            for (var parent : next.getParents()) {
+                var pushedParent = commits.get(parent.getSha());
+                if (pushedParent != null && !isKnown.test(parent.getSha()) && queued.add(parent.getSha())) {
+                    queue.add(pushedParent);
+                }
+            }
+        }
+        return history;
+    }
+
+}
@@ -0,0 +1,265 @@
+package ru.sailor.client;
+
+import ru.sailor.exceptions.ApiRateLimitException;
+import ru.sailor.exceptions.GitCommunicationException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads requests over a pool of tokens and keeps them within the rate limit reported by GitHub
+ * in X-RateLimit-* headers of every response.
+ * <p>
+ * A request goes with the token that has the most of its budget left. When the budget of the best token
+ * is low, requests are paced to last until the limit reset. When all tokens are exhausted, or the server
+ * asked to retry after some time, a request waits for it instead of failing, unless the wait is too long.
+ * Thread safe, could be shared by clients using the same tokens.
+ */
+public class RateLimitScheduler {
+
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofMinutes(1);
+
+    //below this share of the limit requests are paced
+    private static final double SLOW_DOWN_SHARE = 0.1;
+    //reset time is reported in seconds, so wait a bit longer to not come back a moment before it
+    private static final long RESET_MARGIN_MILLIS = 500;
+    //when rate limited response says nothing about when to come back
+    private static final long DEFAULT_BLOCK_MILLIS = 60_000;
+
+    private final List<TokenBudget> budgets = new ArrayList<>();
+    private final long maxWaitMillis;
+
+    /**
+     * @param tokens personal access tokens, empty for anonymous access
+     */
+    public RateLimitScheduler(Collection<String> tokens) {
+        this(tokens, DEFAULT_MAX_WAIT);
+    }
+
+    /**
+     * @param maxWait the longest wait for a request, if the budget is not restored by then
+     *                {@link ApiRateLimitException} is thrown
+     */
+    public RateLimitScheduler(Collection<String> tokens, Duration maxWait) {
+        if (tokens.isEmpty()) {
+            budgets.add(new TokenBudget(null));
+        }
+        for (var token : tokens) {
+            budgets.add(new TokenBudget("Bearer " + token));
+        }
+        maxWaitMillis = maxWait.toMillis();
+    }
+
+    public static RateLimitScheduler forToken(String token) {
+        return new RateLimitScheduler(token == null ? List.of() : List.of(token));
+    }
+
+    /**
+     * Waits until some token could be used for a request.
+     *
+     * @return lease to report the response with
+     * @throws ApiRateLimitException if the budget is not restored within the max wait
+     */
+    public Lease acquire() throws GitCommunicationException {
+        while (true) {
+            var lease = tryAcquire();
+            if (lease != null) {
+                return lease;
+            }
+            sleep(getWaitMillis());
+        }
+    }
+
+    /**
+     * Like {@link #acquire()}, but doesn't block a thread while waiting.
+     *
+     * @return lease, completed exceptionally with {@link ApiRateLimitException} if the budget is not restored
+     * within the max wait
+     */
+    public CompletableFuture<Lease> acquireAsync() {
+        var lease = tryAcquire();
+        if (lease != null) {
+            return CompletableFuture.completedFuture(lease);
+        }
+        long waitMillis;
+        try {
+            waitMillis = getWaitMillis();
+        } catch (ApiRateLimitException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        var delayed = CompletableFuture.delayedExecutor(waitMillis, TimeUnit.MILLISECONDS);
+        return CompletableFuture.runAsync(() -> {
+        }, delayed).thenCompose(ignored -> acquireAsync());
+    }
+
+    private synchronized Lease tryAcquire() {
+        var now = System.currentTimeMillis();
+        var best = findBest(now);
+        if (best == null || best.pacingDelay(now) > 0) {
+            return null;
+        }
+        best.reserve(now);
+        return new Lease(best);
+    }
+
+    private synchronized long getWaitMillis() throws ApiRateLimitException {
+        var now = System.currentTimeMillis();
+        var best = findBest(now);
+        long waitMillis;
+        if (best == null) {
+            waitMillis = Long.MAX_VALUE;
+            for (var budget : budgets) {
+                waitMillis = Math.min(waitMillis, budget.availableAt(now) - now);
+            }
+        } else {
+            waitMillis = best.pacingDelay(now);
+        }
+        if (waitMillis > maxWaitMillis) {
+            throw new ApiRateLimitException("API rate limit exceeded. Try to use non anonymous calls or more tokens.");
+        }
+        //budget could be restored by a response in between
+        return Math.max(0, waitMillis);
+    }
+
+    /**
+     * Updates the budget of the token with headers of the response.
+     *
+     * @param remaining         X-RateLimit-Remaining or null
+     * @param limit             X-RateLimit-Limit or null
+     * @param resetEpochSeconds X-RateLimit-Reset or null
+     * @param retryAfterSeconds Retry-After or null
+     * @return true if the request was rejected by the rate limit and should be retried
+     */
+    public synchronized boolean onResponse(Lease lease, int status, Long remaining, Long limit,
+                                           Long resetEpochSeconds, Long retryAfterSeconds) {
+        var now = System.currentTimeMillis();
+        var budget = lease.budget;
+        if (limit != null) {
+            budget.limit = limit;
+        }
+        if (resetEpochSeconds != null) {
+            budget.resetAt = resetEpochSeconds * 1000 + RESET_MARGIN_MILLIS;
+        }
+        if (remaining != null) {
+            budget.remaining = remaining;
+        }
+
+        //primary limit is reported with 403 and no remaining requests, secondary one with 403 or 429 and Retry-After
+        var isRateLimited = status == 429 || status == 403 && (retryAfterSeconds != null || Long.valueOf(0).equals(remaining));
+        if (!isRateLimited) {
+            return false;
+        }
+        if (retryAfterSeconds != null) {
+            budget.blockedUntil = now + retryAfterSeconds * 1000;
+        } else if (budget.resetAt > now) {
+            budget.blockedUntil = budget.resetAt;
+        } else {
+            budget.blockedUntil = now + DEFAULT_BLOCK_MILLIS;
+        }
+        return true;
+    }
+
+    /**
+     * @return remaining requests of all tokens as known by the last responses, -1 for tokens not used yet
+     */
+    public synchronized List<Long> getRemaining() {
+        var remaining = new ArrayList<Long>();
+        for (var budget : budgets) {
+            remaining.add(budget.remaining);
+        }
+        return remaining;
+    }
+
+    private TokenBudget findBest(long now) {
+        TokenBudget best = null;
+        for (var budget : budgets) {
+            budget.restoreIfReset(now);
+            if (budget.availableAt(now) <= now && (best == null || budget.remainingOrMax() > best.remainingOrMax())) {
+                best = budget;
+            }
+        }
+        return best;
+    }
+
+    private static void sleep(long millis) throws GitCommunicationException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitCommunicationException("Interrupted while waiting for rate limit");
+        }
+    }
+
+    public static class Lease {
+
+        private final TokenBudget budget;
+
+        private Lease(TokenBudget budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * @return value of Authorization header or null for anonymous access
+         */
+        public String getAuthorization() {
+            return budget.authorization;
+        }
+    }
+
+    private static class TokenBudget {
+
+        private final String authorization;
+        //-1 until the first response tells the budget
+        private long remaining = -1;
+        private long limit = -1;
+        private long resetAt;
+        private long blockedUntil;
+        private long lastRequestAt;
+
+        TokenBudget(String authorization) {
+            this.authorization = authorization;
+        }
+
+        long remainingOrMax() {
+            return remaining < 0 ? Long.MAX_VALUE : remaining;
+        }
+
+        long availableAt(long now) {
+            if (blockedUntil > now) {
+                return blockedUntil;
+            }
+            return remaining == 0 && resetAt > now ? resetAt : now;
+        }
+
+        void restoreIfReset(long now) {
+            if (resetAt != 0 && resetAt <= now && remaining >= 0) {
+                remaining = limit;
+                resetAt = 0;
+            }
+        }
+
+        /**
+         * Low budget is spread evenly over the time left until reset.
+         */
+        long pacingDelay(long now) {
+            if (remaining < 0 || limit <= 0 || remaining > limit * SLOW_DOWN_SHARE || resetAt <= now) {
+                return 0;
+            }
+            var interval = (resetAt - now) / remaining;
+            return Math.max(0, lastRequestAt + interval - now);
+        }
+
+        void reserve(long now) {
+            lastRequestAt = now;
+            //requests in flight are not reported yet
+            if (remaining > 0) {
+                remaining--;
+            }
+        }
+    }
+
+}
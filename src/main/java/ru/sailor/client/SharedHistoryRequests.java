@@ -0,0 +1,131 @@
+package ru.sailor.client;
+
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.GitCommunicationException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+/**
+ * History requests in flight, shared by concurrent traversals: a history of the same commit
+ * is requested once, and everyone who needs it at the moment waits for that request (single flight).
+ * <p>
+ * Loaded history is passed to the listener before the request completes, so when a request is finished
+ * its commits are already known and nobody requests them again: history of a loaded commit is not requested.
+ * A request that is not started yet is cancelled once all of its waiters released it.
+ */
+public class SharedHistoryRequests {
+
+    private final GitClient gitClient;
+    private final Executor executor;
+    private final IntSupplier countOfCommits;
+    private final Consumer<List<GitCommit>> onLoaded;
+    private final Predicate<String> isLoaded;
+    private final Map<String, Request> requests = new ConcurrentHashMap<>();
+
+    /**
+     * @param countOfCommits count of commits to request with each history, read when a request starts
+     * @param onLoaded       receives every loaded history
+     * @param isLoaded       tells whether the commit came with a loaded history already,
+     *                       client may stop requesting the history when it reaches loaded commits
+     */
+    public SharedHistoryRequests(GitClient gitClient, Executor executor, IntSupplier countOfCommits,
+                                 Consumer<List<GitCommit>> onLoaded, Predicate<String> isLoaded) {
+        this.gitClient = gitClient;
+        this.executor = executor;
+        this.countOfCommits = countOfCommits;
+        this.onLoaded = onLoaded;
+        this.isLoaded = isLoaded;
+    }
+
+    /**
+     * Joins the request for the commit history, starts it if there is none in flight.
+     * Every acquired request should be released.
+     *
+     * @return future history or empty list if the commit is loaded already
+     */
+    public CompletableFuture<List<GitCommit>> acquire(String commitSHA) {
+        return acquire(commitSHA, sha -> !isLoaded.test(sha));
+    }
+
+    /**
+     * @param isNeeded tells whether the history should be requested if there is no request in flight,
+     *                 e.g. history of a loaded merge commit is needed while its parents are not loaded
+     * @return future history or empty list if it is not needed
+     */
+    public CompletableFuture<List<GitCommit>> acquire(String commitSHA, Predicate<String> isNeeded) {
+        var newRequest = new Request();
+        var request = requests.compute(commitSHA, (sha, inFlight) -> {
+            if (inFlight == null) {
+                //checked under the key lock: the last request for the sha is either in flight or its history is added
+                if (!isNeeded.test(sha)) {
+                    return null;
+                }
+                inFlight = newRequest;
+            }
+            inFlight.waitersCount++;
+            return inFlight;
+        });
+        if (request == null) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        //started outside of compute: with a direct executor the request completes right away
+        if (request == newRequest) {
+            start(commitSHA, request.future);
+        }
+        return request.future;
+    }
+
+    public void release(String commitSHA, CompletableFuture<List<GitCommit>> future) {
+        var released = requests.computeIfPresent(commitSHA, (sha, request) ->
+                request.future != future || --request.waitersCount > 0 ? request : null);
+        if (released == null) {
+            //outside of compute: cancellation completes the future and runs its callbacks
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * @return count of requests in flight
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    private void start(String commitSHA, CompletableFuture<List<GitCommit>> future) {
+        future.whenComplete((history, e) -> requests.computeIfPresent(commitSHA,
+                (sha, request) -> request.future == future ? null : request));
+        try {
+            executor.execute(() -> {
+                //cancelled before it was started
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    var history = gitClient.getCommitHistory(commitSHA, countOfCommits.getAsInt(), isLoaded);
+                    onLoaded.accept(history);
+                    future.complete(history);
+                } catch (GitCommunicationException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static class Request {
+
+        private final CompletableFuture<List<GitCommit>> future = new CompletableFuture<>();
+        private int waitersCount;
+    }
+
+}
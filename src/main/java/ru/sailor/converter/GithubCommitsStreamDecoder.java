@@ -0,0 +1,190 @@
+package ru.sailor.converter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GithubCommitsPage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes REST /commits page straight from the response stream.
+ * <p>
+ * Takes only sha, parent shas and commit.author.date of every commit, all other fields
+ * (author, committer, tree, verification, urls, files) are skipped by the parser without building any objects,
+ * unlike binding the page to {@link ru.sailor.data.GithubCommit}.
+ */
+public class GithubCommitsStreamDecoder {
+
+    private static final JsonFactory factory = new JsonFactory();
+    private static final String DATE_TEMPLATE = "0000-00-00T00:00:00Z";
+
+    public static GithubCommitsPage decode(InputStream body) throws IOException {
+        try (var parser = factory.createParser(body)) {
+            var token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                return new GithubCommitsPage(Collections.emptyList(), readErrorMessage(parser));
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Commits array expected");
+            }
+
+            var commits = new ArrayList<GitCommit>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                commits.add(readCommit(parser));
+            }
+            return new GithubCommitsPage(commits, null);
+        }
+    }
+
+    private static GitCommit readCommit(JsonParser parser) throws IOException {
+        String sha = null;
+        var timestamp = 0L;
+        List<GitCommit> parents = Collections.emptyList();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "sha":
+                    sha = parser.getText();
+                    break;
+                case "commit":
+                    timestamp = readAuthorDate(parser);
+                    break;
+                case "parents":
+                    parents = readParents(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return GitCommit.builder()
+                .sha(sha)
+                .timestamp(LocalDateTime.ofEpochSecond(timestamp, 0, ZoneOffset.UTC))
+                .parents(parents)
+                .build();
+    }
+
+    //commit: { author: { date: ... }, ... }
+    private static long readAuthorDate(JsonParser parser) throws IOException {
+        var timestamp = 0L;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            parser.nextToken();
+            if (!field.equals("author") || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var authorField = parser.getCurrentName();
+                parser.nextToken();
+                if (authorField.equals("date")) {
+                    if (parser.currentToken() != JsonToken.VALUE_STRING) {
+                        throw new JsonParseException(parser, "Author date string expected");
+                    }
+                    timestamp = parseEpochSecond(parser.getTextCharacters(), parser.getTextOffset(),
+                            parser.getTextLength());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return timestamp;
+    }
+
+    private static List<GitCommit> readParents(JsonParser parser) throws IOException {
+        var parents = new ArrayList<GitCommit>(2);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("sha")) {
+                    parents.add(GitCommit.builder().sha(parser.getText()).parents(Collections.emptyList()).build());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return parents;
+    }
+
+    private static String readErrorMessage(JsonParser parser) throws IOException {
+        String message = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("message")) {
+                message = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return message == null ? "" : message;
+    }
+
+    /**
+     * Parses "yyyy-MM-ddTHH:mm:ssZ" without building a formatter and intermediate date objects.
+     *
+     * @throws IOException if the text has another format or is not a valid date
+     */
+    static long parseEpochSecond(char[] chars, int offset, int length) throws IOException {
+        var isValid = length == DATE_TEMPLATE.length();
+        for (int i = 0; isValid && i < length; i++) {
+            var expected = DATE_TEMPLATE.charAt(i);
+            var actual = chars[offset + i];
+            //0 of the template stands for any digit
+            isValid = expected == '0' ? actual >= '0' && actual <= '9' : actual == expected;
+        }
+        if (!isValid) {
+            throw new IOException("Invalid date " + new String(chars, offset, length) +
+                    ", expected yyyy-MM-ddTHH:mm:ssZ");
+        }
+        var year = number(chars, offset, 4);
+        var month = number(chars, offset + 5, 2);
+        var day = number(chars, offset + 8, 2);
+        var hour = number(chars, offset + 11, 2);
+        var minute = number(chars, offset + 14, 2);
+        var second = number(chars, offset + 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw new IOException("Invalid date " + new String(chars, offset, length));
+        }
+        return epochDay(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+    }
+
+    private static int number(char[] chars, int offset, int length) {
+        var result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            result = result * 10 + (chars[i] - '0');
+        }
+        return result;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return Year.isLeap(year) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    //days from civil, http://howardhinnant.github.io/date_algorithms.html
+    private static long epochDay(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        var era = Math.floorDiv(year, 400);
+        var yearOfEra = year - era * 400;
+        var dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        var dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+}
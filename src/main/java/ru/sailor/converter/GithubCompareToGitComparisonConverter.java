@@ -0,0 +1,21 @@
+package ru.sailor.converter;
+
+import ru.sailor.data.GitComparison;
+import ru.sailor.data.GithubCompare;
+
+import java.util.stream.Collectors;
+
+public class GithubCompareToGitComparisonConverter {
+
+    public static GitComparison toGit(GithubCompare githubCompare) {
+        return GitComparison.builder()
+                .mergeBase(GithubCommitToGitCommitConverter.toGit(githubCompare.getMergeBaseCommit()))
+                .headCommits(githubCompare.getCommits().stream()
+                        .map(GithubCommitToGitCommitConverter::toGit)
+                        .collect(Collectors.toList())
+                )
+                .totalHeadCommits(githubCompare.getTotalCommits())
+                .build();
+    }
+
+}
@@ -0,0 +1,26 @@
+package ru.sailor.converter;
+
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GithubGraphQLCommit;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+public class GithubGraphQLCommitToGitCommitConverter {
+
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+    public static GitCommit toGit(GithubGraphQLCommit githubCommit) {
+        return GitCommit.builder()
+                .sha(githubCommit.getOid())
+                .timestamp(LocalDateTime.parse(githubCommit.getCommittedDate(), formatter))
+                .parents(githubCommit.getParents().stream()
+                        .map(sha -> GitCommit.builder().sha(sha).parents(Collections.emptyList()).build())
+                        .collect(Collectors.toList())
+                )
+                .build();
+    }
+
+}
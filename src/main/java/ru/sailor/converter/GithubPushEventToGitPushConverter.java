@@ -0,0 +1,53 @@
+package ru.sailor.converter;
+
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GitPush;
+import ru.sailor.data.GithubPushEvent;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Push payload lists new commits without their parents, so they are inferred only for a push of one commit
+ * on top of the old head: its parent is the old head. A merge among several commits can't be told from a chain,
+ * and the list is truncated for big pushes, so then the new head is left unknown, like after a forced push
+ * or a creation of a branch.
+ */
+public class GithubPushEventToGitPushConverter {
+
+    private static final String BRANCH_PREFIX = "refs/heads/";
+
+    /**
+     * @return push to a branch or null for other refs, e.g. tags
+     */
+    public static GitPush toGit(GithubPushEvent event) {
+        if (event.getRef() == null || !event.getRef().startsWith(BRANCH_PREFIX) || event.getRepository() == null) {
+            return null;
+        }
+
+        var commits = event.getCommits();
+        //other parents of a merge pushed alone are reachable from the old head, so the history is the same
+        var isOneCommit = !event.isForced() && !event.isCreated() && !event.isDeleted() && commits.size() == 1 &&
+                commits.get(0).getId().equals(event.getAfter());
+        var head = isOneCommit ? toGit(commits.get(0), event.getBefore()) : null;
+        return GitPush.builder()
+                .repository(event.getRepository().getFullName())
+                .branchName(event.getRef().substring(BRANCH_PREFIX.length()))
+                .before(event.getBefore())
+                .head(head)
+                .commits(head == null ? List.of() : List.of(head))
+                .build();
+    }
+
+    private static GitCommit toGit(GithubPushEvent.Commit commit, String parentSha) {
+        var parent = GitCommit.builder().sha(parentSha).parents(Collections.emptyList()).build();
+        return GitCommit.builder()
+                .sha(commit.getId())
+                .timestamp(OffsetDateTime.parse(commit.getTimestamp()).withOffsetSameInstant(ZoneOffset.UTC).toLocalDateTime())
+                .parents(List.of(parent))
+                .build();
+    }
+
+}
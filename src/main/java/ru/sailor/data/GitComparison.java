@@ -0,0 +1,21 @@
+package ru.sailor.data;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+@Builder
+public class GitComparison {
+
+    GitCommit mergeBase;
+    //commits reachable from head, but not from base
+    List<GitCommit> headCommits;
+    Integer totalHeadCommits;
+
+    public Boolean hasAllHeadCommits() {
+        return totalHeadCommits != null && headCommits.size() >= totalHeadCommits;
+    }
+
+}
@@ -0,0 +1,22 @@
+package ru.sailor.data;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+@Builder
+public class GitPush {
+
+    //owner/repo
+    String repository;
+    String branchName;
+    //head of the branch before the push
+    String before;
+    //null if the branch was deleted or the new head is not known with its parents
+    GitCommit head;
+    //pushed commits with parents
+    List<GitCommit> commits;
+
+}
@@ -0,0 +1,14 @@
+package ru.sailor.data;
+
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class GithubCommitsPage {
+
+    List<GitCommit> commits;
+    //set instead of commits if github returned an error
+    String errorMessage;
+
+}
@@ -0,0 +1,27 @@
+package ru.sailor.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.Collections;
+import java.util.List;
+
+@Data
+@EqualsAndHashCode(callSuper = true)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GithubCompare extends GithubErrorResponse {
+
+    @JsonProperty("merge_base_commit")
+    GithubCommit mergeBaseCommit;
+    //without pagination github lists only the first 250 of them
+    List<GithubCommit> commits;
+    @JsonProperty("total_commits")
+    Integer totalCommits;
+
+    public GithubCompare() {
+        commits = Collections.emptyList();
+    }
+
+}
@@ -0,0 +1,32 @@
+package ru.sailor.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GithubGraphQLCommit {
+
+    String oid;
+    String committedDate;
+    List<String> parents;
+
+    public GithubGraphQLCommit() {
+        parents = Collections.emptyList();
+    }
+
+    @JsonProperty("parents")
+    private void unpackParents(Map<String, List<Map<String, String>>> parentsConnection) {
+        parents = new ArrayList<>();
+        for (var node : parentsConnection.get("nodes")) {
+            parents.add(node.get("oid"));
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package ru.sailor.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Payload of a push webhook event, only fields needed to update branch heads.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GithubPushEvent {
+
+    //refs/heads/{branch} or refs/tags/{tag}
+    String ref;
+    String before;
+    String after;
+    boolean created;
+    boolean deleted;
+    boolean forced;
+    Repository repository;
+    //oldest first
+    List<Commit> commits = Collections.emptyList();
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Repository {
+
+        @JsonProperty("full_name")
+        String fullName;
+
+    }
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Commit {
+
+        String id;
+        //ISO-8601 with offset, e.g. 2021-01-01T12:00:00+03:00
+        String timestamp;
+
+    }
+
+}
@@ -8,4 +8,8 @@ public class GitCommunicationException extends IOException {
         super(message);
     }
 
+    public GitCommunicationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
@@ -1,9 +1,109 @@
 package ru.sailor.factory;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import ru.sailor.GithubLastCommonCommitsFinder;
 import ru.sailor.LastCommonCommitsFinder;
+import ru.sailor.client.CachingGitClient;
+import ru.sailor.client.GitClient;
+import ru.sailor.client.GithubClient;
+import ru.sailor.client.HttpResponseCache;
+import ru.sailor.client.PushEventsGitClient;
+import ru.sailor.client.PushedRefs;
+import ru.sailor.client.RateLimitScheduler;
+import ru.sailor.converter.GithubPushEventToGitPushConverter;
+import ru.sailor.data.GithubPushEvent;
+import ru.sailor.graph.CommitGraph;
+import ru.sailor.metrics.Metrics;
+import ru.sailor.storage.CommitStore;
 
-public class LastCommonCommitsFinderFactoryImpl implements LastCommonCommitsFinderFactory {
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates finders that share one pool of keep-alive connections, so short queries don't pay for TLS handshakes.
+ * Closing the factory closes the pool and the commit store, finders created by it stop working.
+ * <p>
+ * Push events passed to {@link #onPushEvent(byte[])} update branch heads and commits for all finders
+ * of the repository, so they need no requests for branches kept fresh by webhooks.
+ */
+public class LastCommonCommitsFinderFactoryImpl implements LastCommonCommitsFinderFactory, PushEventHandler, Closeable {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    //traversal of one finder prefetches histories in parallel, all finders usually go to the same host
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 16;
+    private static final int MAX_CONNECTIONS_TOTAL = 64;
+    //GitHub closes idle connections by itself, a closed one is found out only by a failed request
+    private static final long MAX_IDLE_SECONDS = 30;
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2_000;
+
+    private final String apiUrl;
+    private final Path commitStoreDirectory;
+    private final Path snapshotDirectory;
+    private final Metrics metrics;
+    //rate limit belongs to the token, not to the repository, "" key for anonymous access
+    private final Map<String, RateLimitScheduler> schedulers = new ConcurrentHashMap<>();
+    //by owner/repo in lower case, like GitHub compares names
+    private final Map<String, PushedRefs> pushedRefs = new ConcurrentHashMap<>();
+    private CommitStore commitStore;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+
+    public LastCommonCommitsFinderFactoryImpl() {
+        this(null);
+    }
+
+    /**
+     * @param commitStoreDirectory directory of the on-disk commit store shared by all created finders,
+     *                             null to keep commits only in memory of each finder
+     */
+    public LastCommonCommitsFinderFactoryImpl(Path commitStoreDirectory) {
+        this(commitStoreDirectory, Metrics.NOOP);
+    }
+
+    /**
+     * @param metrics shared by all created finders and their clients
+     */
+    public LastCommonCommitsFinderFactoryImpl(Path commitStoreDirectory, Metrics metrics) {
+        this(GithubClient.GITHUB_API_URL, commitStoreDirectory, metrics);
+    }
+
+    /**
+     * @param apiUrl repos API root, e.g. {@link GithubClient#GITHUB_API_URL} or a GitHub Enterprise/local address
+     */
+    public LastCommonCommitsFinderFactoryImpl(String apiUrl, Path commitStoreDirectory, Metrics metrics) {
+        this(apiUrl, commitStoreDirectory, null, metrics);
+    }
+
+    /**
+     * @param snapshotDirectory directory of commit graph snapshots written by warm-up, a finder starts with
+     *                          the snapshot of its repository if there is one, see {@link #getSnapshotPath}
+     */
+    public LastCommonCommitsFinderFactoryImpl(String apiUrl, Path commitStoreDirectory, Path snapshotDirectory,
+                                              Metrics metrics) {
+        this.apiUrl = apiUrl;
+        this.commitStoreDirectory = commitStoreDirectory;
+        this.snapshotDirectory = snapshotDirectory;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return path of the commit graph snapshot of the repository, names are in lower case like on GitHub
+     */
+    public static Path getSnapshotPath(Path snapshotDirectory, String owner, String repo) {
+        return snapshotDirectory.resolve(owner.toLowerCase(Locale.ROOT)).resolve(repo.toLowerCase(Locale.ROOT) + ".graph");
+    }
 
     @Override
     public LastCommonCommitsFinder create(String owner, String repo, String token) {
@@ -11,6 +111,101 @@ public class LastCommonCommitsFinderFactoryImpl implements LastCommonCommitsFind
             throw new IllegalArgumentException("For getting repo information owner and repo should be not null/Blank");
         }
 
-        return new GithubLastCommonCommitsFinder(owner, repo, token);
+        var scheduler = schedulers.computeIfAbsent(token == null ? "" : token,
+                key -> RateLimitScheduler.forToken(token));
+        GitClient client = new GithubClient(apiUrl, owner, repo, scheduler, new HttpResponseCache(), metrics,
+                getHttpClient());
+        if (commitStoreDirectory != null) {
+            client = new CachingGitClient(client, getCommitStore());
+        }
+        client = new PushEventsGitClient(client, getPushedRefs(owner + "/" + repo));
+        return new GithubLastCommonCommitsFinder(client, metrics, readSnapshot(owner, repo));
+    }
+
+    /**
+     * Applies the push to finders of the repository, created already or later.
+     */
+    @Override
+    public boolean onPushEvent(byte[] payload) throws IOException {
+        var event = mapper.readValue(payload, GithubPushEvent.class);
+        try {
+            var push = GithubPushEventToGitPushConverter.toGit(event);
+            if (push == null) {
+                return false;
+            }
+            getPushedRefs(push.getRepository()).onPush(push);
+            return true;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid push event: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (httpClient != null) {
+            //closes the connection manager too
+            httpClient.close();
+            httpClient = null;
+            connectionManager = null;
+        }
+        if (commitStore != null) {
+            commitStore.close();
+            commitStore = null;
+        }
+    }
+
+    /**
+     * @return connections of the shared pool, empty stats if no finder was created yet
+     */
+    synchronized PoolStats getConnectionPoolStats() {
+        return connectionManager == null ? new PoolStats(0, 0, 0, MAX_CONNECTIONS_TOTAL) : connectionManager.getTotalStats();
+    }
+
+    private CommitGraph readSnapshot(String owner, String repo) {
+        if (snapshotDirectory == null) {
+            return new CommitGraph();
+        }
+        var path = getSnapshotPath(snapshotDirectory, owner, repo);
+        if (!Files.exists(path)) {
+            return new CommitGraph();
+        }
+        try {
+            return CommitGraph.readSnapshot(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read commit graph snapshot " + path, e);
+        }
+    }
+
+    private PushedRefs getPushedRefs(String repository) {
+        return pushedRefs.computeIfAbsent(repository.toLowerCase(Locale.ROOT), key -> new PushedRefs());
+    }
+
+    //pool is created lazily, like the store
+    private synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(MAX_CONNECTIONS_TOTAL);
+            connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+            connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+            //builder also sends "Accept-Encoding: gzip,deflate" and decompresses responses on the fly
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(MAX_IDLE_SECONDS, TimeUnit.SECONDS)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    //store is opened lazily, so the factory stays usable without touching the file system
+    private synchronized CommitStore getCommitStore() {
+        if (commitStore == null) {
+            try {
+                commitStore = CommitStore.open(commitStoreDirectory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't open commit store " + commitStoreDirectory, e);
+            }
+        }
+        return commitStore;
     }
 }
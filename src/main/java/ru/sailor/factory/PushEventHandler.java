@@ -0,0 +1,17 @@
+package ru.sailor.factory;
+
+import java.io.IOException;
+
+/**
+ * Receives GitHub push webhook events to keep finders fresh without polling.
+ */
+public interface PushEventHandler {
+
+    /**
+     * @param payload JSON body of a push event
+     * @return false if the event is ignored, e.g. it is a push of a tag
+     * @throws IOException if the payload can't be parsed
+     */
+    boolean onPushEvent(byte[] payload) throws IOException;
+
+}
@@ -0,0 +1,44 @@
+package ru.sailor.graph;
+
+import java.util.Arrays;
+
+/**
+ * Per query fixed size bitsets of commits, grows together with the commit graph.
+ * Bitset of a commit is a run of words in one primitive array, never painted commits have all bits clear.
+ */
+public class CommitBitsets {
+
+    private final int wordsCount;
+    private long[] words;
+
+    public CommitBitsets(int bitsCount) {
+        wordsCount = Math.max(1, (bitsCount + Long.SIZE - 1) / Long.SIZE);
+        words = new long[wordsCount << 10];
+    }
+
+    public int getWordsCount() {
+        return wordsCount;
+    }
+
+    public long get(int commit, int word) {
+        var index = commit * wordsCount + word;
+        return index < words.length ? words[index] : 0;
+    }
+
+    /**
+     * @return true if any bit was not set before
+     */
+    public boolean or(int commit, int word, long bits) {
+        var index = commit * wordsCount + word;
+        if (index >= words.length) {
+            if (bits == 0) {
+                return false;
+            }
+            words = Arrays.copyOf(words, Math.max(words.length * 2, (commit + 1) * wordsCount));
+        }
+        var changed = (words[index] | bits) != words[index];
+        words[index] |= bits;
+        return changed;
+    }
+
+}
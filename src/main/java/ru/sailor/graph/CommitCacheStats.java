@@ -0,0 +1,28 @@
+package ru.sailor.graph;
+
+import lombok.Builder;
+import lombok.Value;
+
+@Value
+@Builder
+public class CommitCacheStats {
+
+    //known commits, including not loaded parents
+    int commitsCount;
+    int loadedCommitsCount;
+    long memoryBytes;
+    long maxMemoryBytes;
+    long evictionsCount;
+    long evictedCommitsCount;
+    //lookups of parents by traversals, a miss is a history request
+    long hitsCount;
+    long missesCount;
+
+    /**
+     * @return share of lookups answered by known commits, 0 if there were no lookups
+     */
+    public double getHitRatio() {
+        var lookups = hitsCount + missesCount;
+        return lookups == 0 ? 0 : (double) hitsCount / lookups;
+    }
+}
@@ -0,0 +1,33 @@
+package ru.sailor.graph;
+
+import java.util.Arrays;
+
+/**
+ * Per query bit flags of commits, grows together with the commit graph.
+ */
+public class CommitFlags {
+
+    private byte[] flags = new byte[1 << 10];
+
+    public int get(int commit) {
+        return commit < flags.length ? flags[commit] : 0;
+    }
+
+    public boolean has(int commit, int mask) {
+        return (get(commit) & mask) == mask;
+    }
+
+    public void add(int commit, int mask) {
+        if (commit >= flags.length) {
+            flags = Arrays.copyOf(flags, Math.max(flags.length * 2, commit + 1));
+        }
+        flags[commit] |= mask;
+    }
+
+    public void clear(int commit, int mask) {
+        if (commit < flags.length) {
+            flags[commit] &= ~mask;
+        }
+    }
+
+}
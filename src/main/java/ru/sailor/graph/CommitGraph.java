@@ -0,0 +1,747 @@
+package ru.sailor.graph;
+
+import ru.sailor.data.GitCommit;
+import ru.sailor.storage.Sha;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Compact in-memory commit DAG.
+ * <p>
+ * Every known SHA gets an int id, the SHA itself is kept as 20 bytes in a shared array.
+ * Parents are stored as ids in one primitive pool and timestamps as epoch seconds,
+ * so a commit costs a few dozen bytes instead of a graph of GitCommit objects.
+ * A commit that was only seen as a parent has an id, but is not loaded until its own data arrives.
+ * <p>
+ * Generation number of a commit is 1 for a root and 1 + max generation of the parents otherwise, like in git commit-graph.
+ * It is known only for commits with the whole ancestry loaded, others have {@link #GENERATION_INFINITY}.
+ * Generations are computed as commits are loaded: a commit with a parent of unknown generation waits for that parent,
+ * and is computed when the parent is, so loading a commit costs O(its parents) plus commits it completes.
+ * <p>
+ * Thread safe: concurrent traversals read the graph while loaded histories are added.
+ * Ids and data of loaded commits never change, so a traversal sees a consistent graph between calls.
+ * Writers take the lock, while getters of commit data read arrays published through a volatile field
+ * without it: they are called for every heap comparison and parent lookup of a traversal.
+ * The only exception is {@link #evict}: it compacts the graph and renumbers commits,
+ * so it should be called when nobody holds ids.
+ * <p>
+ * The graph could be written to a binary snapshot and read back by another process:
+ * arrays are written as they are, so reading is a few bulk copies and a rehash.
+ */
+public class CommitGraph {
+
+    public static final int NO_COMMIT = -1;
+    public static final int GENERATION_INFINITY = Integer.MAX_VALUE;
+
+    private static final int NOT_LOADED = -1;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    //sha, timestamp, parents offset and count, generation, head of waiters, two table slots, access tick and count
+    private static final int ID_BYTES = Sha.BYTES + Long.BYTES + Integer.BYTES + Character.BYTES + 2 * Integer.BYTES
+            + 2 * Integer.BYTES + 2 * Integer.BYTES;
+    //parent and an entry of the waiters pool: a commit waits for each of its parents once at most
+    private static final int PARENT_BYTES = 3 * Integer.BYTES;
+
+    //"CGS1"
+    private static final int SNAPSHOT_MAGIC = 0x43475331;
+    private static final int SNAPSHOT_VERSION = 1;
+    //magic, version, size, loaded count, parents size
+    private static final int SNAPSHOT_HEADER_BYTES = 5 * Integer.BYTES;
+    //sha, timestamp, parents count, generation
+    private static final int SNAPSHOT_ID_BYTES = Sha.BYTES + Long.BYTES + Character.BYTES + Integer.BYTES;
+    //parents count of a commit that is not loaded
+    private static final char SNAPSHOT_NOT_LOADED = Character.MAX_VALUE;
+    //parents offset is written last with release semantics, so a reader that sees it sees the rest of the commit
+    private static final VarHandle PARENTS_OFFSETS = MethodHandles.arrayElementVarHandle(int[].class);
+    //generation is published after generations of the ancestors, the same way
+    private static final VarHandle GENERATIONS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private byte[] shas;
+    private long[] timestamps;
+    private int[] parentsOffsets;
+    private char[] parentsCounts;
+    private int[] parents;
+    private int parentsSize;
+    //open addressing table of id + 1, zero marks an empty slot
+    private int[] table;
+    private int size;
+    //zero until the whole ancestry is loaded, never changes after that
+    private int[] generations;
+    //commits waiting for the generation of a parent, by the parent: index + 1 of the first one in the pool
+    private int[] waitersHeads;
+    private int[] waiterCommits;
+    private int[] waiterNext;
+    private int waitersSize;
+    private int waitingCount;
+    private final IntStack generationsStack = new IntStack();
+    private int loadedCount;
+    private int[] lastAccess;
+    private int[] accessCounts;
+    private final AtomicInteger accessTick = new AtomicInteger();
+    private long evictedCount;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //arrays above for readers without the lock, published again whenever one of them is replaced
+    private volatile Columns columns;
+
+    public CommitGraph() {
+        this(INITIAL_CAPACITY, INITIAL_CAPACITY * 2);
+    }
+
+    private CommitGraph(int capacity, int parentsCapacity) {
+        shas = new byte[capacity * Sha.BYTES];
+        timestamps = new long[capacity];
+        parentsOffsets = new int[capacity];
+        parentsCounts = new char[capacity];
+        generations = new int[capacity];
+        waitersHeads = new int[capacity];
+        waiterCommits = new int[INITIAL_CAPACITY];
+        waiterNext = new int[INITIAL_CAPACITY];
+        lastAccess = new int[capacity];
+        accessCounts = new int[capacity];
+        parents = new int[parentsCapacity];
+        table = new int[capacity * 2];
+        publish();
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeSnapshot(Path)}. Generations are read too,
+     * so the first traversal doesn't compute them for the whole history.
+     *
+     * @throws IOException if the file is not a snapshot of a supported version or it is damaged
+     */
+    public static CommitGraph readSnapshot(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < SNAPSHOT_HEADER_BYTES || buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a commit graph snapshot: " + path);
+            }
+            var version = buffer.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported commit graph snapshot version " + version + ": " + path);
+            }
+            var size = buffer.getInt();
+            var loadedCount = buffer.getInt();
+            var parentsSize = buffer.getInt();
+            if (size < 0 || parentsSize < 0 ||
+                    buffer.remaining() != (long) size * SNAPSHOT_ID_BYTES + (long) parentsSize * Integer.BYTES) {
+                throw new IOException("Commit graph snapshot is damaged: " + path);
+            }
+
+            var capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size)) * 2);
+            var graph = new CommitGraph(capacity, Math.max(capacity * 2, parentsSize));
+            buffer.get(graph.shas, 0, size * Sha.BYTES);
+            buffer.asLongBuffer().get(graph.timestamps, 0, size);
+            buffer.position(buffer.position() + size * Long.BYTES);
+            var counts = buffer.asCharBuffer();
+            var parentsOffset = 0;
+            var loadedCommits = 0;
+            for (int id = 0; id < size; id++) {
+                var count = counts.get();
+                if (count == SNAPSHOT_NOT_LOADED) {
+                    graph.parentsOffsets[id] = NOT_LOADED;
+                    continue;
+                }
+                graph.parentsCounts[id] = count;
+                graph.parentsOffsets[id] = parentsOffset;
+                parentsOffset += count;
+                loadedCommits++;
+            }
+            buffer.position(buffer.position() + size * Character.BYTES);
+            buffer.asIntBuffer().get(graph.parents, 0, parentsSize);
+            buffer.position(buffer.position() + parentsSize * Integer.BYTES);
+            buffer.asIntBuffer().get(graph.generations, 0, size);
+            if (parentsOffset != parentsSize || loadedCommits != loadedCount ||
+                    Arrays.stream(graph.parents, 0, parentsSize).anyMatch(parent -> parent < 0 || parent >= size)) {
+                throw new IOException("Commit graph snapshot is damaged: " + path);
+            }
+
+            for (int id = 0; id < size; id++) {
+                if (graph.generations[id] != graph.expectedGeneration(id)) {
+                    throw new IOException("Commit graph snapshot is damaged: " + path);
+                }
+            }
+
+            graph.size = size;
+            graph.parentsSize = parentsSize;
+            graph.loadedCount = loadedCount;
+            for (int id = 0; id < size; id++) {
+                if (graph.generations[id] == GENERATION_INFINITY) {
+                    graph.generations[id] = 0;
+                }
+            }
+            //commits of unknown generation wait for their parents again
+            for (int id = 0; id < size; id++) {
+                if (graph.generations[id] == 0 && graph.parentsOffsets[id] != NOT_LOADED) {
+                    graph.computeGeneration(id);
+                }
+            }
+            graph.rehash(capacity * 2);
+            graph.publish();
+            return graph;
+        }
+    }
+
+    /**
+     * Writes all commits to a binary snapshot, about 40 bytes per commit and 4 bytes per parent.
+     * The file is replaced atomically, so a reader never sees a partly written snapshot.
+     * Access statistics of the eviction policy are not written.
+     * <p>
+     * Commits are copied under the lock and written after it, so queries loading commits wait only for the copy.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        int snapshotSize;
+        int snapshotLoadedCount;
+        byte[] snapshotShas;
+        long[] snapshotTimestamps;
+        int[] snapshotParentsOffsets;
+        char[] snapshotParentsCounts;
+        int[] snapshotParents;
+        int[] snapshotGenerations;
+        lock.readLock().lock();
+        try {
+            snapshotSize = size;
+            snapshotLoadedCount = loadedCount;
+            snapshotShas = Arrays.copyOf(shas, size * Sha.BYTES);
+            snapshotTimestamps = Arrays.copyOf(timestamps, size);
+            snapshotParentsOffsets = Arrays.copyOf(parentsOffsets, size);
+            snapshotParentsCounts = Arrays.copyOf(parentsCounts, size);
+            snapshotParents = Arrays.copyOf(parents, parentsSize);
+            snapshotGenerations = Arrays.copyOf(generations, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        var header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+        var loadedParentsSize = 0;
+        for (int id = 0; id < snapshotSize; id++) {
+            loadedParentsSize += snapshotParentsOffsets[id] != NOT_LOADED ? snapshotParentsCounts[id] : 0;
+        }
+        header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(snapshotSize).putInt(snapshotLoadedCount)
+                .putInt(loadedParentsSize);
+
+        var timestampsBuffer = ByteBuffer.allocate(snapshotSize * Long.BYTES);
+        timestampsBuffer.asLongBuffer().put(snapshotTimestamps);
+        var countsBuffer = ByteBuffer.allocate(snapshotSize * Character.BYTES);
+        //parents are written in order of ids, after eviction the pool may be in another order
+        var parentsBuffer = ByteBuffer.allocate(loadedParentsSize * Integer.BYTES);
+        var counts = countsBuffer.asCharBuffer();
+        var parentIds = parentsBuffer.asIntBuffer();
+        for (int id = 0; id < snapshotSize; id++) {
+            if (snapshotParentsOffsets[id] != NOT_LOADED) {
+                counts.put(snapshotParentsCounts[id]);
+                parentIds.put(snapshotParents, snapshotParentsOffsets[id], snapshotParentsCounts[id]);
+            } else {
+                counts.put(SNAPSHOT_NOT_LOADED);
+            }
+        }
+        var generationsBuffer = ByteBuffer.allocate(snapshotSize * Integer.BYTES);
+        var generationValues = generationsBuffer.asIntBuffer();
+        for (var generation : snapshotGenerations) {
+            generationValues.put(generation == 0 ? GENERATION_INFINITY : generation);
+        }
+
+        var directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        var temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                var buffers = new ByteBuffer[]{header.flip(), ByteBuffer.wrap(snapshotShas), timestampsBuffer,
+                        countsBuffer, parentsBuffer, generationsBuffer};
+                for (var buffer : buffers) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getLoadedCount() {
+        lock.readLock().lock();
+        try {
+            return loadedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return estimate of memory taken by commits, without unused capacity of arrays
+     */
+    public long getMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) size * ID_BYTES + (long) parentsSize * PARENT_BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return count of loaded commits removed by all evictions
+     */
+    public long getEvictedCount() {
+        lock.readLock().lock();
+        try {
+            return evictedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts a new tick of access time, e.g. for a new query.
+     */
+    public void nextAccessTick() {
+        accessTick.incrementAndGet();
+    }
+
+    /**
+     * Records an access to the commit for the eviction policy.
+     */
+    public void touch(int id) {
+        //racy updates from concurrent traversals, or made while arrays grow, may be lost,
+        //eviction doesn't need exact ones
+        var columns = this.columns;
+        columns.lastAccess[id] = accessTick.get();
+        if (columns.accessCounts[id] < Integer.MAX_VALUE) {
+            columns.accessCounts[id]++;
+        }
+    }
+
+    /**
+     * @return id of the sha or {@link #NO_COMMIT} if the sha was never seen
+     */
+    public int getId(String sha) {
+        lock.readLock().lock();
+        try {
+            if (!Sha.isValid(sha)) {
+                return NO_COMMIT;
+            }
+            var slot = findSlot(Sha.toBytes(sha));
+            return slot < 0 ? NO_COMMIT : table[slot] - 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getOrCreateId(String sha) {
+        lock.writeLock().lock();
+        try {
+            var bytes = Sha.toBytes(sha);
+            var slot = findSlot(bytes);
+            if (slot >= 0) {
+                return table[slot] - 1;
+            }
+
+            ensureCapacity();
+            var id = size++;
+            System.arraycopy(bytes, 0, shas, id * Sha.BYTES, Sha.BYTES);
+            parentsOffsets[id] = NOT_LOADED;
+            slot = findSlot(bytes);
+            table[-slot - 1] = id + 1;
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addAll(Collection<GitCommit> commits) {
+        lock.writeLock().lock();
+        try {
+            for (var commit : commits) {
+                add(commit);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int add(GitCommit commit) {
+        lock.writeLock().lock();
+        try {
+            var id = getOrCreateId(commit.getSha());
+            if (isLoaded(id)) {
+                return id;
+            }
+
+            var commitParents = commit.getParents();
+            var parentIds = new int[commitParents.size()];
+            for (int i = 0; i < parentIds.length; i++) {
+                parentIds[i] = getOrCreateId(commitParents.get(i).getSha());
+            }
+            if (parentsSize + parentIds.length > parents.length) {
+                parents = Arrays.copyOf(parents, Math.max(parents.length * 2, parentsSize + parentIds.length));
+                publish();
+            }
+            System.arraycopy(parentIds, 0, parents, parentsSize, parentIds.length);
+
+            timestamps[id] = commit.getTimestamp().toEpochSecond(ZoneOffset.UTC);
+            parentsCounts[id] = (char) parentIds.length;
+            PARENTS_OFFSETS.setRelease(parentsOffsets, id, parentsSize);
+            parentsSize += parentIds.length;
+            lastAccess[id] = accessTick.get();
+            loadedCount++;
+            computeGeneration(id);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isLoaded(int id) {
+        return getParentsOffset(id) != NOT_LOADED;
+    }
+
+    public String getSha(int id) {
+        //written when the id is created, before the id is seen by anyone else
+        return Sha.toHex(columns.shas, id * Sha.BYTES);
+    }
+
+    public long getTimestamp(int id) {
+        //columns are read after the offset: arrays could be replaced while the commit was added
+        return getParentsOffset(id) == NOT_LOADED ? 0 : columns.timestamps[id];
+    }
+
+    public int getParentsCount(int id) {
+        return getParentsOffset(id) == NOT_LOADED ? 0 : columns.parentsCounts[id];
+    }
+
+    public int getParent(int id, int index) {
+        var offset = getParentsOffset(id);
+        return columns.parents[offset + index];
+    }
+
+    /**
+     * Nothing is computed or copied, the view reads without locks while commits are loaded. It stays consistent
+     * for a traversal: a known generation never changes, and ancestors of a commit with known generation
+     * are seen with known generations too.
+     *
+     * @return generation by id, {@link #GENERATION_INFINITY} if it is not known
+     */
+    public IntUnaryOperator getGenerations() {
+        return this::getGeneration;
+    }
+
+    /**
+     * Removes loaded commits with the lowest priority until the memory estimate fits the target.
+     * Parents of kept commits stay as not loaded ones, so their history is requested again when a traversal
+     * needs it, and other commits are forgotten. Commits are renumbered: ids held before the call are invalid.
+     *
+     * @param pinned commits to keep loaded anyway
+     * @return new id by old id, {@link #NO_COMMIT} for removed commits
+     */
+    public int[] evict(EvictionPolicy policy, long targetBytes, int... pinned) {
+        lock.writeLock().lock();
+        try {
+            var isKept = new boolean[size];
+            var isRetained = new boolean[size];
+            var keptBytes = 0L;
+            for (var id : pinned) {
+                isRetained[id] = true;
+                if (isLoaded(id) && !isKept[id]) {
+                    isKept[id] = true;
+                    keptBytes += weight(id);
+                }
+            }
+            var candidates = IntStream.range(0, size)
+                    .filter(id -> isLoaded(id) && !isKept[id])
+                    .boxed()
+                    .sorted(Comparator.comparingLong((Integer id) -> policy.priority(lastAccess[id], accessCounts[id])).reversed())
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            for (var id : candidates) {
+                keptBytes += weight(id);
+                if (keptBytes > targetBytes) {
+                    break;
+                }
+                isKept[id] = true;
+            }
+
+            var newIds = new int[size];
+            var newSize = 0;
+            var newParentsSize = 0;
+            for (int id = 0; id < size; id++) {
+                if (isKept[id]) {
+                    isRetained[id] = true;
+                    newParentsSize += parentsCounts[id];
+                    for (int i = 0; i < parentsCounts[id]; i++) {
+                        isRetained[parents[parentsOffsets[id] + i]] = true;
+                    }
+                }
+            }
+            for (int id = 0; id < size; id++) {
+                newIds[id] = isRetained[id] ? newSize++ : NO_COMMIT;
+            }
+
+            compact(newIds, newSize, isKept, newParentsSize);
+            return newIds;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int getGeneration(int id) {
+        var generation = (int) GENERATIONS.getAcquire(columns.generations, id);
+        return generation == 0 ? GENERATION_INFINITY : generation;
+    }
+
+    private int getParentsOffset(int id) {
+        return (int) PARENTS_OFFSETS.getAcquire(columns.parentsOffsets, id);
+    }
+
+    private void publish() {
+        columns = new Columns(shas, timestamps, parentsOffsets, parentsCounts, parents, generations, lastAccess,
+                accessCounts);
+    }
+
+    //upper bound: parents may stay as not loaded commits
+    private long weight(int id) {
+        return ID_BYTES + (long) parentsCounts[id] * (PARENT_BYTES + ID_BYTES);
+    }
+
+    private void compact(int[] newIds, int newSize, boolean[] isKept, int newParentsSize) {
+        var capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, newSize)) * 2);
+        var newShas = new byte[capacity * Sha.BYTES];
+        var newTimestamps = new long[capacity];
+        var newParentsOffsets = new int[capacity];
+        var newParentsCounts = new char[capacity];
+        var newLastAccess = new int[capacity];
+        var newAccessCounts = new int[capacity];
+        var newParents = new int[Math.max(capacity * 2, newParentsSize)];
+        var parentsCount = 0;
+        var newLoadedCount = 0;
+        for (int id = 0; id < size; id++) {
+            var newId = newIds[id];
+            if (newId == NO_COMMIT) {
+                continue;
+            }
+            System.arraycopy(shas, id * Sha.BYTES, newShas, newId * Sha.BYTES, Sha.BYTES);
+            newLastAccess[newId] = lastAccess[id];
+            newAccessCounts[newId] = accessCounts[id];
+            if (!isKept[id]) {
+                newParentsOffsets[newId] = NOT_LOADED;
+                continue;
+            }
+            newTimestamps[newId] = timestamps[id];
+            newParentsCounts[newId] = parentsCounts[id];
+            newParentsOffsets[newId] = parentsCount;
+            for (int i = 0; i < parentsCounts[id]; i++) {
+                newParents[parentsCount++] = newIds[parents[parentsOffsets[id] + i]];
+            }
+            newLoadedCount++;
+        }
+
+        shas = newShas;
+        timestamps = newTimestamps;
+        parentsOffsets = newParentsOffsets;
+        parentsCounts = newParentsCounts;
+        lastAccess = newLastAccess;
+        accessCounts = newAccessCounts;
+        parents = newParents;
+        parentsSize = parentsCount;
+        //generations of commits above removed ones are unknown now, all are computed again
+        generations = new int[capacity];
+        waitersHeads = new int[capacity];
+        waitersSize = 0;
+        waitingCount = 0;
+        evictedCount += loadedCount - newLoadedCount;
+        loadedCount = newLoadedCount;
+        size = newSize;
+        for (int id = 0; id < size; id++) {
+            if (generations[id] == 0 && parentsOffsets[id] != NOT_LOADED) {
+                computeGeneration(id);
+            }
+        }
+        rehash(capacity * 2);
+        publish();
+    }
+
+    /**
+     * Computes the generation of a loaded commit if generations of all its parents are known,
+     * otherwise the commit waits for the first parent of unknown generation.
+     * Then commits waiting for the computed ones are computed, without recursion: histories are thousands of commits deep.
+     */
+    private void computeGeneration(int id) {
+        var stack = generationsStack;
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            var commit = stack.pop();
+            var generation = 1;
+            var missingParent = NO_COMMIT;
+            for (int i = 0; i < parentsCounts[commit]; i++) {
+                var parent = parents[parentsOffsets[commit] + i];
+                if (generations[parent] == 0) {
+                    missingParent = parent;
+                    break;
+                }
+                generation = Math.max(generation, generations[parent] + 1);
+            }
+            if (missingParent != NO_COMMIT) {
+                addWaiter(missingParent, commit);
+                continue;
+            }
+
+            GENERATIONS.setRelease(generations, commit, generation);
+            for (var waiter = waitersHeads[commit]; waiter != 0; waiter = waiterNext[waiter - 1]) {
+                stack.push(waiterCommits[waiter - 1]);
+                waitingCount--;
+            }
+            waitersHeads[commit] = 0;
+        }
+        //the pool is reused once nothing waits, like after a whole history is loaded
+        if (waitingCount == 0) {
+            waitersSize = 0;
+        }
+    }
+
+    /**
+     * @return generation of a commit by generations of its parents as they are written in a snapshot
+     */
+    private int expectedGeneration(int id) {
+        if (parentsOffsets[id] == NOT_LOADED) {
+            return GENERATION_INFINITY;
+        }
+        var generation = 1;
+        for (int i = 0; i < parentsCounts[id]; i++) {
+            var parentGeneration = generations[parents[parentsOffsets[id] + i]];
+            if (parentGeneration == GENERATION_INFINITY) {
+                return GENERATION_INFINITY;
+            }
+            generation = Math.max(generation, parentGeneration + 1);
+        }
+        return generation;
+    }
+
+    private void addWaiter(int parent, int commit) {
+        if (waitersSize == waiterCommits.length) {
+            waiterCommits = Arrays.copyOf(waiterCommits, waitersSize * 2);
+            waiterNext = Arrays.copyOf(waiterNext, waitersSize * 2);
+        }
+        waiterCommits[waitersSize] = commit;
+        waiterNext[waitersSize] = waitersHeads[parent];
+        waitersHeads[parent] = ++waitersSize;
+        waitingCount++;
+    }
+
+    private void ensureCapacity() {
+        if (size == timestamps.length) {
+            var capacity = size * 2;
+            shas = Arrays.copyOf(shas, capacity * Sha.BYTES);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            parentsOffsets = Arrays.copyOf(parentsOffsets, capacity);
+            parentsCounts = Arrays.copyOf(parentsCounts, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            waitersHeads = Arrays.copyOf(waitersHeads, capacity);
+            lastAccess = Arrays.copyOf(lastAccess, capacity);
+            accessCounts = Arrays.copyOf(accessCounts, capacity);
+            publish();
+        }
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int id = 0; id < size; id++) {
+            var slot = hash(shas, id * Sha.BYTES) & (table.length - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    /**
+     * @return slot of the sha or (-insertion slot - 1) if the sha is absent
+     */
+    private int findSlot(byte[] sha) {
+        var slot = hash(sha, 0) & (table.length - 1);
+        while (table[slot] != 0) {
+            if (Arrays.equals(shas, (table[slot] - 1) * Sha.BYTES, table[slot] * Sha.BYTES, sha, 0, Sha.BYTES)) {
+                return slot;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -slot - 1;
+    }
+
+    //last bytes too: synthetic and hand-made shas often share leading zeros
+    private static int hash(byte[] shas, int offset) {
+        return Sha.hash(shas, offset) ^ Sha.hash(shas, offset + Sha.BYTES - Integer.BYTES);
+    }
+
+    private static class Columns {
+
+        private final byte[] shas;
+        private final long[] timestamps;
+        private final int[] parentsOffsets;
+        private final char[] parentsCounts;
+        private final int[] parents;
+        private final int[] generations;
+        private final int[] lastAccess;
+        private final int[] accessCounts;
+
+        Columns(byte[] shas, long[] timestamps, int[] parentsOffsets, char[] parentsCounts, int[] parents,
+                int[] generations, int[] lastAccess, int[] accessCounts) {
+            this.shas = shas;
+            this.timestamps = timestamps;
+            this.parentsOffsets = parentsOffsets;
+            this.parentsCounts = parentsCounts;
+            this.parents = parents;
+            this.generations = generations;
+            this.lastAccess = lastAccess;
+            this.accessCounts = accessCounts;
+        }
+    }
+
+    private static class IntStack {
+
+        private int[] values = new int[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package ru.sailor.graph;
+
+/**
+ * Chooses loaded commits to keep when {@link CommitGraph} is over its memory budget.
+ * A commit is accessed when it is loaded and every time a traversal visits it.
+ */
+@FunctionalInterface
+public interface EvictionPolicy {
+
+    /**
+     * Commits accessed longer ago are evicted first.
+     */
+    EvictionPolicy LEAST_RECENTLY_USED = (lastAccessTick, accessCount) -> lastAccessTick;
+
+    /**
+     * Commits accessed less often are evicted first, recency breaks ties.
+     * Keeps the part of the history walked by most queries, e.g. the main line of a monorepo,
+     * even if a single deep query visited a lot of commits after it.
+     */
+    EvictionPolicy LEAST_FREQUENTLY_USED = (lastAccessTick, accessCount) -> ((long) accessCount << Integer.SIZE) | lastAccessTick;
+
+    /**
+     * @param lastAccessTick tick of the last access, ticks grow with every query
+     * @param accessCount    count of accesses
+     * @return retention priority, commits with lower ones are evicted first
+     */
+    long priority(int lastAccessTick, int accessCount);
+
+}
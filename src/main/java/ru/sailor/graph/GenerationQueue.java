@@ -0,0 +1,115 @@
+package ru.sailor.graph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Traversal queue that polls children before their parents.
+ * <p>
+ * Commits with known generation are kept in buckets by generation and polled from the highest one:
+ * a parent always has lower generation than its child, so the order is exact whatever commit dates are.
+ * Commits with infinite generation go to a heap ordered by the given comparator and are polled first,
+ * no commit with known generation has them as ancestors.
+ */
+public class GenerationQueue {
+
+    private static final int INITIAL_BUCKETS_COUNT = 64;
+
+    private final IntUnaryOperator generations;
+    private final IntPriorityQueue infiniteQueue;
+    //bucket i keeps commits of generation lowestGeneration + i
+    private int[][] buckets;
+    private int[] bucketSizes;
+    private int lowestGeneration;
+    private int highestGeneration;
+    private int finiteSize;
+
+    /**
+     * @param generations   generations by commit id, see {@link CommitGraph#getGenerations()}
+     * @param infiniteOrder order of commits with infinite generation
+     */
+    public GenerationQueue(IntUnaryOperator generations, IntPriorityQueue.IntComparator infiniteOrder) {
+        this.generations = generations;
+        infiniteQueue = new IntPriorityQueue(infiniteOrder);
+    }
+
+    public int getGeneration(int commit) {
+        return generations.applyAsInt(commit);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        return infiniteQueue.size() + finiteSize;
+    }
+
+    /**
+     * @return true if the queue has commits of infinite generation, then the order is not exact
+     */
+    public boolean hasInfiniteGenerations() {
+        return !infiniteQueue.isEmpty();
+    }
+
+    public void add(int commit) {
+        var generation = getGeneration(commit);
+        if (generation == CommitGraph.GENERATION_INFINITY) {
+            infiniteQueue.add(commit);
+            return;
+        }
+
+        var bucket = bucketOf(generation);
+        if (buckets[bucket] == null) {
+            buckets[bucket] = new int[4];
+        } else if (bucketSizes[bucket] == buckets[bucket].length) {
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], bucketSizes[bucket] * 2);
+        }
+        buckets[bucket][bucketSizes[bucket]++] = commit;
+        highestGeneration = finiteSize == 0 ? generation : Math.max(highestGeneration, generation);
+        finiteSize++;
+    }
+
+    public int poll() {
+        if (!infiniteQueue.isEmpty()) {
+            return infiniteQueue.poll();
+        }
+        if (finiteSize == 0) {
+            throw new NoSuchElementException();
+        }
+
+        var bucket = highestGeneration - lowestGeneration;
+        var commit = buckets[bucket][--bucketSizes[bucket]];
+        finiteSize--;
+        while (finiteSize > 0 && bucketSizes[highestGeneration - lowestGeneration] == 0) {
+            highestGeneration--;
+        }
+        return commit;
+    }
+
+    private int bucketOf(int generation) {
+        if (buckets == null) {
+            lowestGeneration = Math.max(1, generation - INITIAL_BUCKETS_COUNT / 2);
+            buckets = new int[INITIAL_BUCKETS_COUNT][];
+            bucketSizes = new int[INITIAL_BUCKETS_COUNT];
+        }
+        if (generation < lowestGeneration) {
+            var newLowestGeneration = Math.max(1, Math.min(generation, lowestGeneration - buckets.length));
+            var shift = lowestGeneration - newLowestGeneration;
+            var newBuckets = new int[buckets.length + shift][];
+            var newBucketSizes = new int[buckets.length + shift];
+            System.arraycopy(buckets, 0, newBuckets, shift, buckets.length);
+            System.arraycopy(bucketSizes, 0, newBucketSizes, shift, buckets.length);
+            buckets = newBuckets;
+            bucketSizes = newBucketSizes;
+            lowestGeneration = newLowestGeneration;
+        } else if (generation - lowestGeneration >= buckets.length) {
+            var length = Math.max(buckets.length * 2, generation - lowestGeneration + 1);
+            buckets = Arrays.copyOf(buckets, length);
+            bucketSizes = Arrays.copyOf(bucketSizes, length);
+        }
+        return generation - lowestGeneration;
+    }
+
+}
@@ -0,0 +1,76 @@
+package ru.sailor.graph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary heap of primitive ints, avoids boxing of commit ids in the traversal queues.
+ */
+public class IntPriorityQueue {
+
+    @FunctionalInterface
+    public interface IntComparator {
+        int compare(int first, int second);
+    }
+
+    private final IntComparator comparator;
+    private int[] heap;
+    private int size;
+
+    public IntPriorityQueue(IntComparator comparator) {
+        this.comparator = comparator;
+        heap = new int[16];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(int value) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        var index = size++;
+        while (index > 0) {
+            var parent = (index - 1) >>> 1;
+            if (comparator.compare(value, heap[parent]) >= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+    }
+
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return heap[0];
+    }
+
+    public int poll() {
+        var result = peek();
+        var last = heap[--size];
+        var index = 0;
+        var half = size >>> 1;
+        while (index < half) {
+            var child = 2 * index + 1;
+            if (child + 1 < size && comparator.compare(heap[child + 1], heap[child]) < 0) {
+                child++;
+            }
+            if (comparator.compare(last, heap[child]) <= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = last;
+        return result;
+    }
+
+}
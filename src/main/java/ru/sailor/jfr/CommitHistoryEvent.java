@@ -0,0 +1,48 @@
+package ru.sailor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One getCommitHistory call, it makes a request per page of commits.
+ */
+@Name("ru.sailor.CommitHistory")
+@Label("Commit History Batch")
+@Category({"Last Common Commits Finder", "HTTP"})
+@Description("History of commits requested from GitHub page by page")
+@StackTrace(false)
+public class CommitHistoryEvent extends jdk.jfr.Event {
+
+    @Label("Commit SHA")
+    String sha;
+
+    @Label("Requested Commits")
+    int requestedCount;
+
+    @Label("Received Commits")
+    int receivedCount;
+
+    @Label("Pages")
+    int pagesCount;
+
+    public static CommitHistoryEvent start() {
+        var event = new CommitHistoryEvent();
+        event.begin();
+        return event;
+    }
+
+    public void finish(String sha, int requestedCount, int receivedCount, int pagesCount) {
+        end();
+        if (shouldCommit()) {
+            this.sha = sha;
+            this.requestedCount = requestedCount;
+            this.receivedCount = receivedCount;
+            this.pagesCount = pagesCount;
+            commit();
+        }
+    }
+
+}
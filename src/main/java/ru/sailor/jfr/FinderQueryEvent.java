@@ -0,0 +1,77 @@
+package ru.sailor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One findLastCommonCommits call, requests it made are nested into it by time and thread.
+ */
+@Name("ru.sailor.FinderQuery")
+@Label("Last Common Commits Query")
+@Category("Last Common Commits Finder")
+@Description("Query for last common commits of branches")
+public class FinderQueryEvent extends jdk.jfr.Event {
+
+    public static final String COMPARE = "compare";
+    public static final String INCREMENTAL = "incremental";
+    public static final String TRAVERSAL = "traversal";
+    public static final String BATCH = "batch";
+
+    @Label("Branch A")
+    @Description("The first branch or the base branch of a batch query")
+    String branchA;
+
+    @Label("Branch B")
+    @Description("The second branch, null for a batch query")
+    String branchB;
+
+    @Label("Branches Count")
+    int branchesCount;
+
+    @Label("Method")
+    @Description("How the result was found: compare, incremental, traversal or batch")
+    String method;
+
+    @Label("Commits Visited")
+    @Description("Commits polled from the traversal queue")
+    long commitsVisited;
+
+    @Label("Result Size")
+    int resultSize;
+
+    @Label("Failed")
+    @Description("The query threw an exception, method and result size are not set")
+    boolean failed;
+
+    public static FinderQueryEvent start(String branchA, String branchB, int branchesCount) {
+        var event = new FinderQueryEvent();
+        event.branchA = branchA;
+        event.branchB = branchB;
+        event.branchesCount = branchesCount;
+        event.begin();
+        return event;
+    }
+
+    public void setCommitsVisited(long commitsVisited) {
+        this.commitsVisited = commitsVisited;
+    }
+
+    public void setResult(String method, int resultSize) {
+        this.method = method;
+        this.resultSize = resultSize;
+    }
+
+    /**
+     * Called in finally, a query that has no result by then failed.
+     */
+    public void finish() {
+        end();
+        if (shouldCommit()) {
+            failed = method == null;
+            commit();
+        }
+    }
+
+}
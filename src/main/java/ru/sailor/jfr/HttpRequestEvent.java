@@ -0,0 +1,58 @@
+package ru.sailor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * HTTP request to GitHub API, from sending the request to reading the whole response body.
+ */
+@Name("ru.sailor.HttpRequest")
+@Label("GitHub Request")
+@Category({"Last Common Commits Finder", "HTTP"})
+@Description("Request to GitHub API")
+@StackTrace(false)
+public class HttpRequestEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("URL")
+    String url;
+
+    @Label("Page")
+    @Description("Page of commits history, 0 for requests without pages")
+    int page;
+
+    @Label("Status")
+    int status;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    /**
+     * Begins the event, fields are set only if it will be committed.
+     */
+    public static HttpRequestEvent start() {
+        var event = new HttpRequestEvent();
+        event.begin();
+        return event;
+    }
+
+    public void finish(String endpoint, String url, int page, int status, long bytesRead) {
+        end();
+        if (shouldCommit()) {
+            this.endpoint = endpoint;
+            this.url = url;
+            this.page = page;
+            this.status = status;
+            this.bytesRead = bytesRead;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package ru.sailor.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe histogram with fixed bucket bounds, the last bucket holds values above all bounds.
+ */
+public class Histogram {
+
+    private final long[] bounds;
+    private final AtomicLongArray bucketCounts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    /**
+     * @param bounds inclusive upper bounds of buckets in ascending order
+     */
+    public Histogram(long... bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1] >= bounds[i]) {
+                throw new IllegalArgumentException("Bounds should be in ascending order " + Arrays.toString(bounds));
+            }
+        }
+        this.bounds = bounds.clone();
+        bucketCounts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * @return bounds 1, 2, 5, 10, 20, 50, ... up to the max value
+     */
+    public static long[] decimalBounds(long maxValue) {
+        var bounds = new long[3 * 19];
+        var count = 0;
+        for (long power = 1; power <= maxValue; power *= 10) {
+            for (var step : new long[]{1, 2, 5}) {
+                if (power * step <= maxValue) {
+                    bounds[count++] = power * step;
+                }
+            }
+            if (power > Long.MAX_VALUE / 10) {
+                break;
+            }
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    public void record(long value) {
+        var bucket = Arrays.binarySearch(bounds, value);
+        bucketCounts.incrementAndGet(bucket >= 0 ? bucket : -bucket - 1);
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @param bucket index of the bucket, bounds length for values above all bounds
+     */
+    public long getBucketCount(int bucket) {
+        return bucketCounts.get(bucket);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the max recorded value or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+}
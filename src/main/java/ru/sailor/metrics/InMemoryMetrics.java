@@ -0,0 +1,161 @@
+package ru.sailor.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics kept in memory, could be read by getters or scraped as text in Prometheus exposition format.
+ */
+public class InMemoryMetrics implements Metrics {
+
+    private static final String PREFIX = "last_common_commits_";
+
+    private final Map<String, LongAdder> requestsByEndpoint = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> requestsByStatus = new ConcurrentHashMap<>();
+    private final Histogram bytesRead = new Histogram(Histogram.decimalBounds(100_000_000));
+    private final Histogram latencyMillis = new Histogram(Histogram.decimalBounds(100_000));
+    private final AtomicLong rateLimitRemaining = new AtomicLong(-1);
+    private final LongAdder knownCommitsHits = new LongAdder();
+    private final LongAdder knownCommitsMisses = new LongAdder();
+    private final Histogram polledCommits = new Histogram(Histogram.decimalBounds(100_000_000));
+    private final Histogram peakQueueSize = new Histogram(Histogram.decimalBounds(100_000_000));
+    private final Histogram queryMillis = new Histogram(Histogram.decimalBounds(1_000_000));
+
+    @Override
+    public void onHttpRequest(String endpoint, int statusCode, long bytesRead, long latencyNanos) {
+        requestsByEndpoint.computeIfAbsent(endpoint, key -> new LongAdder()).increment();
+        requestsByStatus.computeIfAbsent(statusCode, key -> new LongAdder()).increment();
+        this.bytesRead.record(bytesRead);
+        latencyMillis.record(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+
+    @Override
+    public void onRateLimitRemaining(long remaining) {
+        rateLimitRemaining.set(remaining);
+    }
+
+    @Override
+    public void onKnownCommitsLookup(boolean hit) {
+        (hit ? knownCommitsHits : knownCommitsMisses).increment();
+    }
+
+    @Override
+    public void onQuery(long polledCommits, int peakQueueSize, long durationNanos) {
+        this.polledCommits.record(polledCommits);
+        this.peakQueueSize.record(peakQueueSize);
+        queryMillis.record(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+
+    public long getRequestsCount() {
+        return requestsByEndpoint.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public long getRequestsCount(String endpoint) {
+        var count = requestsByEndpoint.get(endpoint);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long getRequestsCountByStatus(int statusCode) {
+        var count = requestsByStatus.get(statusCode);
+        return count == null ? 0 : count.sum();
+    }
+
+    public Histogram getBytesRead() {
+        return bytesRead;
+    }
+
+    public Histogram getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return the last reported remaining rate limit or -1 if it was never reported
+     */
+    public long getRateLimitRemaining() {
+        return rateLimitRemaining.get();
+    }
+
+    public long getKnownCommitsHits() {
+        return knownCommitsHits.sum();
+    }
+
+    public long getKnownCommitsMisses() {
+        return knownCommitsMisses.sum();
+    }
+
+    /**
+     * @return share of lookups answered by known commits, 0 if there were no lookups
+     */
+    public double getKnownCommitsHitRate() {
+        var hits = getKnownCommitsHits();
+        var lookups = hits + getKnownCommitsMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public Histogram getPolledCommits() {
+        return polledCommits;
+    }
+
+    public Histogram getPeakQueueSize() {
+        return peakQueueSize;
+    }
+
+    public Histogram getQueryMillis() {
+        return queryMillis;
+    }
+
+    /**
+     * @return all metrics in Prometheus text exposition format
+     */
+    public String scrape() {
+        var text = new StringBuilder();
+        text.append("# TYPE ").append(PREFIX).append("http_requests_total counter\n");
+        for (var entry : new TreeMap<>(requestsByEndpoint).entrySet()) {
+            text.append(PREFIX).append("http_requests_total{endpoint=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+        text.append("# TYPE ").append(PREFIX).append("http_responses_total counter\n");
+        for (var entry : new TreeMap<>(requestsByStatus).entrySet()) {
+            text.append(PREFIX).append("http_responses_total{status=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+        appendHistogram(text, "http_response_bytes", bytesRead);
+        appendHistogram(text, "http_latency_milliseconds", latencyMillis);
+        appendGauge(text, "rate_limit_remaining", getRateLimitRemaining());
+        appendCounter(text, "known_commits_hits_total", getKnownCommitsHits());
+        appendCounter(text, "known_commits_misses_total", getKnownCommitsMisses());
+        appendHistogram(text, "query_polled_commits", polledCommits);
+        appendHistogram(text, "query_peak_queue_size", peakQueueSize);
+        appendHistogram(text, "query_milliseconds", queryMillis);
+        return text.toString();
+    }
+
+    private static void appendCounter(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        text.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendGauge(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+        text.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder text, String name, Histogram histogram) {
+        text.append("# TYPE ").append(PREFIX).append(name).append(" histogram\n");
+        var bounds = histogram.getBounds();
+        long cumulativeCount = 0;
+        for (int i = 0; i <= bounds.length; i++) {
+            cumulativeCount += histogram.getBucketCount(i);
+            text.append(PREFIX).append(name).append("_bucket{le=\"")
+                    .append(i < bounds.length ? String.valueOf(bounds[i]) : "+Inf").append("\"} ")
+                    .append(cumulativeCount).append('\n');
+        }
+        text.append(PREFIX).append(name).append("_sum ").append(histogram.getSum()).append('\n');
+        text.append(PREFIX).append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+}
@@ -0,0 +1,46 @@
+package ru.sailor.metrics;
+
+/**
+ * Receives measurements of HTTP calls and traversal work.
+ * All methods do nothing by default, implementations override only what they need.
+ * Methods are called from request and query threads concurrently, so implementations should be thread safe and cheap.
+ */
+public interface Metrics {
+
+    Metrics NOOP = new Metrics() {
+    };
+
+    /**
+     * @param endpoint     kind of the API call, e.g. "commits", "branches", "compare"
+     * @param statusCode   HTTP status code of the response
+     * @param bytesRead    size of the response body read from the network, after decompression
+     * @param latencyNanos time from sending the request to reading the whole response body
+     */
+    default void onHttpRequest(String endpoint, int statusCode, long bytesRead, long latencyNanos) {
+    }
+
+    /**
+     * @param remaining count of requests left in the current rate limit window, as reported by the server
+     */
+    default void onRateLimitRemaining(long remaining) {
+    }
+
+    /**
+     * Called when traversal needs parents of a commit.
+     *
+     * @param hit true if they are already known, false if their history has to be requested
+     */
+    default void onKnownCommitsLookup(boolean hit) {
+    }
+
+    /**
+     * Called after the traversal of a query.
+     *
+     * @param polledCommits count of commits polled from the traversal queue
+     * @param peakQueueSize maximal size of the traversal queue
+     * @param durationNanos duration of the traversal including history requests it waited for
+     */
+    default void onQuery(long polledCommits, int peakQueueSize, long durationNanos) {
+    }
+
+}
@@ -0,0 +1,318 @@
+package ru.sailor.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.sailor.LastCommonCommitsFinder;
+import ru.sailor.client.GithubClient;
+import ru.sailor.exceptions.ApiRateLimitException;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.exceptions.InvalidAuthTokenException;
+import ru.sailor.factory.LastCommonCommitsFinderFactory;
+import ru.sailor.factory.LastCommonCommitsFinderFactoryImpl;
+import ru.sailor.factory.PushEventHandler;
+import ru.sailor.metrics.Metrics;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP service answering {@code GET /merge-base/{owner}/{repo}?a=branchA&b=branchB} with
+ * {@code {"mergeBases": [...]}}, so short-lived CI jobs share one warm finder per repository
+ * instead of building the commit graph from nothing in every JVM.
+ * <p>
+ * Identical queries in flight at the same time are coalesced: one of them goes to the finder,
+ * the others wait for its result.
+ * <p>
+ * If the factory is a {@link PushEventHandler} and a webhook secret is given, GitHub push webhooks posted
+ * to {@code /webhook} keep branch heads fresh, so warm queries need no requests to GitHub.
+ * Events without a valid signature are rejected: they would move branch heads behind the answers.
+ */
+public class MergeBaseServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8080;
+    //handlers mostly wait for GitHub, so there are more of them than cores
+    public static final int DEFAULT_THREADS_COUNT = 64;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String CONTEXT = "/merge-base/";
+    private static final String WEBHOOK_CONTEXT = "/webhook";
+    private static final String SIGNATURE_PREFIX = "sha256=";
+
+    private final LastCommonCommitsFinderFactory factory;
+    private final String token;
+    private final byte[] webhookSecret;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, LastCommonCommitsFinder> finders = new ConcurrentHashMap<>();
+    private final Map<List<String>, CompletableFuture<Collection<String>>> queriesInFlight = new ConcurrentHashMap<>();
+    private final LongAdder queriesCount = new LongAdder();
+    private final LongAdder coalescedQueriesCount = new LongAdder();
+
+    /**
+     * @param factory      creates a finder for the first query to a repository, the finder is kept until close
+     * @param token        personal access token for all repositories or null for anonymous access
+     * @param threadsCount size of the pool handling requests, it bounds the count of queries run at once
+     */
+    public MergeBaseServer(InetSocketAddress address, LastCommonCommitsFinderFactory factory, String token,
+                           int threadsCount) throws IOException {
+        this(address, factory, token, threadsCount, null);
+    }
+
+    /**
+     * @param webhookSecret secret of the webhook to check X-Hub-Signature-256 of push events,
+     *                      null not to accept push events
+     */
+    public MergeBaseServer(InetSocketAddress address, LastCommonCommitsFinderFactory factory, String token,
+                           int threadsCount, String webhookSecret) throws IOException {
+        this.factory = factory;
+        this.token = token;
+        this.webhookSecret = webhookSecret == null ? null : webhookSecret.getBytes(StandardCharsets.UTF_8);
+        executor = Executors.newFixedThreadPool(threadsCount, runnable -> {
+            var thread = new Thread(runnable, "merge-base-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(address, 0);
+        server.createContext(CONTEXT, this::handle);
+        if (factory instanceof PushEventHandler && this.webhookSecret != null) {
+            var pushEventHandler = (PushEventHandler) factory;
+            server.createContext(WEBHOOK_CONTEXT, exchange -> handleWebhook(exchange, pushEventHandler));
+        }
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Serves until the process is stopped. Arguments: [port [snapshotDirectory]], finders start with snapshots
+     * written by {@link ru.sailor.cli.WarmUp}. Token is read from GITHUB_TOKEN environment variable,
+     * secret of the webhook from GITHUB_WEBHOOK_SECRET, push events are not accepted without it.
+     */
+    public static void main(String[] args) throws IOException {
+        var port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        var snapshotDirectory = args.length > 1 ? Path.of(args[1]) : null;
+        var factory = new LastCommonCommitsFinderFactoryImpl(GithubClient.GITHUB_API_URL, null, snapshotDirectory,
+                Metrics.NOOP);
+        var server = new MergeBaseServer(new InetSocketAddress(port), factory, System.getenv("GITHUB_TOKEN"),
+                DEFAULT_THREADS_COUNT, System.getenv("GITHUB_WEBHOOK_SECRET"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                factory.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+        server.start();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return count of answered queries, including coalesced ones
+     */
+    public long getQueriesCount() {
+        return queriesCount.sum();
+    }
+
+    /**
+     * @return count of queries answered with the result of an identical query in flight
+     */
+    public long getCoalescedQueriesCount() {
+        return coalescedQueriesCount.sum();
+    }
+
+    /**
+     * Stops the server and closes finders, the factory is left to its owner.
+     */
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+        for (var finder : finders.values()) {
+            finder.close();
+        }
+        finders.clear();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, Map.of("message", "Only GET is supported"));
+                return;
+            }
+            //merge-base/{owner}/{repo}
+            var path = exchange.getRequestURI().getPath().substring(CONTEXT.length()).split("/");
+            var query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (path.length != 2 || path[0].isBlank() || path[1].isBlank()) {
+                send(exchange, 404, Map.of("message", "Expected /merge-base/{owner}/{repo}"));
+                return;
+            }
+            if (query.get("a") == null || query.get("b") == null) {
+                send(exchange, 400, Map.of("message", "Both branches a and b are required"));
+                return;
+            }
+
+            Collection<String> mergeBases;
+            try {
+                mergeBases = findMergeBases(path[0], path[1], query.get("a"), query.get("b"));
+            } catch (InvalidAuthTokenException e) {
+                send(exchange, 401, Map.of("message", e.getMessage()));
+                return;
+            } catch (DataNotFoundException e) {
+                send(exchange, 404, Map.of("message", e.getMessage()));
+                return;
+            } catch (ApiRateLimitException e) {
+                send(exchange, 429, Map.of("message", e.getMessage()));
+                return;
+            } catch (IOException | RuntimeException e) {
+                send(exchange, 502, Map.of("message", "Error while making request to github: " + e.getMessage()));
+                return;
+            }
+
+            var sorted = new ArrayList<>(mergeBases);
+            sorted.sort(null);
+            var response = new LinkedHashMap<String, Object>();
+            response.put("owner", path[0]);
+            response.put("repo", path[1]);
+            response.put("a", query.get("a"));
+            response.put("b", query.get("b"));
+            response.put("mergeBases", sorted);
+            send(exchange, 200, response);
+        }
+    }
+
+    private void handleWebhook(HttpExchange exchange, PushEventHandler pushEventHandler) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, Map.of("message", "Only POST is supported"));
+                return;
+            }
+            var payload = exchange.getRequestBody().readAllBytes();
+            if (!isSignatureValid(payload, exchange.getRequestHeaders().getFirst("X-Hub-Signature-256"))) {
+                send(exchange, 401, Map.of("message", "Invalid signature"));
+                return;
+            }
+            var event = exchange.getRequestHeaders().getFirst("X-GitHub-Event");
+            if (!"push".equals(event)) {
+                //ping and events of other types, the webhook may be subscribed to them by mistake
+                send(exchange, 202, Map.of("message", "Event is ignored"));
+                return;
+            }
+
+            boolean isApplied;
+            try {
+                isApplied = pushEventHandler.onPushEvent(payload);
+            } catch (IOException e) {
+                send(exchange, 400, Map.of("message", e.getMessage()));
+                return;
+            }
+            send(exchange, isApplied ? 200 : 202, Map.of("applied", isApplied));
+        }
+    }
+
+    private boolean isSignatureValid(byte[] payload, String signature) {
+        if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+            return false;
+        }
+        try {
+            var mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(webhookSecret, "HmacSHA256"));
+            var expected = toHex(mac.doFinal(payload)).getBytes(StandardCharsets.US_ASCII);
+            var actual = signature.substring(SIGNATURE_PREFIX.length()).getBytes(StandardCharsets.US_ASCII);
+            //constant time, not to tell how much of the signature is right
+            return MessageDigest.isEqual(expected, actual);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        var hex = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private Collection<String> findMergeBases(String owner, String repo, String branchA,
+                                              String branchB) throws IOException {
+        queriesCount.increment();
+        var key = List.of(owner, repo, branchA, branchB);
+        var query = new CompletableFuture<Collection<String>>();
+        var inFlight = queriesInFlight.putIfAbsent(key, query);
+        if (inFlight != null) {
+            coalescedQueriesCount.increment();
+            return join(inFlight);
+        }
+
+        try {
+            var finder = finders.computeIfAbsent(owner + "/" + repo, name -> factory.create(owner, repo, token));
+            query.complete(finder.findLastCommonCommits(branchA, branchB));
+        } catch (IOException | RuntimeException e) {
+            query.completeExceptionally(e);
+        } finally {
+            //next identical query asks the finder again, heads may have moved
+            queriesInFlight.remove(key, query);
+        }
+        return join(query);
+    }
+
+    private static Collection<String> join(CompletableFuture<Collection<String>> query) throws IOException {
+        try {
+            return query.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        var result = new HashMap<String, String>();
+        if (query == null) {
+            return result;
+        }
+        for (var parameter : query.split("&")) {
+            var pair = parameter.split("=", 2);
+            result.put(pair[0], pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+        }
+        return result;
+    }
+
+    private static void send(HttpExchange exchange, int status, Object body) throws IOException {
+        var bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+}
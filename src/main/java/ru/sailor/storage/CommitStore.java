@@ -0,0 +1,352 @@
+package ru.sailor.storage;
+
+import ru.sailor.data.GitCommit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Append-only on-disk storage of commits keyed by SHA.
+ * <p>
+ * Commits are immutable, so a record is never rewritten once it is appended to the data file.
+ * Lookups go through an open addressing hash table kept in a memory-mapped index file,
+ * the data file itself is read with positional reads.
+ * <p>
+ * Data record: sha(20) | epoch seconds(8) | parents count(1) | parent sha(20) * parents count.
+ * Index slot: sha(20) | data offset + 1(8), zero offset marks an empty slot.
+ */
+public class CommitStore implements Closeable {
+
+    private static final String DATA_FILE = "commits.dat";
+    private static final String INDEX_FILE = "commits.idx";
+
+    private static final int SHA_BYTES = 20;
+    private static final int SLOT_BYTES = SHA_BYTES + Long.BYTES;
+    private static final int HEADER_BYTES = 3 * Long.BYTES;
+    private static final long MAGIC = 0x5341494c4f524353L;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int MAX_PARENTS_COUNT = 255;
+
+    private final Path indexPath;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final FileLock lock;
+
+    private MappedByteBuffer index;
+    private int capacity;
+    private int size;
+    private long dataLength;
+
+    private CommitStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        indexPath = directory.resolve(INDEX_FILE);
+        dataChannel = FileChannel.open(directory.resolve(DATA_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock = tryLock(dataChannel);
+        if (lock == null) {
+            dataChannel.close();
+            throw new IOException("Commit store " + directory + " is already opened");
+        }
+        indexChannel = FileChannel.open(indexPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public static CommitStore open(Path directory) throws IOException {
+        var store = new CommitStore(directory);
+        try {
+            store.load();
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    public synchronized boolean contains(String sha) {
+        return findSlot(Sha.toBytes(sha)) >= 0;
+    }
+
+    public synchronized GitCommit get(String sha) throws IOException {
+        var slot = findSlot(Sha.toBytes(sha));
+        if (slot < 0) {
+            return null;
+        }
+        return readRecord(index.getLong(slotPosition(slot) + SHA_BYTES) - 1);
+    }
+
+    public synchronized void putAll(Collection<GitCommit> commits) throws IOException {
+        for (var commit : commits) {
+            put(commit);
+        }
+    }
+
+    public synchronized void put(GitCommit commit) throws IOException {
+        var sha = Sha.toBytes(commit.getSha());
+        if (findSlot(sha) >= 0) {
+            return;
+        }
+
+        var offset = dataLength;
+        dataLength += writeRecord(commit, sha, offset);
+        insert(sha, offset);
+        index.putLong(2 * Long.BYTES, dataLength);
+    }
+
+    /**
+     * Returns commits reachable from the sha that are present in the store, newest first.
+     * Walk stops on commits that were never stored.
+     */
+    public synchronized List<GitCommit> getHistory(String sha, Integer countOfCommits) throws IOException {
+        return walk(sha, countOfCommits, false);
+    }
+
+    /**
+     * Returns the same history as {@link #getHistory} if the stored commits are enough for it:
+     * the walk reaches countOfCommits or root commits without stepping on a commit that was never stored.
+     * Lone commits, e.g. branch heads, are stored without their history.
+     *
+     * @return commits newest first or null if the stored history is cut off
+     */
+    public synchronized List<GitCommit> getCompleteHistory(String sha, Integer countOfCommits) throws IOException {
+        return walk(sha, countOfCommits, true);
+    }
+
+    private List<GitCommit> walk(String sha, Integer countOfCommits, boolean isComplete) throws IOException {
+        var history = new ArrayList<GitCommit>();
+        var queue = new PriorityQueue<GitCommit>((c1, c2) -> c2.getTimestamp().compareTo(c1.getTimestamp()));
+        var visited = new HashSet<String>();
+        var start = get(sha);
+        if (start == null) {
+            return isComplete ? null : history;
+        }
+        queue.add(start);
+        visited.add(sha);
+        while (!queue.isEmpty() && history.size() < countOfCommits) {
+            var commit = queue.poll();
+            history.add(commit);
+            for (var parent : commit.getParents()) {
+                if (visited.add(parent.getSha())) {
+                    var stored = get(parent.getSha());
+                    if (stored != null) {
+                        queue.add(stored);
+                    } else if (isComplete && history.size() < countOfCommits) {
+                        //the missing parent may be newer than commits walked next
+                        return null;
+                    }
+                }
+            }
+        }
+        return history;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (index != null) {
+            index.force();
+        }
+        indexChannel.close();
+        lock.release();
+        dataChannel.close();
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            //already opened by this process
+            return null;
+        }
+    }
+
+    private void load() throws IOException {
+        if (indexChannel.size() < HEADER_BYTES) {
+            createIndex(INITIAL_CAPACITY);
+        } else {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+            if (index.getLong(0) != MAGIC) {
+                throw new IOException("Corrupted commit store index " + indexPath);
+            }
+            capacity = (int) index.getLong(Long.BYTES);
+            dataLength = index.getLong(2 * Long.BYTES);
+            for (int slot = 0; slot < capacity; slot++) {
+                if (index.getLong(slotPosition(slot) + SHA_BYTES) != 0) {
+                    size++;
+                }
+            }
+        }
+
+        //records appended after the last index update, e.g. the process was killed between the two writes
+        while (dataLength < dataChannel.size()) {
+            var offset = dataLength;
+            var commit = readRecord(offset);
+            if (commit == null) {
+                dataChannel.truncate(offset);
+                break;
+            }
+            dataLength += recordLength(commit.getParents().size());
+            var sha = Sha.toBytes(commit.getSha());
+            if (findSlot(sha) < 0) {
+                insert(sha, offset);
+            }
+        }
+        index.putLong(2 * Long.BYTES, dataLength);
+    }
+
+    private void createIndex(int newCapacity) throws IOException {
+        indexChannel.truncate(0);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) newCapacity * SLOT_BYTES);
+        index.putLong(0, MAGIC);
+        index.putLong(Long.BYTES, newCapacity);
+        index.putLong(2 * Long.BYTES, dataLength);
+        capacity = newCapacity;
+        size = 0;
+    }
+
+    private void insert(byte[] sha, long offset) throws IOException {
+        if ((size + 1) * 2L > capacity) {
+            grow();
+        }
+        var slot = -findSlot(sha) - 1;
+        var position = slotPosition(slot);
+        for (int i = 0; i < SHA_BYTES; i++) {
+            index.put(position + i, sha[i]);
+        }
+        index.putLong(position + SHA_BYTES, offset + 1);
+        size++;
+    }
+
+    private void grow() throws IOException {
+        var oldCapacity = capacity;
+        var oldSlots = new byte[oldCapacity * SLOT_BYTES];
+        index.get(HEADER_BYTES, oldSlots);
+
+        createIndex(oldCapacity * 2);
+        var slots = ByteBuffer.wrap(oldSlots);
+        var sha = new byte[SHA_BYTES];
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            slots.get(slot * SLOT_BYTES, sha);
+            var offset = slots.getLong(slot * SLOT_BYTES + SHA_BYTES);
+            if (offset != 0) {
+                insert(sha, offset - 1);
+            }
+        }
+    }
+
+    /**
+     * @return slot of the sha or (-insertion slot - 1) if the sha is absent
+     */
+    private int findSlot(byte[] sha) {
+        var slot = Sha.hash(sha) & (capacity - 1);
+        while (true) {
+            var position = slotPosition(slot);
+            if (index.getLong(position + SHA_BYTES) == 0) {
+                return -slot - 1;
+            }
+            if (isSameSha(position, sha)) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private boolean isSameSha(int position, byte[] sha) {
+        for (int i = 0; i < SHA_BYTES; i++) {
+            if (index.get(position + i) != sha[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int slotPosition(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private int writeRecord(GitCommit commit, byte[] sha, long offset) throws IOException {
+        var parents = commit.getParents();
+        if (parents.size() > MAX_PARENTS_COUNT) {
+            throw new IOException("Commit " + commit.getSha() + " has too many parents to be stored");
+        }
+        var record = ByteBuffer.allocate(recordLength(parents.size()));
+        record.put(sha);
+        record.putLong(commit.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+        record.put((byte) parents.size());
+        for (var parent : parents) {
+            record.put(Sha.toBytes(parent.getSha()));
+        }
+        record.flip();
+
+        var length = record.remaining();
+        while (record.hasRemaining()) {
+            dataChannel.write(record, offset + length - record.remaining());
+        }
+        return length;
+    }
+
+    private GitCommit readRecord(long offset) throws IOException {
+        var header = ByteBuffer.allocate(SHA_BYTES + Long.BYTES + 1);
+        if (!readFully(header, offset)) {
+            return null;
+        }
+        var sha = new byte[SHA_BYTES];
+        header.get(sha);
+        var timestamp = header.getLong();
+        var parentsCount = Byte.toUnsignedInt(header.get());
+
+        var parentsBuffer = ByteBuffer.allocate(parentsCount * SHA_BYTES);
+        if (!readFully(parentsBuffer, offset + header.capacity())) {
+            return null;
+        }
+        var parents = parentsCount == 0 ? Collections.<GitCommit>emptyList() : new ArrayList<GitCommit>(parentsCount);
+        var parentSha = new byte[SHA_BYTES];
+        for (int i = 0; i < parentsCount; i++) {
+            parentsBuffer.get(parentSha);
+            parents.add(GitCommit.builder()
+                    .sha(Sha.toHex(parentSha))
+                    .parents(Collections.emptyList())
+                    .build());
+        }
+
+        return GitCommit.builder()
+                .sha(Sha.toHex(sha))
+                .timestamp(LocalDateTime.ofEpochSecond(timestamp, 0, ZoneOffset.UTC))
+                .parents(parents)
+                .build();
+    }
+
+    private boolean readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (dataChannel.read(buffer, offset + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static int recordLength(int parentsCount) {
+        return SHA_BYTES + Long.BYTES + 1 + parentsCount * SHA_BYTES;
+    }
+
+
+}
@@ -0,0 +1,253 @@
+package ru.sailor.storage;
+
+import ru.sailor.data.GitCommit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads commits from objects directory of a local git repository: loose objects and memory-mapped packfiles,
+ * including objects directories listed in objects/info/alternates.
+ * <p>
+ * Only parent and committer headers of a commit are decoded, the rest of the object is not even inflated
+ * when it isn't needed to apply a delta.
+ * Packs are rescanned when an object is not found, so objects fetched after opening are visible too.
+ */
+public class GitObjectDatabase {
+
+    private static final byte[] COMMIT_TYPE = "commit ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PARENT = "parent ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMITTER = "committer ".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_ALTERNATES_DEPTH = 5;
+
+    private final List<Path> objectsDirectories;
+    private volatile List<PackFile> packs = Collections.emptyList();
+
+    private GitObjectDatabase(List<Path> objectsDirectories) {
+        this.objectsDirectories = objectsDirectories;
+    }
+
+    public static GitObjectDatabase open(Path objectsDirectory) throws IOException {
+        if (!Files.isDirectory(objectsDirectory)) {
+            throw new NoSuchFileException(objectsDirectory.toString(), null, "Objects directory not found");
+        }
+        var objectsDirectories = new ArrayList<Path>();
+        addWithAlternates(objectsDirectory, objectsDirectories, 0);
+        var database = new GitObjectDatabase(objectsDirectories);
+        database.rescanPacks();
+        return database;
+    }
+
+    public int getPacksCount() {
+        return packs.size();
+    }
+
+    /**
+     * @return commit or null if there is no object with such sha
+     * @throws IOException if the object is not a commit or can't be read
+     */
+    public GitCommit readCommit(String sha) throws IOException {
+        var shaBytes = Sha.toBytes(sha);
+        var commit = readPackedCommit(sha, shaBytes);
+        if (commit != null) {
+            return commit;
+        }
+        for (var objectsDirectory : objectsDirectories) {
+            var path = objectsDirectory.resolve(sha.substring(0, 2)).resolve(sha.substring(2));
+            if (Files.isRegularFile(path)) {
+                return readLooseCommit(sha, path);
+            }
+        }
+        //object could be packed by gc or fetch after the packs were scanned
+        return rescanPacks() ? readPackedCommit(sha, shaBytes) : null;
+    }
+
+    private GitCommit readPackedCommit(String sha, byte[] shaBytes) throws IOException {
+        for (var pack : packs) {
+            var offset = pack.findOffset(shaBytes);
+            if (offset >= 0) {
+                var object = pack.read(offset, true);
+                if (object.getType() != PackFile.OBJ_COMMIT) {
+                    throw new IOException("Object " + sha + " is not a commit");
+                }
+                return parseCommit(sha, object.getData(), 0);
+            }
+        }
+        return null;
+    }
+
+    private static GitCommit readLooseCommit(String sha, Path path) throws IOException {
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(Files.readAllBytes(path));
+            var data = new byte[1024];
+            var length = 0;
+            while (!inflater.finished()) {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, 2 * data.length);
+                }
+                var inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Unexpected end of object " + sha);
+                }
+                length += inflated;
+            }
+            if (!startsWith(data, 0, COMMIT_TYPE)) {
+                throw new IOException("Object " + sha + " is not a commit");
+            }
+            var headerEnd = indexOf(data, (byte) 0, 0, length);
+            if (headerEnd < 0) {
+                throw new IOException("Corrupted object " + sha);
+            }
+            return parseCommit(sha, Arrays.copyOf(data, length), headerEnd + 1);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted object " + sha, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static GitCommit parseCommit(String sha, byte[] data, int offset) throws IOException {
+        var parents = new ArrayList<GitCommit>(1);
+        var position = offset;
+        //headers go in order tree, parent*, author, committer and end with an empty line
+        while (position < data.length && data[position] != '\n') {
+            var end = indexOf(data, (byte) '\n', position, data.length);
+            if (end < 0) {
+                end = data.length;
+            }
+            if (startsWith(data, position, PARENT)) {
+                if (end - position < PARENT.length + 2 * Sha.BYTES) {
+                    throw new IOException("Invalid parent of commit " + sha);
+                }
+                var parentSha = new String(data, position + PARENT.length, 2 * Sha.BYTES, StandardCharsets.US_ASCII);
+                parents.add(GitCommit.builder()
+                        .sha(parentSha)
+                        .parents(Collections.emptyList())
+                        .build());
+            } else if (startsWith(data, position, COMMITTER)) {
+                return GitCommit.builder()
+                        .sha(sha)
+                        .timestamp(LocalDateTime.ofEpochSecond(parseCommitterTime(sha, data, position, end), 0, ZoneOffset.UTC))
+                        .parents(parents.isEmpty() ? Collections.emptyList() : parents)
+                        .build();
+            }
+            position = end + 1;
+        }
+        throw new IOException("Commit " + sha + " has no committer");
+    }
+
+    //committer Name <email> 1617000000 +0300
+    private static long parseCommitterTime(String sha, byte[] data, int from, int to) throws IOException {
+        var position = to - 1;
+        while (position > from && data[position] != '>') {
+            position--;
+        }
+        position++;
+        while (position < to && data[position] == ' ') {
+            position++;
+        }
+        long time = 0;
+        var digits = 0;
+        while (position < to && data[position] >= '0' && data[position] <= '9') {
+            time = time * 10 + (data[position] - '0');
+            position++;
+            digits++;
+        }
+        if (digits == 0 || digits > 18) {
+            throw new IOException("Invalid committer time of commit " + sha);
+        }
+        return time;
+    }
+
+    /**
+     * @return true if new packs were found
+     */
+    private synchronized boolean rescanPacks() throws IOException {
+        var openedPacks = packs.stream().collect(Collectors.toMap(PackFile::getPath, pack -> pack));
+        var newPacks = new ArrayList<PackFile>();
+        var changed = false;
+        for (var objectsDirectory : objectsDirectories) {
+            var packDirectory = objectsDirectory.resolve("pack");
+            if (!Files.isDirectory(packDirectory)) {
+                continue;
+            }
+            try (var files = Files.list(packDirectory)) {
+                for (var packPath : (Iterable<Path>) files::iterator) {
+                    var fileName = packPath.getFileName().toString();
+                    if (!fileName.endsWith(".pack")) {
+                        continue;
+                    }
+                    var pack = openedPacks.get(packPath);
+                    if (pack == null) {
+                        //index is written after the pack, so the pack isn't ready yet without it
+                        if (!Files.exists(packPath.resolveSibling(fileName.replaceAll("\\.pack$", ".idx")))) {
+                            continue;
+                        }
+                        pack = PackFile.open(packPath);
+                        changed = true;
+                    }
+                    newPacks.add(pack);
+                }
+            }
+        }
+        changed |= newPacks.size() != openedPacks.size();
+        //larger packs first, they hold most of the history
+        newPacks.sort((p1, p2) -> Integer.compare(p2.getObjectsCount(), p1.getObjectsCount()));
+        packs = Collections.unmodifiableList(newPacks);
+        return changed;
+    }
+
+    private static void addWithAlternates(Path objectsDirectory, List<Path> objectsDirectories, int depth)
+            throws IOException {
+        objectsDirectory = objectsDirectory.toAbsolutePath().normalize();
+        if (objectsDirectories.contains(objectsDirectory) || !Files.isDirectory(objectsDirectory)) {
+            return;
+        }
+        objectsDirectories.add(objectsDirectory);
+        var alternates = objectsDirectory.resolve("info").resolve("alternates");
+        if (depth >= MAX_ALTERNATES_DEPTH || !Files.isRegularFile(alternates)) {
+            return;
+        }
+        for (var line : Files.readAllLines(alternates)) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                addWithAlternates(objectsDirectory.resolve(line), objectsDirectories, depth + 1);
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (offset + prefix.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,314 @@
+package ru.sailor.storage;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only view of a git packfile and its version 2 .idx file, both memory-mapped.
+ * <p>
+ * Index: magic(4) | version(4) | fanout(4 * 256) | sha(20) * n | crc(4) * n | offset(4) * n | large offset(8) * k.
+ * Pack entry: type and inflated size varint | base offset varint or base sha(20) for deltas | zlib data.
+ */
+final class PackFile {
+
+    static final int OBJ_COMMIT = 1;
+    static final int OBJ_TREE = 2;
+    static final int OBJ_BLOB = 3;
+    static final int OBJ_TAG = 4;
+    static final int OBJ_OFS_DELTA = 6;
+    static final int OBJ_REF_DELTA = 7;
+
+    private static final int IDX_MAGIC = 0xff744f63;
+    private static final int IDX_VERSION = 2;
+    private static final int FANOUT_OFFSET = 2 * Integer.BYTES;
+    private static final int SHAS_OFFSET = FANOUT_OFFSET + 256 * Integer.BYTES;
+    private static final int PACK_MAGIC = 0x5041434b;
+    //mapping is limited by 2 GB, so larger packs are mapped by regions overlapping enough to hold any commit
+    private static final long REGION_BYTES = 1L << 30;
+    private static final long REGION_OVERLAP = 1L << 24;
+    private static final int MAX_DELTA_DEPTH = 10_000;
+    private static final int HEADERS_CHUNK = 256;
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final Path packPath;
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer[] regions;
+    private final int objectsCount;
+    private final int offsetsOffset;
+    private final int largeOffsetsOffset;
+
+    private PackFile(Path packPath, MappedByteBuffer index, MappedByteBuffer[] regions) throws IOException {
+        this.packPath = packPath;
+        this.index = index;
+        this.regions = regions;
+        if (index.capacity() < SHAS_OFFSET || index.getInt(0) != IDX_MAGIC || index.getInt(Integer.BYTES) != IDX_VERSION) {
+            throw new IOException("Unsupported pack index of " + packPath);
+        }
+        objectsCount = index.getInt(SHAS_OFFSET - Integer.BYTES);
+        offsetsOffset = SHAS_OFFSET + objectsCount * (Sha.BYTES + Integer.BYTES);
+        largeOffsetsOffset = offsetsOffset + objectsCount * Integer.BYTES;
+        if (objectsCount < 0 || index.capacity() < largeOffsetsOffset) {
+            throw new IOException("Corrupted pack index of " + packPath);
+        }
+        if (regions.length == 0 || regions[0].getInt(0) != PACK_MAGIC) {
+            throw new IOException("Corrupted pack " + packPath);
+        }
+    }
+
+    /**
+     * @param packPath path of .pack file, its index is expected next to it with .idx extension
+     */
+    static PackFile open(Path packPath) throws IOException {
+        var fileName = packPath.getFileName().toString();
+        var indexPath = packPath.resolveSibling(fileName.substring(0, fileName.length() - ".pack".length()) + ".idx");
+        return new PackFile(packPath, map(indexPath), mapRegions(packPath));
+    }
+
+    Path getPath() {
+        return packPath;
+    }
+
+    int getObjectsCount() {
+        return objectsCount;
+    }
+
+    /**
+     * @return offset of the object in the pack or -1 if the pack doesn't contain it
+     */
+    long findOffset(byte[] sha) {
+        var first = sha[0] & 0xff;
+        var low = first == 0 ? 0 : index.getInt(FANOUT_OFFSET + (first - 1) * Integer.BYTES);
+        var high = index.getInt(FANOUT_OFFSET + first * Integer.BYTES) - 1;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            var compare = compareSha(SHAS_OFFSET + middle * Sha.BYTES, sha);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return offsetAt(middle);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the object with all its deltas applied.
+     *
+     * @param headersOnly allows to stop inflating a not deltified object after the first empty line,
+     *                    for commits and tags it ends headers
+     */
+    PackObject read(long offset, boolean headersOnly) throws IOException {
+        var deltas = new ArrayList<byte[]>();
+        while (true) {
+            var entry = at(offset);
+            var c = entry.get() & 0xff;
+            var type = (c >> 4) & 7;
+            long size = c & 0x0f;
+            var shift = 4;
+            while ((c & 0x80) != 0) {
+                c = entry.get() & 0xff;
+                size |= (long) (c & 0x7f) << shift;
+                shift += 7;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Object at " + offset + " of " + packPath + " is too large");
+            }
+
+            long baseOffset;
+            if (type == OBJ_OFS_DELTA) {
+                c = entry.get() & 0xff;
+                long distance = c & 0x7f;
+                while ((c & 0x80) != 0) {
+                    c = entry.get() & 0xff;
+                    distance = ((distance + 1) << 7) | (c & 0x7f);
+                }
+                baseOffset = offset - distance;
+            } else if (type == OBJ_REF_DELTA) {
+                var baseSha = new byte[Sha.BYTES];
+                entry.get(baseSha);
+                //only thin packs received over network refer to objects outside, git fixes them before storing
+                baseOffset = findOffset(baseSha);
+                if (baseOffset < 0) {
+                    throw new IOException("Delta base " + Sha.toHex(baseSha) + " not found in " + packPath);
+                }
+            } else if (type >= OBJ_COMMIT && type <= OBJ_TAG) {
+                var data = inflate(entry, (int) size, headersOnly && deltas.isEmpty());
+                for (int i = deltas.size() - 1; i >= 0; i--) {
+                    data = applyDelta(data, deltas.get(i));
+                }
+                return new PackObject(type, data);
+            } else {
+                throw new IOException("Unknown object type " + type + " at " + offset + " of " + packPath);
+            }
+
+            if (baseOffset <= 0 || baseOffset >= offset || deltas.size() >= MAX_DELTA_DEPTH) {
+                throw new IOException("Invalid delta base of object at " + offset + " of " + packPath);
+            }
+            deltas.add(inflate(entry, (int) size, false));
+            offset = baseOffset;
+        }
+    }
+
+    static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        var in = ByteBuffer.wrap(delta);
+        try {
+            if (readSize(in) != base.length) {
+                throw new IOException("Delta base size mismatch");
+            }
+            var result = new byte[(int) readSize(in)];
+            var length = 0;
+            while (in.hasRemaining()) {
+                var op = in.get() & 0xff;
+                if ((op & 0x80) != 0) {
+                    long copyOffset = 0;
+                    var copySize = 0;
+                    for (int i = 0; i < 4; i++) {
+                        if ((op & (1 << i)) != 0) {
+                            copyOffset |= (long) (in.get() & 0xff) << (8 * i);
+                        }
+                    }
+                    for (int i = 0; i < 3; i++) {
+                        if ((op & (0x10 << i)) != 0) {
+                            copySize |= (in.get() & 0xff) << (8 * i);
+                        }
+                    }
+                    if (copySize == 0) {
+                        copySize = 0x10000;
+                    }
+                    System.arraycopy(base, Math.toIntExact(copyOffset), result, length, copySize);
+                    length += copySize;
+                } else if (op != 0) {
+                    in.get(result, length, op);
+                    length += op;
+                } else {
+                    throw new IOException("Invalid delta instruction");
+                }
+            }
+            if (length != result.length) {
+                throw new IOException("Delta result size mismatch");
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted delta", e);
+        }
+    }
+
+    private static long readSize(ByteBuffer in) {
+        long size = 0;
+        var shift = 0;
+        int c;
+        do {
+            c = in.get() & 0xff;
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return size;
+    }
+
+    private byte[] inflate(ByteBuffer input, int size, boolean headersOnly) throws IOException {
+        var inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(input);
+        var data = new byte[size];
+        var length = 0;
+        try {
+            while (length < size) {
+                var limit = headersOnly ? Math.min(size, length + HEADERS_CHUNK) : size;
+                var inflated = inflater.inflate(data, length, limit - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Unexpected end of object data in " + packPath);
+                }
+                if (headersOnly && hasEmptyLine(data, Math.max(0, length - 1), length + inflated)) {
+                    break;
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted object data in " + packPath, e);
+        } finally {
+            //inflater keeps the buffer otherwise, and with it the whole mapped region
+            inflater.reset();
+        }
+        return data;
+    }
+
+    private static boolean hasEmptyLine(byte[] data, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (data[i] == '\n' && data[i + 1] == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ByteBuffer at(long offset) throws IOException {
+        var region = (int) (offset / REGION_BYTES);
+        if (offset < 0 || region >= regions.length) {
+            throw new IOException("Offset " + offset + " is out of " + packPath);
+        }
+        var buffer = regions[region].duplicate();
+        buffer.position((int) (offset - region * REGION_BYTES));
+        return buffer;
+    }
+
+    private long offsetAt(int position) {
+        var offset = index.getInt(offsetsOffset + position * Integer.BYTES);
+        if (offset >= 0) {
+            return offset;
+        }
+        return index.getLong(largeOffsetsOffset + (offset & 0x7fffffff) * Long.BYTES);
+    }
+
+    private int compareSha(int indexOffset, byte[] sha) {
+        for (int i = 0; i < Sha.BYTES; i++) {
+            var compare = Integer.compare(index.get(indexOffset + i) & 0xff, sha[i] & 0xff);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File " + path + " is too large to be mapped");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    //mapping stays valid after the channel is closed
+    private static MappedByteBuffer[] mapRegions(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = channel.size();
+            var regions = new MappedByteBuffer[(int) ((size + REGION_BYTES - 1) / REGION_BYTES)];
+            for (int i = 0; i < regions.length; i++) {
+                var start = i * REGION_BYTES;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(REGION_BYTES + REGION_OVERLAP, size - start));
+            }
+            return regions;
+        }
+    }
+
+    @Value
+    static class PackObject {
+
+        int type;
+        byte[] data;
+    }
+
+}
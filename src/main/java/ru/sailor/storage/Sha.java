@@ -0,0 +1,70 @@
+package ru.sailor.storage;
+
+/**
+ * Conversions between hex SHA-1 strings and their 20 bytes binary form.
+ */
+public final class Sha {
+
+    public static final int BYTES = 20;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Sha() {
+    }
+
+    public static boolean isValid(String sha) {
+        if (sha == null || sha.length() != 2 * BYTES) {
+            return false;
+        }
+        for (int i = 0; i < sha.length(); i++) {
+            if (Character.digit(sha.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static byte[] toBytes(String sha) {
+        if (sha.length() != 2 * BYTES) {
+            throw new IllegalArgumentException("Invalid sha " + sha);
+        }
+        var bytes = new byte[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            bytes[i] = (byte) ((digit(sha.charAt(2 * i)) << 4) | digit(sha.charAt(2 * i + 1)));
+        }
+        return bytes;
+    }
+
+    public static String toHex(byte[] bytes) {
+        return toHex(bytes, 0);
+    }
+
+    public static String toHex(byte[] bytes, int offset) {
+        var chars = new char[2 * BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            var b = bytes[offset + i];
+            chars[2 * i] = HEX[(b >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(chars);
+    }
+
+    public static int hash(byte[] bytes) {
+        return hash(bytes, 0);
+    }
+
+    //sha is already uniformly distributed, so the first bytes are a good enough hash
+    public static int hash(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    private static int digit(char c) {
+        var digit = Character.digit(c, 16);
+        if (digit < 0) {
+            throw new IllegalArgumentException("Invalid sha character " + c);
+        }
+        return digit;
+    }
+
+}
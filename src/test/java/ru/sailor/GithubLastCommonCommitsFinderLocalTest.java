@@ -0,0 +1,214 @@
+package ru.sailor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.sailor.client.FakeGithubServer;
+import ru.sailor.client.GithubClient;
+import ru.sailor.client.GithubHttp2Client;
+import ru.sailor.client.HttpResponseCache;
+import ru.sailor.client.RateLimitScheduler;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.graph.CommitGraph;
+import ru.sailor.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * Finder tests against a local fake GitHub, they don't depend on network and rate limits.
+ */
+public class GithubLastCommonCommitsFinderLocalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeGithubServer server;
+    private GithubLastCommonCommitsFinder finder;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        finder = new GithubLastCommonCommitsFinder(new GithubClient(server.getApiUrl(), "owner", "repo", "token"));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    //    * 1003 (feature)
+    //    * 1002
+    //    * 1001
+    //    | * 1000 (main)
+    //    | ...
+    //    |/
+    //    * 500
+    //    ...
+    //    * 1
+    @Test
+    public void testFeatureBranchSingleCompare() throws IOException {
+        server.addCommits(linearHistory(1_000));
+        server.addCommits(List.of(commit(1_001, 500), commit(1_002, 1_001), commit(1_003, 1_002)));
+        server.setBranch("main", sha(1_000));
+        server.setBranch("feature", sha(1_003));
+
+        Assert.assertEquals(Set.of(sha(500)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+        Assert.assertEquals(1, server.getRequestsCount());
+    }
+
+    @Test
+    public void testMergedMainIntoFeature() throws IOException {
+        server.addCommits(linearHistory(1_000));
+        server.addCommits(List.of(commit(1_001, 500), commit(1_002, 1_001, 800), commit(1_003, 1_002)));
+        server.setBranch("main", sha(1_000));
+        server.setBranch("feature", sha(1_003));
+
+        Assert.assertEquals(Set.of(sha(800)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+        Assert.assertEquals(2, server.getRequestsCount("compare"));
+        Assert.assertEquals(0, server.getRequestsCount("commits"));
+    }
+
+    @Test
+    public void testTheSameBranch() throws IOException {
+        server.addCommits(linearHistory(10));
+        server.setBranch("main", sha(10));
+
+        Assert.assertEquals(Set.of(sha(10)), Set.copyOf(finder.findLastCommonCommits("main", "main")));
+    }
+
+    //    criss-cross history
+    //    6 (branchA) -> 4 -> {2, 3}
+    //    7 (branchB) -> 5 -> {3, 2}
+    //    2 -> 1, 3 -> 1
+    @Test
+    public void testCrissCrossFallsBackToTraversal() throws IOException {
+        server.addCommits(List.of(commit(1), commit(2, 1), commit(3, 1), commit(4, 2, 3), commit(5, 3, 2),
+                commit(6, 4), commit(7, 5)));
+        server.setBranch("branchA", sha(6));
+        server.setBranch("branchB", sha(7));
+
+        Assert.assertEquals(Set.of(sha(2), sha(3)), Set.copyOf(finder.findLastCommonCommits("branchA", "branchB")));
+    }
+
+    @Test
+    public void testZeroCommon() throws IOException {
+        server.addCommits(List.of(commit(1), commit(2, 1), commit(3), commit(4, 3)));
+        server.setBranch("branchA", sha(2));
+        server.setBranch("branchB", sha(4));
+
+        Assert.assertTrue(finder.findLastCommonCommits("branchA", "branchB").isEmpty());
+    }
+
+    //    feature1..feature3 merge main into a fork of it, heads are merges of two not loaded parents
+    @Test
+    public void testBatchChecksRepositoryOnce() throws IOException {
+        server.addCommits(linearHistory(1_000));
+        for (int i = 1; i <= 3; i++) {
+            server.addCommits(List.of(commit(1_000 + i, i * 100), commit(1_010 + i, 1_000 + i, 900)));
+            server.setBranch("feature" + i, sha(1_010 + i));
+        }
+        server.setBranch("main", sha(1_000));
+
+        var result = finder.findLastCommonCommits("main", List.of("feature1", "feature2", "feature3"));
+
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertEquals(Set.of(sha(900)), Set.copyOf(result.get("feature" + i)));
+        }
+        Assert.assertEquals(1, server.getRequestsCount("repo"));
+        Assert.assertEquals(4, server.getRequestsCount("branches"));
+    }
+
+    @Test(expected = DataNotFoundException.class)
+    public void testInvalidBranchName() throws IOException {
+        server.addCommits(linearHistory(10));
+        server.setBranch("main", sha(10));
+
+        finder.findLastCommonCommits("main", "invalidBranch");
+    }
+
+    @Test
+    public void testConcurrentAsyncQueries() {
+        server.addCommits(linearHistory(1_000));
+        for (int i = 1; i <= 100; i++) {
+            server.addCommits(List.of(commit(1_000 + i, i * 10)));
+            server.setBranch("feature" + i, sha(1_000 + i));
+        }
+        server.setBranch("main", sha(1_000));
+        var asyncFinder = new GithubLastCommonCommitsFinder(new GithubHttp2Client(server.getApiUrl(), "owner", "repo",
+                RateLimitScheduler.forToken("token"), new HttpResponseCache(), Metrics.NOOP));
+
+        var results = new ArrayList<CompletableFuture<Collection<String>>>();
+        for (int i = 1; i <= 100; i++) {
+            results.add(asyncFinder.findLastCommonCommitsAsync("main", "feature" + i));
+        }
+
+        for (int i = 1; i <= 100; i++) {
+            Assert.assertEquals(Set.of(sha(i * 10)), Set.copyOf(results.get(i - 1).join()));
+        }
+        Assert.assertEquals(100, server.getRequestsCount("compare"));
+    }
+
+    //    criss-cross merges can't be answered by compare, async query falls back to the traversal
+    @Test
+    public void testAsyncQueryFallsBackToTraversal() {
+        server.addCommits(linearHistory(300));
+        server.addCommits(List.of(commit(302, 300), commit(303, 300), commit(304, 302, 303), commit(305, 303, 302)));
+        server.setBranch("branchA", sha(304));
+        server.setBranch("branchB", sha(305));
+
+        Assert.assertEquals(Set.of(sha(302), sha(303)),
+                Set.copyOf(finder.findLastCommonCommitsAsync("branchA", "branchB").join()));
+    }
+
+    @Test
+    public void testAsyncQueryOfInvalidBranchFails() {
+        server.addCommits(linearHistory(10));
+        server.setBranch("main", sha(10));
+        try {
+            finder.findLastCommonCommitsAsync("main", "invalidBranch").join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof DataNotFoundException);
+        }
+    }
+
+    @Test
+    public void testWarmUpFromSnapshot() throws IOException {
+        server.addCommits(linearHistory(10_000));
+        server.addCommits(List.of(commit(10_001, 5_000), commit(10_002, 10_001, 7_000)));
+        server.setBranch("main", sha(10_000));
+        server.setBranch("feature", sha(10_002));
+        var snapshot = folder.getRoot().toPath().resolve("repo.graph");
+
+        Assert.assertEquals(10_002, finder.warmUp(List.of("main", "feature")));
+        finder.writeSnapshot(snapshot);
+        var commitsRequestsCount = server.getRequestsCount("commits");
+        Assert.assertTrue(commitsRequestsCount >= 100);
+
+        var warmFinder = new GithubLastCommonCommitsFinder(new GithubClient(server.getApiUrl(), "owner", "repo", "token"),
+                Metrics.NOOP, CommitGraph.readSnapshot(snapshot));
+        var result = warmFinder.findLastCommonCommits("main", List.of("feature"));
+        Assert.assertEquals(Set.of(sha(7_000)), Set.copyOf(result.get("feature")));
+        Assert.assertEquals(commitsRequestsCount, server.getRequestsCount("commits"));
+
+        //the next warm-up requests only new commits, with one wave of parallel pages
+        server.addCommits(List.of(commit(10_003, 10_000), commit(10_004, 10_003)));
+        server.setBranch("main", sha(10_004));
+        Assert.assertEquals(10_004, warmFinder.warmUp(List.of("main", "feature")));
+        Assert.assertTrue(server.getRequestsCount("commits") <= commitsRequestsCount + GithubClient.MAX_PARALLEL_PAGES);
+    }
+
+}
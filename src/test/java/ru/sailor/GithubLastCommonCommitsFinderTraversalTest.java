@@ -0,0 +1,508 @@
+package ru.sailor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.sailor.client.GithubClient;
+import ru.sailor.client.InMemoryGitClient;
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.graph.EvictionPolicy;
+import ru.sailor.metrics.InMemoryMetrics;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * Traversal tests on in-memory histories: results are checked against brute force,
+ * and history requests are counted to see how much of the history each query walks.
+ */
+public class GithubLastCommonCommitsFinderTraversalTest {
+
+    private static final int DEEP_HISTORY_SIZE = 20_000;
+
+    @Test
+    public void testRandomHistories() throws IOException {
+        var random = new Random(42);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            var parents = randomHistory(random, 5 + random.nextInt(300));
+            var branchA = 1 + random.nextInt(parents.size());
+            var branchB = 1 + random.nextInt(parents.size());
+
+            var client = new InMemoryGitClient();
+            client.addCommits(toCommits(parents));
+            client.setBranch("branchA", sha(branchA));
+            client.setBranch("branchB", sha(branchB));
+
+            Assert.assertEquals("iteration " + iteration, lastCommonCommits(parents, branchA, branchB),
+                    Set.copyOf(new GithubLastCommonCommitsFinder(client).findLastCommonCommits("branchA", "branchB")));
+        }
+    }
+
+    //    commit dates are shuffled, as after rebases and with wrong clocks:
+    //    the first query loads the whole history, the next ones are walked in generation order
+    @Test
+    public void testRandomHistoriesWithSkewedDates() throws IOException {
+        var random = new Random(11);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            var parents = randomHistory(random, 5 + random.nextInt(300));
+            var commits = new ArrayList<GitCommit>();
+            parents.forEach((number, commitParents) -> commits.add(GitCommit.builder()
+                    .sha(sha(number))
+                    .timestamp(LocalDateTime.of(2021, 1, 1, 0, 0).plusMinutes(random.nextInt(1000)))
+                    .parents(commit(number, commitParents).getParents())
+                    .build()));
+            var client = new InMemoryGitClient();
+            client.addCommits(commits);
+            var finder = new GithubLastCommonCommitsFinder(client);
+
+            for (int query = 0; query < 3; query++) {
+                var branchA = 1 + random.nextInt(parents.size());
+                var branchB = 1 + random.nextInt(parents.size());
+                client.setBranch("branchA" + query, sha(branchA));
+                client.setBranch("branchB" + query, sha(branchB));
+
+                Assert.assertEquals("iteration " + iteration + " query " + query, lastCommonCommits(parents, branchA, branchB),
+                        Set.copyOf(finder.findLastCommonCommits("branchA" + query, "branchB" + query)));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomHistoriesBatch() throws IOException {
+        var random = new Random(7);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            var parents = randomHistory(random, 5 + random.nextInt(300));
+            var base = 1 + random.nextInt(parents.size());
+            var client = new InMemoryGitClient();
+            client.addCommits(toCommits(parents));
+            client.setBranch("base", sha(base));
+
+            var branches = new ArrayList<String>();
+            var expected = new HashMap<String, Set<String>>();
+            //more branches than bits in a word
+            for (int i = 0; i < 1 + random.nextInt(100); i++) {
+                var head = 1 + random.nextInt(parents.size());
+                client.setBranch("branch" + i, sha(head));
+                branches.add("branch" + i);
+                expected.put("branch" + i, lastCommonCommits(parents, base, head));
+            }
+
+            var result = new GithubLastCommonCommitsFinder(client).findLastCommonCommits("base", branches);
+            Assert.assertEquals("iteration " + iteration, branches, new ArrayList<>(result.keySet()));
+            for (var branch : branches) {
+                Assert.assertEquals("iteration " + iteration + " " + branch, expected.get(branch), Set.copyOf(result.get(branch)));
+            }
+        }
+    }
+
+    //    main: 5 000 commits, 200 branches of 3 commits forked from the last 2 000 main commits
+    @Test
+    public void testBatchFetchesSharedHistoryOnce() throws IOException {
+        var mainSize = 5_000;
+        var branchesCount = 200;
+        var commits = new ArrayList<GitCommit>(linearHistory(mainSize));
+        var branches = new ArrayList<String>();
+        var client = new ConcurrencyCountingClient();
+        for (int i = 0; i < branchesCount; i++) {
+            var first = mainSize + 1 + 3 * i;
+            commits.add(commit(first, mainSize - 10 * i));
+            commits.add(commit(first + 1, first));
+            commits.add(commit(first + 2, first + 1));
+            client.setBranch("branch" + i, sha(first + 2));
+            branches.add("branch" + i);
+        }
+        client.addCommits(commits);
+        client.setBranch("main", sha(mainSize));
+
+        var result = new GithubLastCommonCommitsFinder(client).findLastCommonCommits("main", branches);
+
+        for (int i = 0; i < branchesCount; i++) {
+            Assert.assertEquals(Set.of(sha(mainSize - 10 * i)), Set.copyOf(result.get("branch" + i)));
+        }
+        client.requestsBySha.forEach((commitSha, count) ->
+                Assert.assertEquals("requests of " + commitSha, 1, count.get()));
+        //a page of every branch and pages of the main down to the oldest fork point
+        Assert.assertTrue("history requests: " + client.getHistoryRequestsCount(),
+                client.getHistoryRequestsCount() <= branchesCount + 2 * 2_000 / GithubClient.MAX_COMMITS_PER_PAGE);
+    }
+
+    //    main: 20 000 commits, every 50th is a merge
+    //    feature: forked 300 commits ago, merged main 200 commits ago
+    //    full walk to the first commit costs 200 history requests
+    @Test
+    public void testDeepHistoryStopsAtCommonFrontier() throws IOException {
+        var commits = new ArrayList<GitCommit>();
+        commits.add(commit(1));
+        for (int i = 2; i <= DEEP_HISTORY_SIZE; i++) {
+            commits.add(i % 50 == 0 ? commit(i, i - 1, i - 10) : commit(i, i - 1));
+        }
+        var feature = DEEP_HISTORY_SIZE + 1;
+        commits.add(commit(feature, DEEP_HISTORY_SIZE - 300));
+        commits.add(commit(feature + 1, feature, DEEP_HISTORY_SIZE - 200));
+        commits.add(commit(feature + 2, feature + 1));
+
+        var client = new InMemoryGitClient();
+        client.addCommits(commits);
+        client.setBranch("main", sha(DEEP_HISTORY_SIZE));
+        client.setBranch("feature", sha(feature + 2));
+        var result = new GithubLastCommonCommitsFinder(client).findLastCommonCommits("main", "feature");
+
+        Assert.assertEquals(Set.of(sha(DEEP_HISTORY_SIZE - 200)), Set.copyOf(result));
+        var fullWalkRequests = DEEP_HISTORY_SIZE / GithubClient.MAX_COMMITS_PER_PAGE;
+        Assert.assertTrue("history requests: " + client.getHistoryRequestsCount() + " of " + fullWalkRequests,
+                client.getHistoryRequestsCount() <= 5);
+    }
+
+    //    two disjoint histories of 5000 commits with a feature branch forked 3000 commits back
+    @Test
+    public void testHistoryDepthAdaptsToRecentQueries() throws IOException {
+        var client = new InMemoryGitClient();
+        for (var offset : List.of(0, 10_000)) {
+            var commits = new ArrayList<GitCommit>();
+            commits.add(commit(offset + 1));
+            for (int i = 2; i <= 5_000; i++) {
+                commits.add(commit(offset + i, offset + i - 1));
+            }
+            commits.add(commit(offset + 5_001, offset + 2_000));
+            client.addCommits(commits);
+            client.setBranch("main" + offset, sha(offset + 5_000));
+            client.setBranch("feature" + offset, sha(offset + 5_001));
+        }
+        var finder = new GithubLastCommonCommitsFinder(client);
+
+        Assert.assertEquals(Set.of(sha(2_000)), Set.copyOf(finder.findLastCommonCommits("main0", "feature0")));
+        var firstQueryRequests = client.getHistoryRequestsCount();
+        Assert.assertEquals(Set.of(sha(12_000)), Set.copyOf(finder.findLastCommonCommits("main10000", "feature10000")));
+        var secondQueryRequests = client.getHistoryRequestsCount() - firstQueryRequests;
+
+        Assert.assertTrue("history requests: " + firstQueryRequests + " then " + secondQueryRequests,
+                secondQueryRequests * 5 < firstQueryRequests);
+    }
+
+    @Test
+    public void testQueryMetrics() throws IOException {
+        var commits = new ArrayList<GitCommit>(linearHistory(1_000));
+        commits.add(commit(1_001, 500));
+        commits.add(commit(1_002, 1_001, 700));
+        var client = new InMemoryGitClient();
+        client.addCommits(commits);
+        client.setBranch("main", sha(1_000));
+        client.setBranch("feature", sha(1_002));
+        var metrics = new InMemoryMetrics();
+        var finder = new GithubLastCommonCommitsFinder(client, metrics);
+
+        Assert.assertEquals(Set.of(sha(700)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+        Assert.assertEquals(1, metrics.getPolledCommits().getCount());
+        Assert.assertEquals(finder.getPolledCommitsCount(), metrics.getPolledCommits().getSum());
+        Assert.assertTrue(metrics.getPeakQueueSize().getMax() >= 2);
+        //parents are requested once per page of history, the rest are known
+        Assert.assertTrue(metrics.getKnownCommitsMisses() > 0);
+        Assert.assertTrue(metrics.getKnownCommitsHitRate() > 0.9);
+    }
+
+    @Test
+    public void testBoundedCacheRefetchesEvictedCommits() throws IOException {
+        var random = new Random(5);
+        var parents = randomHistory(random, 3_000);
+        var client = new InMemoryGitClient();
+        client.addCommits(toCommits(parents));
+        var maxCacheBytes = 16 * 1024;
+        var finder = new GithubLastCommonCommitsFinder(client, Runnable::run, new InMemoryMetrics(), maxCacheBytes,
+                EvictionPolicy.LEAST_RECENTLY_USED);
+
+        for (int query = 0; query < 30; query++) {
+            var branchA = 1 + random.nextInt(parents.size());
+            var branchB = 1 + random.nextInt(parents.size());
+            client.setBranch("branchA" + query, sha(branchA));
+            client.setBranch("branchB" + query, sha(branchB));
+
+            Assert.assertEquals("query " + query, lastCommonCommits(parents, branchA, branchB),
+                    Set.copyOf(finder.findLastCommonCommits("branchA" + query, "branchB" + query)));
+            Assert.assertTrue(finder.getCommitCacheStats().getMemoryBytes() <= maxCacheBytes);
+        }
+
+        var stats = finder.getCommitCacheStats();
+        Assert.assertTrue(stats.getEvictionsCount() > 0);
+        Assert.assertTrue(stats.getEvictedCommitsCount() > 0);
+        Assert.assertTrue(stats.getHitRatio() > 0 && stats.getHitRatio() < 1);
+        Assert.assertTrue(stats.getLoadedCommitsCount() <= stats.getCommitsCount());
+    }
+
+    //    the same pair is queried after heads moved, evicted commits don't break the incremental check
+    @Test
+    public void testIncrementalCheckAfterEviction() throws IOException {
+        var commits = new ArrayList<GitCommit>(linearHistory(5_000));
+        commits.add(commit(5_001, 2_000));
+        var client = new InMemoryGitClient();
+        client.addCommits(commits);
+        client.setBranch("main", sha(5_000));
+        client.setBranch("feature", sha(5_001));
+        var finder = new GithubLastCommonCommitsFinder(client, Runnable::run, new InMemoryMetrics(), 32 * 1024,
+                EvictionPolicy.LEAST_RECENTLY_USED);
+
+        Assert.assertEquals(Set.of(sha(2_000)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+        client.addCommits(List.of(commit(5_002, 5_000), commit(5_003, 5_002)));
+        client.setBranch("main", sha(5_003));
+
+        Assert.assertEquals(Set.of(sha(2_000)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+        Assert.assertTrue(finder.getCommitCacheStats().getEvictionsCount() > 0);
+    }
+
+    //    8 lines of 300 commits forked from the first commit,
+    //    branchA merges lines 0-3, branchB merges lines 4-7
+    @Test
+    public void testFrontierIsFetchedInParallel() throws IOException {
+        var linesCount = 8;
+        var lineSize = 300;
+        var commits = new ArrayList<GitCommit>();
+        commits.add(commit(1));
+        for (int line = 0; line < linesCount; line++) {
+            for (int i = 0; i < lineSize; i++) {
+                var number = 10 + i * linesCount + line;
+                commits.add(commit(number, i == 0 ? 1 : number - linesCount));
+            }
+        }
+        var lineHead = 10 + (lineSize - 1) * linesCount;
+        var mergeA = lineHead + 2 * linesCount;
+        commits.add(commit(mergeA, lineHead, lineHead + 1, lineHead + 2, lineHead + 3));
+        commits.add(commit(mergeA + 1, lineHead + 4, lineHead + 5, lineHead + 6, lineHead + 7));
+
+        var client = new ConcurrencyCountingClient();
+        client.addCommits(commits);
+        client.setBranch("branchA", sha(mergeA));
+        client.setBranch("branchB", sha(mergeA + 1));
+        var result = new GithubLastCommonCommitsFinder(client).findLastCommonCommits("branchA", "branchB");
+
+        Assert.assertEquals(Set.of(sha(1)), Set.copyOf(result));
+        Assert.assertTrue("parallel requests: " + client.maxConcurrentRequests, client.maxConcurrentRequests >= linesCount / 2);
+    }
+
+    //    main: 5 000 commits, every 50th is a merge, feature: forked 3 000 commits ago
+    //    both heads move by a few commits between polls
+    @Test
+    public void testAdvancedHeadsAreCheckedIncrementally() throws IOException {
+        var mainSize = 5_000;
+        var commits = new ArrayList<GitCommit>();
+        commits.add(commit(1));
+        for (int i = 2; i <= mainSize; i++) {
+            commits.add(i % 50 == 0 ? commit(i, i - 1, i - 10) : commit(i, i - 1));
+        }
+        var feature = 100_000;
+        commits.add(commit(feature, mainSize - 3_000));
+        commits.add(commit(feature + 1, feature));
+
+        var client = new InMemoryGitClient();
+        client.addCommits(commits);
+        client.setBranch("main", sha(mainSize));
+        client.setBranch("feature", sha(feature + 1));
+        var finder = new GithubLastCommonCommitsFinder(client);
+        Assert.assertEquals(Set.of(sha(mainSize - 3_000)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+
+        var mainHead = mainSize;
+        var featureHead = feature + 1;
+        for (int poll = 0; poll < 5; poll++) {
+            client.addCommits(List.of(commit(mainHead + 1, mainHead), commit(mainHead + 2, mainHead + 1),
+                    commit(featureHead + 1, featureHead)));
+            mainHead += 2;
+            featureHead++;
+            client.setBranch("main", sha(mainHead));
+            client.setBranch("feature", sha(featureHead));
+
+            var historyRequests = client.getHistoryRequestsCount();
+            Assert.assertEquals(Set.of(sha(mainSize - 3_000)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+            Assert.assertTrue("history requests: " + (client.getHistoryRequestsCount() - historyRequests),
+                    client.getHistoryRequestsCount() - historyRequests <= 2);
+        }
+
+        //feature merges main: the last result doesn't hold anymore
+        client.addCommits(List.of(commit(featureHead + 1, featureHead, mainHead)));
+        client.setBranch("feature", sha(featureHead + 1));
+        Assert.assertEquals(Set.of(sha(mainHead)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+
+        //main is fast-forwarded to feature: the old main head was the last common commit
+        client.setBranch("main", sha(featureHead + 1));
+        Assert.assertEquals(Set.of(sha(featureHead + 1)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+        client.addCommits(List.of(commit(featureHead + 2, featureHead + 1)));
+        client.setBranch("main", sha(featureHead + 2));
+        Assert.assertEquals(Set.of(sha(featureHead + 1)), Set.copyOf(finder.findLastCommonCommits("main", "feature")));
+    }
+
+    //    main: 3 000 commits, feature: 100 commits forked from main 2 000 commits ago,
+    //    8 threads ask the same finder at once
+    @Test
+    public void testConcurrentQueriesRequestEachHistoryOnce() throws Exception {
+        var mainSize = 3_000;
+        var commits = new ArrayList<GitCommit>(linearHistory(mainSize));
+        var feature = mainSize + 1;
+        commits.add(commit(feature, mainSize - 2_000));
+        for (int i = 1; i < 100; i++) {
+            commits.add(commit(feature + i, feature + i - 1));
+        }
+
+        var client = new ConcurrencyCountingClient();
+        client.addCommits(commits);
+        client.setBranch("main", sha(mainSize));
+        client.setBranch("feature", sha(feature + 99));
+        var finder = new GithubLastCommonCommitsFinder(client);
+
+        var threadsCount = 8;
+        var executor = Executors.newFixedThreadPool(threadsCount);
+        try {
+            var start = new CountDownLatch(1);
+            var results = new ArrayList<Future<Collection<String>>>();
+            for (int i = 0; i < threadsCount; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return finder.findLastCommonCommits("main", "feature");
+                }));
+            }
+            start.countDown();
+            for (var result : results) {
+                Assert.assertEquals(Set.of(sha(mainSize - 2_000)), Set.copyOf(result.get()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        client.requestsBySha.forEach((commitSha, count) ->
+                Assert.assertEquals("requests of " + commitSha, 1, count.get()));
+    }
+
+    //    feature head merges two forks of main, 8 threads ask the same finder at once:
+    //    history of the merge head is requested once for all of them
+    @Test
+    public void testConcurrentQueriesShareMergeHeadRequest() throws Exception {
+        var mainSize = 1_000;
+        var commits = new ArrayList<GitCommit>(linearHistory(mainSize));
+        var fork = mainSize + 1;
+        commits.add(commit(fork, 500));
+        commits.add(commit(fork + 1, 600));
+        commits.add(commit(fork + 2, fork, fork + 1));
+
+        var client = new ConcurrencyCountingClient();
+        client.addCommits(commits);
+        client.setBranch("main", sha(mainSize));
+        client.setBranch("feature", sha(fork + 2));
+        var finder = new GithubLastCommonCommitsFinder(client);
+
+        var threadsCount = 8;
+        var executor = Executors.newFixedThreadPool(threadsCount);
+        try {
+            var start = new CountDownLatch(1);
+            var results = new ArrayList<Future<Collection<String>>>();
+            for (int i = 0; i < threadsCount; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return finder.findLastCommonCommits("main", "feature");
+                }));
+            }
+            start.countDown();
+            for (var result : results) {
+                Assert.assertEquals(Set.of(sha(600)), Set.copyOf(result.get()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1, client.requestsBySha.get(sha(fork + 2)).get());
+        client.requestsBySha.forEach((commitSha, count) ->
+                Assert.assertEquals("requests of " + commitSha, 1, count.get()));
+    }
+
+    private static Map<Integer, int[]> randomHistory(Random random, int size) {
+        var parents = new HashMap<Integer, int[]>();
+        parents.put(1, new int[0]);
+        for (int i = 2; i <= size; i++) {
+            if (random.nextInt(30) == 0) {
+                parents.put(i, new int[0]);
+            } else if (random.nextInt(5) == 0) {
+                var first = i - 1 - random.nextInt(Math.min(i - 1, 20));
+                var second = 1 + random.nextInt(i - 1);
+                parents.put(i, first == second ? new int[]{first} : new int[]{first, second});
+            } else {
+                parents.put(i, new int[]{i - 1 - random.nextInt(Math.min(i - 1, 5))});
+            }
+        }
+        return parents;
+    }
+
+    private static List<GitCommit> toCommits(Map<Integer, int[]> parents) {
+        var commits = new ArrayList<GitCommit>();
+        parents.forEach((number, commitParents) -> commits.add(commit(number, commitParents)));
+        return commits;
+    }
+
+    private static Set<String> lastCommonCommits(Map<Integer, int[]> parents, int branchA, int branchB) {
+        var common = reachable(parents, branchA);
+        common.retainAll(reachable(parents, branchB));
+
+        var result = new HashSet<String>();
+        for (var commit : common) {
+            var isLast = common.stream()
+                    .noneMatch(other -> other.intValue() != commit && reachable(parents, other).contains(commit));
+            if (isLast) {
+                result.add(sha(commit));
+            }
+        }
+        return result;
+    }
+
+    private static Set<Integer> reachable(Map<Integer, int[]> parents, int commit) {
+        var reachable = new HashSet<Integer>();
+        var stack = new ArrayDeque<Integer>();
+        stack.push(commit);
+        while (!stack.isEmpty()) {
+            var current = stack.pop();
+            if (reachable.add(current)) {
+                for (var parent : parents.get(current)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private static class ConcurrencyCountingClient extends InMemoryGitClient {
+
+        private final AtomicInteger concurrentRequests = new AtomicInteger();
+        private final Map<String, AtomicInteger> requestsBySha = new ConcurrentHashMap<>();
+        private volatile int maxConcurrentRequests;
+
+        @Override
+        public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+            requestsBySha.computeIfAbsent(commitSHA, sha -> new AtomicInteger()).incrementAndGet();
+            var concurrent = concurrentRequests.incrementAndGet();
+            synchronized (this) {
+                maxConcurrentRequests = Math.max(maxConcurrentRequests, concurrent);
+            }
+            try {
+                //network latency
+                Thread.sleep(20);
+                return super.getCommitHistory(commitSHA, countOfCommits);
+            } catch (InterruptedException e) {
+                throw new GitCommunicationException("Interrupted");
+            } finally {
+                concurrentRequests.decrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package ru.sailor;
+
+import ru.sailor.data.GitCommit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builders of synthetic commit histories for tests, commit number is its sha and its time in minutes.
+ */
+public final class TestHistory {
+
+    private TestHistory() {
+    }
+
+    public static String sha(int number) {
+        return String.format("%040x", number);
+    }
+
+    public static GitCommit commit(int number, int... parents) {
+        var parentCommits = new ArrayList<GitCommit>();
+        for (var parent : parents) {
+            parentCommits.add(GitCommit.builder().sha(sha(parent)).parents(Collections.emptyList()).build());
+        }
+        return GitCommit.builder()
+                .sha(sha(number))
+                .timestamp(LocalDateTime.of(2021, 1, 1, 0, 0).plusMinutes(number))
+                .parents(parentCommits)
+                .build();
+    }
+
+    /**
+     * @return commits 1..size where every commit is a child of the previous one
+     */
+    public static List<GitCommit> linearHistory(int size) {
+        var history = new ArrayList<GitCommit>();
+        history.add(commit(1));
+        for (int i = 2; i <= size; i++) {
+            history.add(commit(i, i - 1));
+        }
+        return history;
+    }
+
+}
@@ -0,0 +1,147 @@
+package ru.sailor.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sailor.client.FakeGithubServer;
+import ru.sailor.factory.LastCommonCommitsFinderFactoryImpl;
+import ru.sailor.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * Batch CLI tests against a local fake GitHub.
+ */
+public class BatchMergeBaseLocalTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private FakeGithubServer server;
+    private LastCommonCommitsFinderFactoryImpl factory;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        server.addCommits(linearHistory(1_000));
+        server.addCommits(List.of(commit(1_001, 500), commit(1_002, 1_001), commit(1_003, 700)));
+        server.setBranch("main", sha(1_000));
+        server.setBranch("feature", sha(1_002));
+        server.setBranch("fix", sha(1_003));
+        factory = new LastCommonCommitsFinderFactoryImpl(server.getApiUrl(), null, Metrics.NOOP);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testResultsOfAllLines() throws IOException {
+        var input = String.join("\n",
+                "# nightly report",
+                "owner/repo main feature",
+                "",
+                "owner/another main fix",
+                "owner/repo feature fix",
+                "owner/another fix main");
+        var results = run(input, 2);
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(sha(500), results.get(2).path("mergeBases").get(0).asText());
+        Assert.assertEquals("owner/repo", results.get(2).path("repo").asText());
+        Assert.assertEquals(sha(700), results.get(4).path("mergeBases").get(0).asText());
+        Assert.assertEquals(sha(500), results.get(5).path("mergeBases").get(0).asText());
+        Assert.assertEquals(sha(700), results.get(6).path("mergeBases").get(0).asText());
+    }
+
+    @Test
+    public void testFailedQueriesAreReported() throws IOException {
+        var input = String.join("\n",
+                "owner/repo main",
+                "owner/repo main invalidBranch",
+                "owner/repo main feature");
+        var output = new StringWriter();
+        var failedCount = new BatchMergeBase(factory, "token", 1).run(new BufferedReader(new StringReader(input)), output);
+        var results = parse(output.toString());
+
+        Assert.assertEquals(2, failedCount);
+        Assert.assertTrue(results.get(1).has("error"));
+        Assert.assertTrue(results.get(2).has("error"));
+        Assert.assertEquals(sha(500), results.get(3).path("mergeBases").get(0).asText());
+    }
+
+    @Test
+    public void testManyQueriesOfOneRepositoryShareCache() throws IOException {
+        var input = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            input.append("owner/repo main ").append(i % 2 == 0 ? "feature" : "fix").append('\n');
+        }
+        var results = run(input.toString(), 4);
+
+        Assert.assertEquals(200, results.size());
+        for (var result : results.values()) {
+            Assert.assertFalse(result.has("error"));
+        }
+        //every query checks the heads, the history is fetched once at most
+        Assert.assertTrue(server.getRequestsCount("commits") <= 10);
+    }
+
+    @Test
+    public void testResultsAreWrittenWhileReading() throws IOException {
+        var output = new StringWriter();
+        //input ends only after the first result is written
+        var input = new BufferedReader(new StringReader("")) {
+            private boolean isFirstLine = true;
+
+            @Override
+            public String readLine() {
+                if (isFirstLine) {
+                    isFirstLine = false;
+                    return "owner/repo main feature";
+                }
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (output.getBuffer().length() == 0 && System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+                Assert.assertTrue(output.getBuffer().length() > 0);
+                return null;
+            }
+        };
+
+        Assert.assertEquals(0, new BatchMergeBase(factory, "token", 2).run(input, output));
+        Assert.assertEquals(sha(500), parse(output.toString()).get(1).path("mergeBases").get(0).asText());
+    }
+
+    private Map<Integer, JsonNode> run(String input, int concurrency) throws IOException {
+        var output = new StringWriter();
+        var failedCount = new BatchMergeBase(factory, "token", concurrency)
+                .run(new BufferedReader(new StringReader(input)), output);
+        Assert.assertEquals(0, failedCount);
+        return parse(output.toString());
+    }
+
+    private static Map<Integer, JsonNode> parse(String output) throws IOException {
+        var results = new HashMap<Integer, JsonNode>();
+        for (var line : output.split("\n")) {
+            var result = mapper.readTree(line);
+            results.put(result.path("line").asInt(), result);
+        }
+        return results;
+    }
+
+}
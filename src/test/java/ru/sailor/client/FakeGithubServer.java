@@ -0,0 +1,415 @@
+package ru.sailor.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.sailor.data.GitCommit;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local GitHub REST and GraphQL API for tests, serves an in-memory repository.
+ */
+public class FakeGithubServer implements AutoCloseable {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int MAX_COMPARE_COMMITS = 250;
+    private static final int DEFAULT_RATE_LIMIT = 5_000;
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+    private final HttpServer server;
+    private final Map<String, GitCommit> commits = new ConcurrentHashMap<>();
+    private final Map<String, String> branches = new ConcurrentHashMap<>();
+    private final AtomicInteger requestsCount = new AtomicInteger();
+    private final Map<String, AtomicInteger> requestsByEndpoint = new ConcurrentHashMap<>();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+    //rate limit windows by Authorization header, "" for anonymous requests
+    private final Map<String, RateLimitWindow> rateLimits = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requestsByToken = new ConcurrentHashMap<>();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+    private volatile int rateLimit = DEFAULT_RATE_LIMIT;
+    private volatile long windowMillis = Duration.ofHours(1).toMillis();
+    private volatile int requestsToReject;
+    private volatile long retryAfterSeconds;
+    private volatile long latencyMillis;
+
+    public FakeGithubServer() throws IOException {
+        tokens.add("token");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/graphql", this::handleGraphQL);
+        server.createContext("/repos/", this::handleRest);
+        server.start();
+    }
+
+    public URI getGraphQLUrl() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/graphql");
+    }
+
+    /**
+     * @return url to create {@link GithubClient} with
+     */
+    public String getApiUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/repos";
+    }
+
+    public void addCommits(List<GitCommit> history) {
+        history.forEach(commit -> commits.put(commit.getSha(), commit));
+    }
+
+    public void setBranch(String name, String sha) {
+        branches.put(name, sha);
+    }
+
+    public int getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * @return count of REST requests made with the token
+     */
+    public int getRequestsCountByToken(String token) {
+        var count = requestsByToken.get("Bearer " + token);
+        return count == null ? 0 : count.get();
+    }
+
+    public int getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * @param endpoint one of graphql, repo, branches, commits, compare
+     */
+    public int getRequestsCount(String endpoint) {
+        var count = requestsByEndpoint.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return count of requests rejected by the rate limit
+     */
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Accepts one more token in REST requests, each token has its own rate limit.
+     */
+    public void addToken(String token) {
+        tokens.add(token);
+    }
+
+    /**
+     * Sets the rate limit of every token for REST requests, reset after each window.
+     */
+    public void setRateLimit(int limit, Duration window) {
+        rateLimit = limit;
+        windowMillis = window.toMillis();
+        rateLimits.clear();
+    }
+
+    /**
+     * Answers the next REST requests with 429 Too Many Requests, like the secondary rate limit does.
+     */
+    public void rejectNextRequests(int count, long retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        requestsToReject = count;
+    }
+
+    /**
+     * Delays every REST response, like a remote GitHub does.
+     */
+    public void setLatency(Duration latency) {
+        latencyMillis = latency.toMillis();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handleGraphQL(HttpExchange exchange) throws IOException {
+        count("graphql");
+        var request = mapper.readTree(exchange.getRequestBody());
+        var variables = request.path("variables");
+
+        if (!exchange.getRequestHeaders().getFirst("Authorization").equals("Bearer token")) {
+            send(exchange, 401, Map.of("message", "Bad credentials"));
+            return;
+        }
+
+        var repository = new LinkedHashMap<String, Object>();
+        if (variables.has("branch")) {
+            var branch = variables.path("branch").asText().substring("refs/heads/".length());
+            var sha = branches.get(branch);
+            repository.put("ref", sha == null ? null : Map.of("name", branch, "target", toGraphQL(commits.get(sha))));
+        } else {
+            repository.put("object", commits.containsKey(variables.path("sha").asText()) ? history(variables) : null);
+        }
+
+        var data = new LinkedHashMap<String, Object>();
+        data.put("repository", repository);
+        send(exchange, 200, Map.of("data", data));
+    }
+
+    private void handleRest(HttpExchange exchange) throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        var authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && !tokens.contains(authorization.substring("Bearer ".length()))) {
+            count("repo");
+            send(exchange, 401, Map.of("message", "Bad credentials"));
+            return;
+        }
+        if (!checkRateLimit(exchange, authorization == null ? "" : authorization)) {
+            return;
+        }
+
+        //repos/{owner}/{repo}/{endpoint}/{argument}
+        var path = exchange.getRequestURI().getPath().split("/", 6);
+        var endpoint = path.length > 4 ? path[4] : "repo";
+        var argument = path.length > 5 ? path[5] : "";
+        var query = parseQuery(exchange.getRequestURI().getRawQuery());
+        count(endpoint);
+
+        switch (endpoint) {
+            case "repo":
+                sendWithETag(exchange, Map.of("id", 1));
+                break;
+            case "branches":
+                var sha = branches.get(argument);
+                if (sha == null) {
+                    send(exchange, 404, Map.of("message", "Branch not found"));
+                } else {
+                    sendWithETag(exchange, Map.of("name", argument, "commit", toRest(commits.get(sha))));
+                }
+                break;
+            case "commits":
+                if (!commits.containsKey(query.get("sha"))) {
+                    send(exchange, 404, Map.of("message", "Not Found"));
+                    break;
+                }
+                var perPage = Integer.parseInt(query.get("per_page"));
+                var page = Integer.parseInt(query.get("page"));
+                var ordered = reachableNewestFirst(query.get("sha"));
+                var from = Math.min(ordered.size(), (page - 1) * perPage);
+                var result = new ArrayList<Map<String, Object>>();
+                for (var commit : ordered.subList(from, Math.min(ordered.size(), from + perPage))) {
+                    result.add(toRest(commit));
+                }
+                sendWithETag(exchange, result);
+                break;
+            case "compare":
+                var refs = argument.split("\\.\\.\\.");
+                var base = resolve(refs[0]);
+                var head = resolve(refs[1]);
+                if (base == null || head == null) {
+                    send(exchange, 404, Map.of("message", "Not Found"));
+                    break;
+                }
+                sendWithETag(exchange, compare(base, head));
+                break;
+            default:
+                send(exchange, 404, Map.of("message", "Not Found"));
+        }
+    }
+
+    /**
+     * Counts the request against the rate limit of the token and adds X-RateLimit-* headers.
+     *
+     * @return false if the request was rejected
+     */
+    private boolean checkRateLimit(HttpExchange exchange, String authorization) throws IOException {
+        requestsByToken.computeIfAbsent(authorization, key -> new AtomicInteger()).incrementAndGet();
+        synchronized (this) {
+            if (requestsToReject > 0) {
+                requestsToReject--;
+                rejectedCount.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+                send(exchange, 429, Map.of("message", "You have exceeded a secondary rate limit."));
+                return false;
+            }
+        }
+
+        var now = System.currentTimeMillis();
+        var window = rateLimits.compute(authorization, (key, current) ->
+                current == null || current.resetAt <= now ? new RateLimitWindow(now + windowMillis) : current);
+        int used;
+        synchronized (window) {
+            used = window.used < rateLimit ? ++window.used : rateLimit + 1;
+        }
+        var headers = exchange.getResponseHeaders();
+        headers.add("X-RateLimit-Limit", String.valueOf(rateLimit));
+        headers.add("X-RateLimit-Remaining", String.valueOf(Math.max(0, rateLimit - used)));
+        //epoch seconds, rounded up to not announce the reset before it happens
+        headers.add("X-RateLimit-Reset", String.valueOf((window.resetAt + 999) / 1000));
+        if (used > rateLimit) {
+            rejectedCount.incrementAndGet();
+            send(exchange, 403, Map.of("message", "API rate limit exceeded for user."));
+            return false;
+        }
+        return true;
+    }
+
+    private Map<String, Object> compare(String base, String head) {
+        var baseAncestors = new HashSet<String>();
+        reachableNewestFirst(base).forEach(commit -> baseAncestors.add(commit.getSha()));
+        var headOnly = new ArrayList<GitCommit>();
+        GitCommit mergeBase = null;
+        for (var commit : reachableNewestFirst(head)) {
+            if (!baseAncestors.contains(commit.getSha())) {
+                headOnly.add(commit);
+            } else if (mergeBase == null) {
+                mergeBase = commit;
+            }
+        }
+
+        var response = new LinkedHashMap<String, Object>();
+        if (mergeBase == null) {
+            response.put("message", "No common ancestor between " + base + " and " + head + ".");
+            return response;
+        }
+        Collections.reverse(headOnly);
+        var listed = new ArrayList<Map<String, Object>>();
+        for (var commit : headOnly.subList(0, Math.min(headOnly.size(), MAX_COMPARE_COMMITS))) {
+            listed.add(toRest(commit));
+        }
+        response.put("merge_base_commit", toRest(mergeBase));
+        response.put("total_commits", headOnly.size());
+        response.put("commits", listed);
+        return response;
+    }
+
+    private String resolve(String ref) {
+        if (branches.containsKey(ref)) {
+            return branches.get(ref);
+        }
+        return commits.containsKey(ref) ? ref : null;
+    }
+
+    private void count(String endpoint) {
+        requestsCount.incrementAndGet();
+        requestsByEndpoint.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        var result = new HashMap<String, String>();
+        if (query == null) {
+            return result;
+        }
+        for (var parameter : query.split("&")) {
+            var pair = parameter.split("=", 2);
+            result.put(pair[0], pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+        }
+        return result;
+    }
+
+    private static Map<String, Object> toRest(GitCommit commit) {
+        var parents = new ArrayList<Map<String, String>>();
+        commit.getParents().forEach(parent -> parents.add(Map.of("sha", parent.getSha())));
+        return Map.of(
+                "sha", commit.getSha(),
+                "commit", Map.of("author", Map.of("date", commit.getTimestamp().format(formatter))),
+                "parents", parents
+        );
+    }
+
+    private Map<String, Object> history(JsonNode variables) {
+        var ordered = reachableNewestFirst(variables.path("sha").asText());
+        var from = variables.path("after").isNull() ? 0 : Integer.parseInt(variables.path("after").asText());
+        var to = Math.min(ordered.size(), from + variables.path("first").asInt());
+
+        var nodes = new ArrayList<Map<String, Object>>();
+        for (var commit : ordered.subList(from, to)) {
+            nodes.add(toGraphQL(commit));
+        }
+        var pageInfo = Map.of("hasNextPage", to < ordered.size(), "endCursor", String.valueOf(to));
+        return Map.of("history", Map.of("pageInfo", pageInfo, "nodes", nodes));
+    }
+
+    public List<GitCommit> reachableNewestFirst(String sha) {
+        var result = new ArrayList<GitCommit>();
+        var queue = new PriorityQueue<GitCommit>(Comparator.comparing(GitCommit::getTimestamp).reversed());
+        var visited = new HashSet<String>();
+        queue.add(commits.get(sha));
+        visited.add(sha);
+        while (!queue.isEmpty()) {
+            var commit = queue.poll();
+            result.add(commit);
+            for (var parent : commit.getParents()) {
+                if (visited.add(parent.getSha()) && commits.containsKey(parent.getSha())) {
+                    queue.add(commits.get(parent.getSha()));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Object> toGraphQL(GitCommit commit) {
+        var parents = new ArrayList<Map<String, String>>();
+        commit.getParents().forEach(parent -> parents.add(Map.of("oid", parent.getSha())));
+        return Map.of(
+                "oid", commit.getSha(),
+                "committedDate", commit.getTimestamp().format(formatter),
+                "parents", Map.of("nodes", parents)
+        );
+    }
+
+    /**
+     * Sends 304 Not Modified, if the client has the same response.
+     */
+    private void sendWithETag(HttpExchange exchange, Object body) throws IOException {
+        var eTag = "\"" + Integer.toHexString(mapper.writeValueAsString(body).hashCode()) + "\"";
+        exchange.getResponseHeaders().add("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedCount.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        send(exchange, 200, body);
+    }
+
+    private static class RateLimitWindow {
+
+        private final long resetAt;
+        private int used;
+
+        RateLimitWindow(long resetAt) {
+            this.resetAt = resetAt;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, Object body) throws IOException {
+        var bytes = mapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+}
@@ -0,0 +1,145 @@
+package ru.sailor.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.exceptions.InvalidAuthTokenException;
+import ru.sailor.metrics.InMemoryMetrics;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * GithubClient tests against a local fake GitHub, they don't depend on network and rate limits.
+ */
+public class GithubClientLocalTest {
+
+    private FakeGithubServer server;
+    private GithubClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        server.addCommits(linearHistory(1_000));
+        server.setBranch("main", sha(1_000));
+        client = new GithubClient(server.getApiUrl(), "owner", "repo", "token");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testGetCommitHistory() throws GitCommunicationException {
+        var history = client.getCommitHistory(sha(500), 300);
+
+        Assert.assertEquals(300, history.size());
+        Assert.assertEquals(commit(500, 499), history.get(0));
+        Assert.assertEquals(sha(201), history.get(299).getSha());
+        Assert.assertEquals(3, server.getRequestsCount("commits"));
+    }
+
+    @Test
+    public void testLastPageIsNotShifted() throws GitCommunicationException {
+        var history = client.getCommitHistory(sha(500), 250);
+
+        Assert.assertEquals(250, history.size());
+        for (int i = 0; i < history.size(); i++) {
+            Assert.assertEquals(sha(500 - i), history.get(i).getSha());
+        }
+    }
+
+    @Test
+    public void testPageOfKnownCommitsStopsHistory() throws GitCommunicationException {
+        var known = Set.copyOf(linearHistory(300).stream().map(GitCommit::getSha).collect(Collectors.toList()));
+        var history = client.getCommitHistory(sha(1_000), 1_000, known::contains);
+
+        Assert.assertEquals(700, history.size());
+        Assert.assertEquals(sha(301), history.get(699).getSha());
+        //two parallel waves of pages, the last one ends with the page of known commits
+        Assert.assertEquals(8, server.getRequestsCount("commits"));
+    }
+
+    @Test
+    public void testGetBranchInfo() throws GitCommunicationException {
+        Assert.assertEquals(commit(1_000, 999), client.getBranchInfo("main").getLastCommit());
+    }
+
+    @Test
+    public void testRepeatedRequestsAreConditional() throws GitCommunicationException {
+        client.getBranchInfo("main");
+        client.getCommitHistory(sha(500), 100);
+        var branch = client.getBranchInfo("main");
+        var history = client.getCommitHistory(sha(500), 100);
+
+        Assert.assertEquals(commit(1_000, 999), branch.getLastCommit());
+        Assert.assertEquals(100, history.size());
+        //pages of commits don't change, they are not cached
+        Assert.assertEquals(2, server.getNotModifiedCount());
+        Assert.assertEquals(2, client.getResponseCache().getHitsCount());
+        Assert.assertEquals(2, client.getResponseCache().getMissesCount());
+        Assert.assertEquals(2, client.getResponseCache().size());
+    }
+
+    @Test
+    public void testChangedResponseIsNotServedFromCache() throws GitCommunicationException {
+        client.getBranchInfo("main");
+        server.setBranch("main", sha(999));
+
+        Assert.assertEquals(sha(999), client.getBranchInfo("main").getLastCommit().getSha());
+    }
+
+    @Test
+    public void testCacheSizeIsBounded() throws GitCommunicationException {
+        var boundedClient = new GithubClient(server.getApiUrl(), "owner", "repo", "token", new HttpResponseCache(1_000));
+        for (int i = 1; i <= 10; i++) {
+            server.setBranch("branch" + i, sha(i));
+            boundedClient.getBranchInfo("branch" + i);
+        }
+
+        var cache = boundedClient.getResponseCache();
+        Assert.assertTrue(cache.getBytes() <= 1_000);
+        Assert.assertTrue(cache.size() > 1 && cache.size() < 10);
+    }
+
+    @Test
+    public void testMetrics() throws GitCommunicationException {
+        var metrics = new InMemoryMetrics();
+        client = new GithubClient(server.getApiUrl(), "owner", "repo", "token", new HttpResponseCache(), metrics);
+        client.getBranchInfo("main");
+        client.getCommitHistory(sha(500), 300);
+        client.getBranchInfo("main");
+
+        Assert.assertEquals(2, metrics.getRequestsCount("repo"));
+        Assert.assertEquals(2, metrics.getRequestsCount("branches"));
+        Assert.assertEquals(3, metrics.getRequestsCount("commits"));
+        Assert.assertEquals(2, metrics.getRequestsCountByStatus(304));
+        Assert.assertEquals(7, metrics.getLatencyMillis().getCount());
+        //304 response has no body
+        Assert.assertEquals(2, metrics.getBytesRead().getBucketCount(0));
+        Assert.assertTrue(metrics.getBytesRead().getSum() > 300 * 40);
+        Assert.assertEquals(5_000 - 7, metrics.getRateLimitRemaining());
+        Assert.assertTrue(metrics.scrape().contains("last_common_commits_http_requests_total{endpoint=\"commits\"} 3\n"));
+    }
+
+    @Test(expected = DataNotFoundException.class)
+    public void testInvalidBranch() throws GitCommunicationException {
+        client.getBranchInfo("invalidBranch");
+    }
+
+    @Test(expected = InvalidAuthTokenException.class)
+    public void testInvalidAuthToken() throws GitCommunicationException {
+        new GithubClient(server.getApiUrl(), "owner", "repo", "invalidToken").getBranchInfo("main");
+    }
+
+}
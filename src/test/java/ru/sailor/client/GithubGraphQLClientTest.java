@@ -0,0 +1,95 @@
+package ru.sailor.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.exceptions.InvalidAuthTokenException;
+import ru.sailor.exceptions.InvalidCommitCountException;
+
+import java.io.IOException;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+public class GithubGraphQLClientTest {
+
+    private FakeGithubServer server;
+    private GithubGraphQLClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        server.addCommits(linearHistory(1_000));
+        server.setBranch("main", sha(1_000));
+        client = new GithubGraphQLClient("owner", "repo", "token", server.getGraphQLUrl());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testGetOneCommit() throws GitCommunicationException {
+        var history = client.getCommitHistory(sha(10), 1);
+
+        Assert.assertEquals(1, history.size());
+        Assert.assertEquals(commit(10, 9), history.get(0));
+    }
+
+    @Test
+    public void testPagesByCursor() throws GitCommunicationException {
+        var history = client.getCommitHistory(sha(1_000), 250);
+
+        Assert.assertEquals(250, history.size());
+        Assert.assertEquals(sha(751), history.get(249).getSha());
+        Assert.assertEquals(3, server.getRequestsCount());
+    }
+
+    @Test
+    public void testHistoryEndsOnFirstCommit() throws GitCommunicationException {
+        var history = client.getCommitHistory(sha(150), 1_000);
+
+        Assert.assertEquals(150, history.size());
+        Assert.assertTrue(history.get(149).getParents().isEmpty());
+        Assert.assertEquals(2, server.getRequestsCount());
+    }
+
+    @Test
+    public void testGetBranchInfo() throws GitCommunicationException {
+        var branch = client.getBranchInfo("main");
+
+        Assert.assertEquals("main", branch.getName());
+        Assert.assertEquals(commit(1_000, 999), branch.getLastCommit());
+    }
+
+    @Test(expected = DataNotFoundException.class)
+    public void testInvalidBranch() throws GitCommunicationException {
+        client.getBranchInfo("invalidBranch");
+    }
+
+    @Test(expected = DataNotFoundException.class)
+    public void testUnknownCommit() throws GitCommunicationException {
+        client.getCommitHistory(sha(1_001), 1);
+    }
+
+    @Test(expected = DataNotFoundException.class)
+    public void testInvalidCommitHash() throws GitCommunicationException {
+        client.getCommitHistory("invalidCommitHash", 1);
+    }
+
+    @Test(expected = InvalidCommitCountException.class)
+    public void testInvalidCommitCount() throws GitCommunicationException {
+        client.getCommitHistory(sha(10), -100);
+    }
+
+    @Test(expected = InvalidAuthTokenException.class)
+    public void testInvalidAuthToken() throws GitCommunicationException {
+        new GithubGraphQLClient("owner", "repo", "invalidToken", server.getGraphQLUrl()).getBranchInfo("main");
+    }
+
+}
@@ -0,0 +1,144 @@
+package ru.sailor.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.exceptions.InvalidAuthTokenException;
+import ru.sailor.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * GithubHttp2Client tests against a local fake GitHub, it speaks HTTP/1.1 only, so the client falls back to it.
+ */
+public class GithubHttp2ClientLocalTest {
+
+    private FakeGithubServer server;
+    private GithubHttp2Client client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        server.addCommits(linearHistory(1_000));
+        server.setBranch("main", sha(1_000));
+        client = client("token");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testGetCommitHistory() throws GitCommunicationException {
+        var history = client.getCommitHistory(sha(500), 250);
+
+        Assert.assertEquals(250, history.size());
+        for (int i = 0; i < history.size(); i++) {
+            Assert.assertEquals(sha(500 - i), history.get(i).getSha());
+        }
+        Assert.assertEquals(3, server.getRequestsCount("commits"));
+    }
+
+    @Test
+    public void testPageOfKnownCommitsStopsHistory() throws GitCommunicationException {
+        var known = Set.copyOf(linearHistory(300).stream().map(GitCommit::getSha).collect(Collectors.toList()));
+        var history = client.getCommitHistory(sha(1_000), 1_000, known::contains);
+
+        Assert.assertEquals(700, history.size());
+        Assert.assertEquals(sha(301), history.get(699).getSha());
+        Assert.assertEquals(8, server.getRequestsCount("commits"));
+    }
+
+    @Test
+    public void testGetBranchInfoAsync() {
+        Assert.assertEquals(commit(1_000, 999), client.getBranchInfoAsync("main").join().getLastCommit());
+    }
+
+    @Test
+    public void testCompareAsync() {
+        server.addCommits(List.of(commit(1_001, 500), commit(1_002, 1_001)));
+        server.setBranch("feature", sha(1_002));
+
+        var comparison = client.compareAsync("main", "feature").join();
+
+        Assert.assertEquals(sha(500), comparison.getMergeBase().getSha());
+        Assert.assertEquals(2, comparison.getHeadCommits().size());
+    }
+
+    @Test
+    public void testRepeatedRequestsAreConditional() throws GitCommunicationException {
+        client.getBranchInfo("main");
+        var branch = client.getBranchInfo("main");
+
+        Assert.assertEquals(commit(1_000, 999), branch.getLastCommit());
+        Assert.assertEquals(1, server.getNotModifiedCount());
+    }
+
+    @Test
+    public void testRateLimitedRequestIsRepeated() throws GitCommunicationException {
+        server.rejectNextRequests(1, 1);
+
+        Assert.assertEquals(commit(1_000, 999), client.getBranchInfo("main").getLastCommit());
+        Assert.assertEquals(1, server.getRejectedCount());
+    }
+
+    @Test
+    public void testConcurrentRequests() {
+        var futures = new ArrayList<CompletableFuture<List<GitCommit>>>();
+        for (int i = 1; i <= 100; i++) {
+            futures.add(client.getCommitHistoryAsync(sha(i * 10), 10, sha -> false));
+        }
+
+        for (int i = 1; i <= 100; i++) {
+            Assert.assertEquals(sha(i * 10), futures.get(i - 1).join().get(0).getSha());
+        }
+    }
+
+    @Test(expected = DataNotFoundException.class)
+    public void testInvalidBranch() throws GitCommunicationException {
+        client.getBranchInfo("invalidBranch");
+    }
+
+    @Test
+    public void testInvalidAuthTokenAsync() {
+        try {
+            client("invalidToken").getBranchInfoAsync("main").join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidAuthTokenException);
+        }
+    }
+
+    @Test
+    public void testUnknownErrorKeepsCause() {
+        server.close();
+        try {
+            client.getBranchInfoAsync("main").join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof GitCommunicationException);
+            Assert.assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+    }
+
+    private GithubHttp2Client client(String token) {
+        return new GithubHttp2Client(server.getApiUrl(), "owner", "repo", RateLimitScheduler.forToken(token),
+                new HttpResponseCache(), Metrics.NOOP);
+    }
+
+}
@@ -0,0 +1,110 @@
+package ru.sailor.client;
+
+import ru.sailor.data.GitBranch;
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.DataNotFoundException;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.exceptions.InvalidCommitCountException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GitClient over a repository kept in memory. Answers like GitHub REST API does
+ * and counts requests, so it is handy for tests and for measuring how many HTTP calls a query would cost.
+ * Latency of a real network could be simulated with {@link #setLatency(Duration)}.
+ */
+public class InMemoryGitClient implements GitClient {
+
+    private final Map<String, GitCommit> commits = new ConcurrentHashMap<>();
+    private final Map<String, String> branches = new ConcurrentHashMap<>();
+    private final AtomicLong historyRequestsCount = new AtomicLong();
+    private final AtomicLong branchRequestsCount = new AtomicLong();
+    private volatile Duration latency = Duration.ZERO;
+
+    public void addCommits(Collection<GitCommit> newCommits) {
+        newCommits.forEach(commit -> commits.put(commit.getSha(), commit));
+    }
+
+    public void setBranch(String branchName, String commitSHA) {
+        branches.put(branchName, commitSHA);
+    }
+
+    /**
+     * @param latency time every request waits before the answer
+     */
+    public void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    public long getHistoryRequestsCount() {
+        return historyRequestsCount.get();
+    }
+
+    public long getBranchRequestsCount() {
+        return branchRequestsCount.get();
+    }
+
+    @Override
+    public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) throws GitCommunicationException {
+        historyRequestsCount.incrementAndGet();
+        simulateLatency();
+        if (countOfCommits < 0) {
+            throw new InvalidCommitCountException("Count of commits should be > 0, " + countOfCommits + " < 0");
+        }
+        var start = commits.get(commitSHA);
+        if (start == null) {
+            throw new DataNotFoundException("Commit " + commitSHA + " not found");
+        }
+
+        var commitHistory = new ArrayList<GitCommit>();
+        var queue = new PriorityQueue<GitCommit>((c1, c2) -> c2.getTimestamp().compareTo(c1.getTimestamp()));
+        var visited = new HashSet<String>();
+        queue.add(start);
+        visited.add(commitSHA);
+        while (!queue.isEmpty() && commitHistory.size() < countOfCommits) {
+            var commit = queue.poll();
+            commitHistory.add(commit);
+            for (var parent : commit.getParents()) {
+                if (visited.add(parent.getSha()) && commits.containsKey(parent.getSha())) {
+                    queue.add(commits.get(parent.getSha()));
+                }
+            }
+        }
+        return commitHistory;
+    }
+
+    @Override
+    public GitBranch getBranchInfo(String branchName) throws GitCommunicationException {
+        branchRequestsCount.incrementAndGet();
+        simulateLatency();
+        var commitSHA = branches.get(branchName);
+        if (commitSHA == null) {
+            throw new DataNotFoundException("Branch not found. Invalid branch name " + branchName);
+        }
+        return GitBranch.builder()
+                .name(branchName)
+                .lastCommit(commits.get(commitSHA))
+                .build();
+    }
+
+    private void simulateLatency() throws GitCommunicationException {
+        if (latency.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(latency.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitCommunicationException("Interrupted while waiting for response");
+        }
+    }
+
+}
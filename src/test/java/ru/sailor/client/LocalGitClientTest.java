@@ -0,0 +1,226 @@
+package ru.sailor.client;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.sailor.GithubLastCommonCommitsFinder;
+import ru.sailor.data.GitCommit;
+import ru.sailor.exceptions.DataNotFoundException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests over real repositories created by git command line, skipped if git is not installed.
+ */
+public class LocalGitClientTest {
+
+    private static final long START_TIME = 1_600_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path repository;
+    private int commitsCount;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        Assume.assumeTrue("git is not installed", isGitInstalled());
+        repository = folder.newFolder("repo").toPath();
+        git("init", "-q", "-b", "main");
+    }
+
+    @Test
+    public void testLooseObjects() throws IOException, InterruptedException {
+        var sha1 = commit("first");
+        var sha2 = commit("second");
+        git("checkout", "-q", "-b", "feature", sha1);
+        var sha3 = commit("third");
+        commitsCount++;
+        git("merge", "-q", "--no-edit", "main");
+        var sha4 = git("rev-parse", "HEAD");
+
+        var client = LocalGitClient.open(repository);
+        var head = client.getBranchInfo("feature").getLastCommit();
+        Assert.assertEquals(sha4, head.getSha());
+        Assert.assertEquals(List.of(sha3, sha2), parentShas(head));
+        Assert.assertEquals(LocalDateTime.ofEpochSecond(START_TIME + 4, 0, ZoneOffset.UTC), head.getTimestamp());
+
+        var history = client.getCommitHistory(sha4, 10);
+        Assert.assertEquals(List.of(sha4, sha3, sha2, sha1), history.stream().map(GitCommit::getSha).collect(Collectors.toList()));
+        Assert.assertEquals(List.of(sha4, sha3), client.getCommitHistory(sha4, 2).stream()
+                .map(GitCommit::getSha).collect(Collectors.toList()));
+        Assert.assertEquals(List.of(), parentShas(history.get(3)));
+    }
+
+    @Test
+    public void testPackedObjectsAndRefs() throws IOException, InterruptedException {
+        var expected = randomHistory(200, new Random(14));
+        //window and depth make git store commits with similar messages as deltas
+        git("repack", "-a", "-d", "-f", "-q", "--window=250", "--depth=50");
+        git("pack-refs", "--all");
+        Assert.assertTrue("some commits should be deltified", countDeltifiedCommits() > 0);
+
+        var client = LocalGitClient.open(repository);
+        for (var entry : expected.entrySet()) {
+            var history = client.getCommitHistory(entry.getKey(), 1);
+            Assert.assertEquals(entry.getValue(), parentShas(history.get(0)));
+        }
+        for (var branch : List.of("main", "b0", "b1", "b2")) {
+            Assert.assertEquals(git("rev-parse", branch), client.getBranchInfo(branch).getLastCommit().getSha());
+        }
+    }
+
+    @Test
+    public void testObjectsAddedAfterOpening() throws IOException, InterruptedException {
+        commit("first");
+        git("gc", "-q");
+        var client = LocalGitClient.open(repository);
+
+        var sha2 = commit("second");
+        Assert.assertEquals(sha2, client.getBranchInfo("main").getLastCommit().getSha());
+        git("repack", "-q");
+        var sha3 = commit("third");
+        git("repack", "-q");
+        Assert.assertEquals(3, client.getCommitHistory(sha3, 10).size());
+    }
+
+    @Test
+    public void testFinderAgreesWithGitMergeBase() throws IOException, InterruptedException {
+        randomHistory(300, new Random(42));
+        git("gc", "-q");
+
+        var finder = new GithubLastCommonCommitsFinder(LocalGitClient.open(repository));
+        var branches = List.of("main", "b0", "b1", "b2");
+        for (var branchA : branches) {
+            for (var branchB : branches) {
+                var mergeBases = Set.copyOf(Arrays.asList(git("merge-base", "--all", branchA, branchB).split("\n")));
+                Assert.assertEquals(branchA + " " + branchB, mergeBases,
+                        Set.copyOf(finder.findLastCommonCommits(branchA, branchB)));
+            }
+        }
+    }
+
+    @Test
+    public void testMissingData() throws IOException, InterruptedException {
+        var sha = commit("first");
+        var client = LocalGitClient.open(repository);
+
+        Assert.assertThrows(DataNotFoundException.class, () -> client.getBranchInfo("unknown"));
+        Assert.assertThrows(DataNotFoundException.class, () -> client.getBranchInfo("../../etc/passwd"));
+        Assert.assertThrows(DataNotFoundException.class, () -> client.getCommitHistory("0".repeat(40), 1));
+        Assert.assertThrows(DataNotFoundException.class, () -> client.getCommitHistory("not a sha", 1));
+        Assert.assertEquals(sha, client.getBranchInfo("HEAD").getLastCommit().getSha());
+        Assert.assertEquals(sha, LocalGitClient.open(repository.resolve(".git")).getBranchInfo("main").getLastCommit().getSha());
+    }
+
+    /**
+     * Creates history with branches main, b0, b1, b2 merging into each other at random.
+     *
+     * @return parents of every created commit
+     */
+    private Map<String, List<String>> randomHistory(int count, Random random) throws IOException, InterruptedException {
+        var parents = new HashMap<String, List<String>>();
+        var branches = List.of("main", "b0", "b1", "b2");
+        var root = commit("root");
+        parents.put(root, List.of());
+        for (var branch : branches.subList(1, branches.size())) {
+            git("branch", branch);
+        }
+        for (int i = 0; i < count; i++) {
+            var branch = branches.get(random.nextInt(branches.size()));
+            var commitParents = new ArrayList<String>();
+            commitParents.add(git("rev-parse", branch));
+            if (random.nextInt(4) == 0) {
+                var other = git("rev-parse", branches.get(random.nextInt(branches.size())));
+                if (git("merge-base", commitParents.get(0), other).equals(other)) {
+                    continue;
+                }
+                commitParents.add(other);
+            }
+            var sha = commitTree(commitParents);
+            git("update-ref", "refs/heads/" + branch, sha);
+            parents.put(sha, commitParents);
+        }
+        return parents;
+    }
+
+    private String commit(String message) throws IOException, InterruptedException {
+        commitsCount++;
+        git("commit", "-q", "--allow-empty", "-m", message);
+        return git("rev-parse", "HEAD");
+    }
+
+    private String commitTree(List<String> parents) throws IOException, InterruptedException {
+        commitsCount++;
+        var command = new ArrayList<>(List.of("commit-tree", "HEAD^{tree}", "-m",
+                "Long enough message to be stored as a delta against a similar commit " + commitsCount));
+        for (var parent : parents) {
+            command.add("-p");
+            command.add(parent);
+        }
+        return git(command.toArray(new String[0]));
+    }
+
+    private int countDeltifiedCommits() throws IOException, InterruptedException {
+        var pack = git("rev-parse", "--git-path", "objects/pack");
+        var count = 0;
+        for (var file : repository.resolve(pack).toFile().listFiles((dir, name) -> name.endsWith(".idx"))) {
+            for (var line : git("verify-pack", "-v", file.getPath()).split("\n")) {
+                var columns = line.split("\\s+");
+                //deltified objects have depth and base sha columns
+                if (columns.length == 7 && columns[1].equals("commit")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private String git(String... args) throws IOException, InterruptedException {
+        var command = new ArrayList<>(List.of("git", "-c", "user.name=test", "-c", "user.email=test@test",
+                "-c", "gc.auto=0", "-c", "commit.gpgsign=false"));
+        command.addAll(List.of(args));
+        var processBuilder = new ProcessBuilder(command)
+                .directory(repository.toFile())
+                .redirectErrorStream(true);
+        //every commit is one second newer than the previous one
+        var time = (START_TIME + commitsCount) + " +0300";
+        processBuilder.environment().put("GIT_AUTHOR_DATE", time);
+        processBuilder.environment().put("GIT_COMMITTER_DATE", time);
+        var process = processBuilder.start();
+        process.getOutputStream().close();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).strip();
+        if (process.waitFor() != 0) {
+            throw new IOException("git " + String.join(" ", args) + " failed: " + output);
+        }
+        return output;
+    }
+
+    private static List<String> parentShas(GitCommit commit) {
+        return commit.getParents().stream().map(GitCommit::getSha).collect(Collectors.toList());
+    }
+
+    private static boolean isGitInstalled() throws InterruptedException {
+        try {
+            return new ProcessBuilder("git", "--version").start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+}
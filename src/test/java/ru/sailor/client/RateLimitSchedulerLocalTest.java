@@ -0,0 +1,115 @@
+package ru.sailor.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sailor.exceptions.ApiRateLimitException;
+import ru.sailor.exceptions.GitCommunicationException;
+import ru.sailor.metrics.Metrics;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * Rate limit scheduler tests against a local fake GitHub with small rate limits.
+ */
+public class RateLimitSchedulerLocalTest {
+
+    private FakeGithubServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        server.addCommits(linearHistory(100));
+        server.addToken("second");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testRequestsAreSpreadOverTokens() throws GitCommunicationException {
+        server.setRateLimit(3, Duration.ofHours(1));
+        var scheduler = new RateLimitScheduler(List.of("token", "second"));
+        var client = client(scheduler);
+
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(100, client.getCommitHistory(sha(100), 100).size());
+        }
+
+        Assert.assertEquals(3, server.getRequestsCountByToken("token"));
+        Assert.assertEquals(3, server.getRequestsCountByToken("second"));
+        Assert.assertEquals(0, server.getRejectedCount());
+        Assert.assertEquals(List.of(0L, 0L), scheduler.getRemaining());
+    }
+
+    @Test(expected = ApiRateLimitException.class)
+    public void testExhaustedTokensFailWhenResetIsTooFar() throws GitCommunicationException {
+        server.setRateLimit(1, Duration.ofHours(1));
+        var client = client(new RateLimitScheduler(List.of("token", "second"), Duration.ofSeconds(1)));
+
+        for (int i = 0; i < 3; i++) {
+            client.getCommitHistory(sha(100), 100);
+        }
+    }
+
+    @Test
+    public void testRequestWaitsForReset() throws GitCommunicationException {
+        server.setRateLimit(2, Duration.ofSeconds(1));
+        var client = client(new RateLimitScheduler(List.of("token")));
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(100, client.getCommitHistory(sha(100), 100).size());
+        }
+
+        Assert.assertEquals(0, server.getRejectedCount());
+        Assert.assertEquals(5, server.getRequestsCountByToken("token"));
+    }
+
+    @Test
+    public void testRetryAfterIsRespected() throws GitCommunicationException {
+        server.rejectNextRequests(2, 1);
+        var client = client(new RateLimitScheduler(List.of("token")));
+
+        var startTime = System.currentTimeMillis();
+        Assert.assertEquals(100, client.getCommitHistory(sha(100), 100).size());
+
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 2_000);
+        Assert.assertEquals(2, server.getRejectedCount());
+        Assert.assertEquals(3, server.getRequestsCountByToken("token"));
+    }
+
+    @Test(expected = ApiRateLimitException.class)
+    public void testTooLongRetryAfterFails() throws GitCommunicationException {
+        server.rejectNextRequests(1, 120);
+        client(new RateLimitScheduler(List.of("token"))).getCommitHistory(sha(100), 100);
+    }
+
+    @Test
+    public void testLowBudgetIsPaced() throws GitCommunicationException {
+        var scheduler = new RateLimitScheduler(List.of("token"));
+        var lease = scheduler.acquire();
+        //5 of 100 requests left for at least 1.5 seconds
+        var reset = System.currentTimeMillis() / 1000 + 2;
+        Assert.assertFalse(scheduler.onResponse(lease, 200, 5L, 100L, reset, null));
+
+        var startTime = System.currentTimeMillis();
+        scheduler.acquire();
+        scheduler.acquire();
+
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 300);
+        Assert.assertEquals(List.of(3L), scheduler.getRemaining());
+    }
+
+    private GithubClient client(RateLimitScheduler scheduler) {
+        return new GithubClient(server.getApiUrl(), "owner", "repo", scheduler, new HttpResponseCache(), Metrics.NOOP);
+    }
+
+}
@@ -0,0 +1,165 @@
+package ru.sailor.converter;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.sailor.data.GitCommit;
+import ru.sailor.data.GithubCommit;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static ru.sailor.TestHistory.sha;
+
+public class GithubCommitsStreamDecoderTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int PAGE_SIZE = 100;
+    private static final int ITERATIONS = 200;
+
+    @Test
+    public void testDecodesShaParentsAndDate() throws IOException {
+        var page = GithubCommitsStreamDecoder.decode(stream(commitsPage(PAGE_SIZE)));
+
+        Assert.assertNull(page.getErrorMessage());
+        Assert.assertEquals(databindDecode(commitsPage(PAGE_SIZE)), page.getCommits());
+
+        var merge = page.getCommits().get(0);
+        Assert.assertEquals(sha(PAGE_SIZE), merge.getSha());
+        Assert.assertEquals(LocalDateTime.of(2021, 4, 9, 17, 45, 39).plusMinutes(PAGE_SIZE), merge.getTimestamp());
+        Assert.assertEquals(List.of(sha(PAGE_SIZE - 1), sha(1_000_000)),
+                merge.getParents().stream().map(GitCommit::getSha).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDecodesErrorMessage() throws IOException {
+        var page = GithubCommitsStreamDecoder.decode(stream("{\"message\":\"Bad credentials\"," +
+                "\"documentation_url\":\"https://docs.github.com/rest\"}"));
+
+        Assert.assertEquals("Bad credentials", page.getErrorMessage());
+        Assert.assertTrue(page.getCommits().isEmpty());
+    }
+
+    @Test
+    public void testParsesDates() throws IOException {
+        for (var date : List.of("1970-01-01T00:00:00Z", "2000-02-29T23:59:59Z", "2021-12-31T12:00:01Z", "1969-07-20T20:17:40Z")) {
+            var expected = LocalDateTime.parse(date.substring(0, date.length() - 1))
+                    .toEpochSecond(java.time.ZoneOffset.UTC);
+            Assert.assertEquals(date, expected, GithubCommitsStreamDecoder.parseEpochSecond(date.toCharArray(), 0,
+                    date.length()));
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidDates() {
+        for (var date : List.of("", "2021-12-31", "2021-12-31T12:00:01+03:00", "2021-1a-31T12:00:01Z", "2021/12/31T12:00:01Z",
+                "2021-13-01T12:00:01Z", "2021-00-01T12:00:01Z", "2021-02-29T12:00:01Z", "2021-04-31T12:00:01Z",
+                "2021-12-31T24:00:01Z", "2021-12-31T12:60:01Z", "2021-12-31T12:00:60Z")) {
+            Assert.assertThrows(date, IOException.class,
+                    () -> GithubCommitsStreamDecoder.parseEpochSecond(date.toCharArray(), 0, date.length()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsNotStringDate() throws IOException {
+        GithubCommitsStreamDecoder.decode(stream("[{\"sha\":\"1\",\"commit\":{\"author\":{\"date\":1640952001}}}]"));
+    }
+
+    /**
+     * Before: body read to a String and bound to {@link GithubCommit} with the whole "commit" object as a map.
+     * After: fields streamed from the body bytes.
+     */
+    @Test
+    public void testAllocatesLessThanDatabind() throws IOException {
+        var body = commitsPage(PAGE_SIZE);
+
+        var databindBytes = allocatedBytesPerPage(() -> databindDecode(body));
+        var streamingBytes = allocatedBytesPerPage(() -> GithubCommitsStreamDecoder.decode(stream(body)).getCommits());
+        Assert.assertTrue("Bytes allocated per " + PAGE_SIZE + " commits page: databind " + databindBytes +
+                ", streaming " + streamingBytes, streamingBytes * 2 < databindBytes);
+    }
+
+    private interface PageDecoder {
+        List<GitCommit> decode() throws IOException;
+    }
+
+    private static long allocatedBytesPerPage(PageDecoder decoder) throws IOException {
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        //warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            decoder.decode();
+        }
+
+        var before = threadBean.getThreadAllocatedBytes(threadId);
+        var decodedCount = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            decodedCount += decoder.decode().size();
+        }
+        var allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertEquals(PAGE_SIZE * ITERATIONS, decodedCount);
+        return allocated / ITERATIONS;
+    }
+
+    private static List<GitCommit> databindDecode(byte[] body) throws IOException {
+        var responseBody = IOUtils.toString(stream(body), StandardCharsets.UTF_8.name());
+        List<GithubCommit> commits = mapper.readValue(responseBody, new TypeReference<ArrayList<GithubCommit>>() {});
+        return commits.stream().map(GithubCommitToGitCommitConverter::toGit).collect(Collectors.toList());
+    }
+
+    private static ByteArrayInputStream stream(byte[] body) {
+        return new ByteArrayInputStream(body);
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return stream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Page in the format of GET /repos/{owner}/{repo}/commits, newest first, the newest commit is a merge.
+     */
+    private static byte[] commitsPage(int size) {
+        var page = new StringBuilder("[");
+        for (int number = size; number >= 1; number--) {
+            var date = LocalDateTime.of(2021, 4, 9, 17, 45, 39).plusMinutes(number) + "Z";
+            var parents = new ArrayList<String>();
+            if (number > 1) {
+                parents.add(sha(number - 1));
+            }
+            if (number == size) {
+                parents.add(sha(1_000_000));
+            }
+            page.append(commitJson(sha(number), date, parents)).append(number > 1 ? "," : "");
+        }
+        return page.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String commitJson(String sha, String date, List<String> parents) {
+        var url = "https://api.github.com/repos/owner/repo/commits/" + sha;
+        var user = "{\"login\":\"octocat\",\"id\":1,\"node_id\":\"MDQ6VXNlcjE=\"," +
+                "\"avatar_url\":\"https://github.com/images/error/octocat_happy.gif\",\"gravatar_id\":\"\"," +
+                "\"url\":\"https://api.github.com/users/octocat\",\"html_url\":\"https://github.com/octocat\"," +
+                "\"type\":\"User\",\"site_admin\":false}";
+        var signature = "{\"name\":\"Monalisa Octocat\",\"email\":\"support@github.com\",\"date\":\"" + date + "\"}";
+        return "{\"sha\":\"" + sha + "\",\"node_id\":\"MDY6Q29tbWl0NmRjYjA5YjViNTc4NzVmMzM0ZjYxYWViZWQ2OTVlMmU0MTkzZGI1ZQ==\"," +
+                "\"commit\":{\"author\":" + signature + ",\"committer\":" + signature + "," +
+                "\"message\":\"Fix all the bugs\",\"tree\":{\"sha\":\"" + sha + "\",\"url\":\"" + url + "\"}," +
+                "\"url\":\"" + url + "\",\"comment_count\":0," +
+                "\"verification\":{\"verified\":false,\"reason\":\"unsigned\",\"signature\":null,\"payload\":null}}," +
+                "\"url\":\"" + url + "\",\"html_url\":\"https://github.com/owner/repo/commit/" + sha + "\"," +
+                "\"comments_url\":\"" + url + "/comments\",\"author\":" + user + ",\"committer\":" + user + "," +
+                "\"parents\":[" + parents.stream()
+                .map(parent -> "{\"sha\":\"" + parent + "\",\"url\":\"https://api.github.com/repos/owner/repo/commits/" +
+                        parent + "\",\"html_url\":\"https://github.com/owner/repo/commit/" + parent + "\"}")
+                .collect(Collectors.joining(",")) + "]}";
+    }
+
+}
@@ -1,9 +1,27 @@
 package ru.sailor.factory;
 
+import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.sailor.cli.WarmUp;
+import ru.sailor.client.FakeGithubServer;
+import ru.sailor.client.GithubClient;
+import ru.sailor.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
 
 public class LastCommonCommitsFinderFactoryImplTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testNoValidation() {
         var factory = new LastCommonCommitsFinderFactoryImpl();
@@ -22,4 +40,75 @@ public class LastCommonCommitsFinderFactoryImplTest {
         factory.create("invalidOwner", " ", "invalidToken");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSharedCommitStore() throws IOException {
+        try (var server = new FakeGithubServer();
+             var factory = new LastCommonCommitsFinderFactoryImpl(server.getApiUrl(), folder.getRoot().toPath(),
+                     Metrics.NOOP)) {
+            server.addCommits(linearHistory(1_000));
+            server.addCommits(List.of(commit(1_001, 500)));
+            server.setBranch("main", sha(1_000));
+            server.setBranch("feature", sha(1_001));
+
+            try (var finder = factory.create("owner", "repo", "token")) {
+                var result = finder.findLastCommonCommits("main", List.of("feature"));
+                Assert.assertEquals(Set.of(sha(500)), Set.copyOf(result.get("feature")));
+            }
+            var commitsRequestsCount = server.getRequestsCount("commits");
+            Assert.assertTrue(commitsRequestsCount > 0);
+
+            //a fork starts with commits saved by the first finder, only the heads are requested
+            try (var finder = factory.create("owner", "anotherRepo", "token")) {
+                var result = finder.findLastCommonCommits("main", List.of("feature"));
+                Assert.assertEquals(Set.of(sha(500)), Set.copyOf(result.get("feature")));
+            }
+            Assert.assertEquals(commitsRequestsCount, server.getRequestsCount("commits"));
+        }
+    }
+
+    @Test
+    public void testFindersShareConnections() throws IOException {
+        try (var server = new FakeGithubServer();
+             var factory = new LastCommonCommitsFinderFactoryImpl(server.getApiUrl(), null, Metrics.NOOP)) {
+            server.addCommits(linearHistory(100));
+            server.addCommits(List.of(commit(101, 50)));
+            server.setBranch("main", sha(100));
+            server.setBranch("feature", sha(101));
+
+            var first = factory.create("owner", "repo", "token");
+            Assert.assertEquals(Set.of(sha(50)), Set.copyOf(first.findLastCommonCommits("main", "feature")));
+            //closing a finder leaves shared connections open
+            first.close();
+            try (var second = factory.create("owner", "anotherRepo", "token")) {
+                Assert.assertEquals(Set.of(sha(50)), Set.copyOf(second.findLastCommonCommits("feature", "main")));
+            }
+
+            var stats = factory.getConnectionPoolStats();
+            Assert.assertEquals(0, stats.getLeased());
+            Assert.assertEquals(1, stats.getAvailable());
+        }
+    }
+
+    @Test
+    public void testFindersStartWithSnapshot() throws IOException {
+        try (var server = new FakeGithubServer()) {
+            server.addCommits(linearHistory(1_000));
+            server.addCommits(List.of(commit(1_001, 500), commit(1_002, 1_001, 800)));
+            server.setBranch("main", sha(1_000));
+            server.setBranch("feature", sha(1_002));
+            var snapshots = folder.getRoot().toPath();
+            var client = new GithubClient(server.getApiUrl(), "owner", "repo", "token");
+            Assert.assertEquals(1_002, WarmUp.warmUp(client, LastCommonCommitsFinderFactoryImpl.getSnapshotPath(snapshots,
+                    "Owner", "Repo"), List.of("main", "feature")));
+            var commitsRequestsCount = server.getRequestsCount("commits");
+
+            try (var factory = new LastCommonCommitsFinderFactoryImpl(server.getApiUrl(), null, snapshots, Metrics.NOOP);
+                 var finder = factory.create("owner", "repo", "token")) {
+                var result = finder.findLastCommonCommits("main", List.of("feature"));
+                Assert.assertEquals(Set.of(sha(800)), Set.copyOf(result.get("feature")));
+            }
+            Assert.assertEquals(commitsRequestsCount, server.getRequestsCount("commits"));
+        }
+    }
+
+}
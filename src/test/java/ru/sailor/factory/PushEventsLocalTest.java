@@ -0,0 +1,159 @@
+package ru.sailor.factory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sailor.LastCommonCommitsFinder;
+import ru.sailor.client.FakeGithubServer;
+import ru.sailor.data.GitCommit;
+import ru.sailor.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * Replays recorded push event payloads into finders working against a local fake GitHub.
+ */
+public class PushEventsLocalTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private FakeGithubServer server;
+    private LastCommonCommitsFinderFactoryImpl factory;
+    private LastCommonCommitsFinder finder;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        server.addCommits(linearHistory(1_000));
+        server.addCommits(List.of(commit(1_001, 500), commit(1_002, 1_001)));
+        server.setBranch("main", sha(1_000));
+        server.setBranch("feature", sha(1_002));
+        factory = new LastCommonCommitsFinderFactoryImpl(server.getApiUrl(), null, Metrics.NOOP);
+        finder = factory.create("owner", "repo", "token");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        finder.close();
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testPushedCommitNeedsNoRequests() throws IOException {
+        push(List.of(commit(1_003, 1_002)), "feature", "push-feature.json");
+        Assert.assertEquals(Map.of("feature", Set.of(sha(500))), findLastCommonCommits());
+        //main was not pushed
+        Assert.assertEquals(1, server.getRequestsCount("branches"));
+    }
+
+    @Test
+    public void testHeadOfManyPushedCommitsIsRequested() throws IOException {
+        findLastCommonCommits();
+        push(List.of(commit(1_004, 1_000), commit(1_005, 1_004)), "main", "push-main.json");
+        var branchRequestsCount = server.getRequestsCount("branches");
+
+        Assert.assertEquals(Map.of("feature", Set.of(sha(500))), findLastCommonCommits());
+        Assert.assertEquals(branchRequestsCount + 2, server.getRequestsCount("branches"));
+    }
+
+    @Test
+    public void testPushedMergeOfNotPushedBranch() throws IOException {
+        findLastCommonCommits();
+        //topic branch from 1001 was merged into main locally, both commits are new to GitHub
+        push(List.of(commit(1_007, 1_001), commit(1_008, 1_000, 1_007)), "main", "push-main-merge.json");
+
+        //not 500 of a chain 1000 <- 1007 <- 1008
+        Assert.assertEquals(Map.of("feature", Set.of(sha(1_001))), findLastCommonCommits());
+    }
+
+    @Test
+    public void testPushToNewFinderOfRepository() throws IOException {
+        push(List.of(commit(1_003, 1_002)), "feature", "push-feature.json");
+        push(List.of(commit(1_004, 1_000), commit(1_005, 1_004)), "main", "push-main.json");
+
+        //names are case insensitive, like on GitHub
+        try (var anotherFinder = factory.create("Owner", "Repo", "token")) {
+            var result = anotherFinder.findLastCommonCommits("main", List.of("feature"));
+            Assert.assertEquals(Set.of(sha(500)), Set.copyOf(result.get("feature")));
+        }
+        //head of main pushed with two commits is requested
+        Assert.assertEquals(1, server.getRequestsCount("branches"));
+    }
+
+    @Test
+    public void testForcedPushHeadIsRequested() throws IOException {
+        findLastCommonCommits();
+        var payload = (ObjectNode) mapper.readTree(getClass().getResourceAsStream("/push-events/push-main.json"));
+        payload.put("forced", true);
+        server.addCommits(List.of(commit(1_004, 1_000), commit(1_005, 1_004)));
+        server.setBranch("main", sha(1_005));
+
+        Assert.assertTrue(factory.onPushEvent(mapper.writeValueAsBytes(payload)));
+        var branchRequestsCount = server.getRequestsCount("branches");
+
+        Assert.assertEquals(Map.of("feature", Set.of(sha(500))), findLastCommonCommits());
+        Assert.assertEquals(branchRequestsCount + 2, server.getRequestsCount("branches"));
+    }
+
+    @Test
+    public void testLateEventDoesNotMoveBranchBack() throws IOException {
+        push(List.of(commit(1_003, 1_002)), "feature", "push-feature.json");
+        //push of 1002 on top of 1001 delivered after the push of 1003
+        var payload = (ObjectNode) mapper.readTree(payload("push-feature.json"));
+        payload.put("before", sha(1_001));
+        payload.put("after", sha(1_002));
+        ((ObjectNode) payload.get("commits").get(0)).put("id", sha(1_002));
+
+        Assert.assertTrue(factory.onPushEvent(mapper.writeValueAsBytes(payload)));
+
+        Assert.assertEquals(Map.of("feature", Set.of(sha(500))), findLastCommonCommits());
+        //main was not pushed, feature is requested again instead of going back to 1002
+        Assert.assertEquals(2, server.getRequestsCount("branches"));
+    }
+
+    @Test
+    public void testTagPushIsIgnored() throws IOException {
+        Assert.assertFalse(factory.onPushEvent(payload("push-tag.json")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidPayload() throws IOException {
+        var payload = "{\"ref\": \"refs/heads/main\", \"after\": \"1\", " +
+                "\"repository\": {\"full_name\": \"owner/repo\"}, " +
+                "\"commits\": [{\"id\": \"1\", \"timestamp\": \"yesterday\"}]}";
+        factory.onPushEvent(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Pushes commits to the fake GitHub too, so they can be requested when the event doesn't tell their parents.
+     */
+    private void push(List<GitCommit> commits, String branch, String payload) throws IOException {
+        server.addCommits(commits);
+        server.setBranch(branch, commits.get(commits.size() - 1).getSha());
+        Assert.assertTrue(factory.onPushEvent(payload(payload)));
+    }
+
+    private Map<String, Set<String>> findLastCommonCommits() throws IOException {
+        var result = finder.findLastCommonCommits("main", List.of("feature"));
+        return Map.of("feature", Set.copyOf(result.get("feature")));
+    }
+
+    private byte[] payload(String name) throws IOException {
+        try (var stream = getClass().getResourceAsStream("/push-events/" + name)) {
+            return stream.readAllBytes();
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+package ru.sailor.graph;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.sailor.data.GitCommit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CommitGraphTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnknownSha() {
+        var graph = new CommitGraph();
+
+        Assert.assertEquals(CommitGraph.NO_COMMIT, graph.getId(sha(1)));
+        Assert.assertEquals(CommitGraph.NO_COMMIT, graph.getId("invalidSha"));
+    }
+
+    @Test
+    public void testParentIsNotLoaded() {
+        var graph = new CommitGraph();
+        var id = graph.add(commit(2, 1));
+
+        Assert.assertTrue(graph.isLoaded(id));
+        Assert.assertEquals(1, graph.getParentsCount(id));
+        var parent = graph.getParent(id, 0);
+        Assert.assertEquals(sha(1), graph.getSha(parent));
+        Assert.assertFalse(graph.isLoaded(parent));
+    }
+
+    @Test
+    public void testLoadPlaceholder() {
+        var graph = new CommitGraph();
+        var child = graph.add(commit(2, 1));
+        var parent = graph.add(commit(1));
+
+        Assert.assertEquals(parent, graph.getParent(child, 0));
+        Assert.assertTrue(graph.isLoaded(parent));
+        Assert.assertEquals(2, graph.size());
+    }
+
+    @Test
+    public void testManyCommits() {
+        var graph = new CommitGraph();
+        var commits = new ArrayList<GitCommit>();
+        for (int i = 1; i <= 100_000; i++) {
+            commits.add(commit(i, i - 1, i / 2));
+        }
+        graph.addAll(commits);
+
+        for (int i = 1; i <= 100_000; i++) {
+            var id = graph.getId(sha(i));
+            Assert.assertEquals(sha(i), graph.getSha(id));
+            Assert.assertEquals(timestamp(i), graph.getTimestamp(id));
+            Assert.assertEquals(sha(i - 1), graph.getSha(graph.getParent(id, 0)));
+            Assert.assertEquals(sha(i / 2), graph.getSha(graph.getParent(id, 1)));
+        }
+    }
+
+    @Test
+    public void testIntPriorityQueueOrder() {
+        var queue = new IntPriorityQueue((a, b) -> Integer.compare(b, a));
+        var values = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            values.add((i * 7919) % 1000);
+        }
+        values.forEach(queue::add);
+
+        for (int expected = 999; expected >= 0; expected--) {
+            Assert.assertEquals(expected, queue.poll());
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testGenerations() {
+        var graph = new CommitGraph();
+        //1 <- 2 <- 3 <- 5, 1 <- 4 <- 5, 6 <- 7, 8 is not loaded
+        graph.addAll(List.of(commit(5, 3, 4), commit(4, 1), commit(3, 2), commit(2, 1), commit(1),
+                commit(7, 6), commit(9, 8)));
+
+        var generations = graph.getGenerations();
+        Assert.assertEquals(1, generations.applyAsInt(graph.getId(sha(1))));
+        Assert.assertEquals(2, generations.applyAsInt(graph.getId(sha(4))));
+        Assert.assertEquals(3, generations.applyAsInt(graph.getId(sha(3))));
+        Assert.assertEquals(4, generations.applyAsInt(graph.getId(sha(5))));
+        Assert.assertEquals(CommitGraph.GENERATION_INFINITY, generations.applyAsInt(graph.getId(sha(7))));
+        Assert.assertEquals(CommitGraph.GENERATION_INFINITY, generations.applyAsInt(graph.getId(sha(9))));
+
+        //history of 7 is loaded
+        graph.add(commit(6));
+        generations = graph.getGenerations();
+        Assert.assertEquals(1, generations.applyAsInt(graph.getId(sha(6))));
+        Assert.assertEquals(2, generations.applyAsInt(graph.getId(sha(7))));
+        Assert.assertEquals(CommitGraph.GENERATION_INFINITY, generations.applyAsInt(graph.getId(sha(9))));
+    }
+
+    @Test
+    public void testGenerationsOfDeepHistory() {
+        var graph = new CommitGraph();
+        var commits = new ArrayList<GitCommit>();
+        for (int i = 100_000; i >= 1; i--) {
+            commits.add(i == 1 ? commit(i) : commit(i, i - 1));
+        }
+        graph.addAll(commits);
+
+        var generations = graph.getGenerations();
+        for (int i = 1; i <= 100_000; i++) {
+            Assert.assertEquals(i, generations.applyAsInt(graph.getId(sha(i))));
+        }
+    }
+
+    @Test
+    public void testGenerationQueueOrder() {
+        //generation is id % 100 + 1, ids of 1000 and above have infinite generation
+        var generations = new int[1000];
+        for (int id = 0; id < generations.length; id++) {
+            generations[id] = id % 100 + 1;
+        }
+        var queue = new GenerationQueue(
+                id -> id < generations.length ? generations[id] : CommitGraph.GENERATION_INFINITY,
+                (a, b) -> Integer.compare(b, a));
+        for (int i = 0; i < 1200; i++) {
+            queue.add((i * 7919) % 1200);
+        }
+
+        for (int expected = 1199; expected >= 1000; expected--) {
+            Assert.assertTrue(queue.hasInfiniteGenerations());
+            Assert.assertEquals(expected, queue.poll());
+        }
+        var lastGeneration = Integer.MAX_VALUE;
+        while (!queue.isEmpty()) {
+            Assert.assertFalse(queue.hasInfiniteGenerations());
+            var generation = queue.getGeneration(queue.poll());
+            Assert.assertTrue(generation <= lastGeneration);
+            lastGeneration = generation;
+        }
+        Assert.assertEquals(1, lastGeneration);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        var graph = new CommitGraph();
+        for (int i = 1; i <= 1_000; i++) {
+            graph.add(commit(i, i - 1));
+        }
+        //commits 900..1000 are visited by a later query
+        graph.nextAccessTick();
+        for (int i = 900; i <= 1_000; i++) {
+            graph.touch(graph.getId(sha(i)));
+        }
+        var pinned = graph.getId(sha(10));
+        var memoryBytes = graph.getMemoryBytes();
+
+        var newIds = graph.evict(EvictionPolicy.LEAST_RECENTLY_USED, memoryBytes / 5, pinned);
+
+        Assert.assertTrue(graph.getMemoryBytes() <= memoryBytes / 5);
+        Assert.assertEquals(1_000 - graph.getLoadedCount(), graph.getEvictedCount());
+        for (int i = 900; i <= 1_000; i++) {
+            var id = graph.getId(sha(i));
+            Assert.assertTrue(graph.isLoaded(id));
+            Assert.assertEquals(sha(i - 1), graph.getSha(graph.getParent(id, 0)));
+            Assert.assertEquals(timestamp(i), graph.getTimestamp(id));
+        }
+        Assert.assertTrue(graph.isLoaded(newIds[pinned]));
+        Assert.assertEquals(sha(10), graph.getSha(newIds[pinned]));
+        //parent of a kept commit is known, but its history should be loaded again
+        Assert.assertFalse(graph.isLoaded(graph.getId(sha(9))));
+        Assert.assertEquals(CommitGraph.NO_COMMIT, graph.getId(sha(500)));
+    }
+
+    @Test
+    public void testEvictedCommitIsLoadedAgain() {
+        var graph = new CommitGraph();
+        graph.add(commit(1));
+        for (int i = 2; i <= 100; i++) {
+            graph.add(commit(i, i - 1));
+        }
+        graph.evict(EvictionPolicy.LEAST_RECENTLY_USED, 0, graph.getId(sha(100)));
+        graph.add(commit(1));
+        for (int i = 2; i < 100; i++) {
+            graph.add(commit(i, i - 1));
+        }
+
+        Assert.assertEquals(100, graph.getLoadedCount());
+        var generations = graph.getGenerations();
+        Assert.assertEquals(100, generations.applyAsInt(graph.getId(sha(100))));
+        Assert.assertEquals(sha(99), graph.getSha(graph.getParent(graph.getId(sha(100)), 0)));
+    }
+
+    @Test
+    public void testEvictLeastFrequentlyUsed() {
+        var graph = new CommitGraph();
+        for (int i = 1; i <= 100; i++) {
+            graph.add(commit(i, i - 1));
+        }
+        //the first half is visited by every query, the second one only by the last query
+        for (int query = 0; query < 5; query++) {
+            graph.nextAccessTick();
+            for (int i = 1; i <= 50; i++) {
+                graph.touch(graph.getId(sha(i)));
+            }
+        }
+        graph.nextAccessTick();
+        for (int i = 51; i <= 100; i++) {
+            graph.touch(graph.getId(sha(i)));
+        }
+
+        graph.evict(EvictionPolicy.LEAST_FREQUENTLY_USED, graph.getMemoryBytes() / 2);
+
+        Assert.assertTrue(graph.isLoaded(graph.getId(sha(25))));
+        Assert.assertEquals(CommitGraph.NO_COMMIT, graph.getId(sha(75)));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        var graph = new CommitGraph();
+        graph.add(commit(1));
+        for (int i = 2; i <= 2_000; i++) {
+            graph.add(i % 10 == 0 ? commit(i, i - 1, i - 5) : commit(i, i - 1));
+        }
+        //only seen as a parent
+        graph.add(commit(3_000, 2_999));
+        var path = folder.getRoot().toPath().resolve("repo.graph");
+
+        graph.writeSnapshot(path);
+        var snapshot = CommitGraph.readSnapshot(path);
+
+        Assert.assertEquals(graph.size(), snapshot.size());
+        Assert.assertEquals(graph.getLoadedCount(), snapshot.getLoadedCount());
+        for (int i = 1; i <= 2_000; i++) {
+            var id = snapshot.getId(sha(i));
+            Assert.assertEquals(graph.getId(sha(i)), id);
+            Assert.assertEquals(graph.getGenerations().applyAsInt(id), snapshot.getGenerations().applyAsInt(id));
+            Assert.assertEquals(timestamp(i), snapshot.getTimestamp(id));
+            Assert.assertEquals(graph.getParentsCount(id), snapshot.getParentsCount(id));
+            for (int parent = 0; parent < snapshot.getParentsCount(id); parent++) {
+                Assert.assertEquals(graph.getParent(id, parent), snapshot.getParent(id, parent));
+            }
+        }
+        Assert.assertFalse(snapshot.isLoaded(snapshot.getId(sha(2_999))));
+        //loaded snapshot grows as usual
+        snapshot.add(commit(2_999, 2_000));
+        Assert.assertEquals(2_002, snapshot.getGenerations().applyAsInt(snapshot.getId(sha(3_000))));
+    }
+
+    @Test
+    public void testSnapshotAfterEviction() throws IOException {
+        var graph = new CommitGraph();
+        graph.add(commit(1));
+        for (int i = 2; i <= 1_000; i++) {
+            graph.add(commit(i, i - 1));
+        }
+        graph.evict(EvictionPolicy.LEAST_RECENTLY_USED, graph.getMemoryBytes() / 2, graph.getId(sha(1)));
+        graph.add(commit(2_000, 1_000, 1));
+        var path = folder.getRoot().toPath().resolve("repo.graph");
+
+        graph.writeSnapshot(path);
+        var snapshot = CommitGraph.readSnapshot(path);
+
+        Assert.assertEquals(graph.getLoadedCount(), snapshot.getLoadedCount());
+        var id = snapshot.getId(sha(2_000));
+        Assert.assertEquals(sha(1_000), snapshot.getSha(snapshot.getParent(id, 0)));
+        Assert.assertEquals(sha(1), snapshot.getSha(snapshot.getParent(id, 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDamagedSnapshot() throws IOException {
+        var graph = new CommitGraph();
+        for (int i = 1; i <= 100; i++) {
+            graph.add(commit(i, i - 1));
+        }
+        var path = folder.getRoot().toPath().resolve("repo.graph");
+        graph.writeSnapshot(path);
+        var bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+
+        CommitGraph.readSnapshot(path);
+    }
+
+    @Test(expected = IOException.class)
+    public void testSnapshotWithDamagedGenerations() throws IOException {
+        var graph = new CommitGraph();
+        graph.add(commit(1));
+        for (int i = 2; i <= 100; i++) {
+            graph.add(commit(i, i - 1));
+        }
+        var path = folder.getRoot().toPath().resolve("repo.graph");
+        graph.writeSnapshot(path);
+        //generations are written last, the last one is of commit 100
+        var bytes = Files.readAllBytes(path);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - Integer.BYTES, 0);
+        Files.write(path, bytes);
+
+        CommitGraph.readSnapshot(path);
+    }
+
+    private static GitCommit commit(int number, int... parents) {
+        List<GitCommit> parentCommits = new ArrayList<>();
+        for (var parent : parents) {
+            parentCommits.add(GitCommit.builder().sha(sha(parent)).parents(Collections.emptyList()).build());
+        }
+        return GitCommit.builder()
+                .sha(sha(number))
+                .timestamp(LocalDateTime.ofEpochSecond(timestamp(number), 0, ZoneOffset.UTC))
+                .parents(parentCommits)
+                .build();
+    }
+
+    private static long timestamp(int number) {
+        return 1_600_000_000L + number;
+    }
+
+    private static String sha(int number) {
+        return String.format("%040x", number);
+    }
+
+}
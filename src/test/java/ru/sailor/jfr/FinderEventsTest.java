@@ -0,0 +1,159 @@
+package ru.sailor.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.sailor.GithubLastCommonCommitsFinder;
+import ru.sailor.client.FakeGithubServer;
+import ru.sailor.client.GithubClient;
+import ru.sailor.exceptions.DataNotFoundException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * Records events of queries against a local fake GitHub and reads them back from the recording file.
+ */
+public class FinderEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeGithubServer server;
+    private GithubLastCommonCommitsFinder finder;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeGithubServer();
+        finder = new GithubLastCommonCommitsFinder(new GithubClient(server.getApiUrl(), "owner", "repo", "token"));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    //    criss-cross history on top of 300 commits
+    //    306 (branchA) -> 304 -> {302, 303}
+    //    307 (branchB) -> 305 -> {303, 302}
+    @Test
+    public void testTraversalEvents() throws IOException {
+        server.addCommits(linearHistory(300));
+        server.addCommits(List.of(commit(302, 300), commit(303, 300), commit(304, 302, 303), commit(305, 303, 302),
+                commit(306, 304), commit(307, 305)));
+        server.setBranch("branchA", sha(306));
+        server.setBranch("branchB", sha(307));
+
+        var events = record(() -> finder.findLastCommonCommits("branchA", "branchB"));
+
+        var queries = ofType(events, "ru.sailor.FinderQuery");
+        Assert.assertEquals(1, queries.size());
+        var query = queries.get(0);
+        Assert.assertEquals("branchA", query.getString("branchA"));
+        Assert.assertEquals("branchB", query.getString("branchB"));
+        Assert.assertEquals(FinderQueryEvent.TRAVERSAL, query.getString("method"));
+        Assert.assertFalse(query.getBoolean("failed"));
+        Assert.assertEquals(2, query.getInt("resultSize"));
+        Assert.assertEquals(finder.getPolledCommitsCount(), query.getLong("commitsVisited"));
+
+        var requests = ofType(events, "ru.sailor.HttpRequest");
+        Assert.assertEquals(server.getRequestsCount(), requests.size());
+        Assert.assertEquals(Set.of("repo", "branches", "compare", "commits"),
+                requests.stream().map(event -> event.getString("endpoint")).collect(Collectors.toSet()));
+        for (var request : requests) {
+            //repository info is requested for each branch, the second time it is not modified
+            var status = request.getInt("status");
+            Assert.assertTrue(status == 200 && request.getLong("bytesRead") > 0
+                    || status == 304 && request.getLong("bytesRead") == 0);
+            Assert.assertTrue(request.getStartTime().compareTo(query.getStartTime()) >= 0);
+            Assert.assertTrue(request.getEndTime().compareTo(query.getEndTime()) <= 0);
+        }
+        var pages = requests.stream()
+                .filter(event -> event.getString("endpoint").equals("commits"))
+                .map(event -> event.getInt("page"))
+                .collect(Collectors.toList());
+        Assert.assertFalse(pages.isEmpty());
+        Assert.assertTrue(pages.stream().allMatch(page -> page > 0));
+
+        var batches = ofType(events, "ru.sailor.CommitHistory");
+        Assert.assertEquals(pages.size(), batches.stream().mapToInt(event -> event.getInt("pagesCount")).sum());
+        for (var batch : batches) {
+            Assert.assertTrue(batch.getInt("receivedCount") <= batch.getInt("requestedCount"));
+        }
+    }
+
+    @Test
+    public void testCompareEvent() throws IOException {
+        server.addCommits(linearHistory(100));
+        server.addCommits(List.of(commit(101, 50), commit(102, 101)));
+        server.setBranch("main", sha(100));
+        server.setBranch("feature", sha(102));
+
+        var events = record(() -> finder.findLastCommonCommits("main", "feature"));
+
+        var queries = ofType(events, "ru.sailor.FinderQuery");
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals(FinderQueryEvent.COMPARE, queries.get(0).getString("method"));
+        Assert.assertEquals(0, queries.get(0).getLong("commitsVisited"));
+        Assert.assertEquals(List.of("compare"), ofType(events, "ru.sailor.HttpRequest").stream()
+                .map(event -> event.getString("endpoint")).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testFailedQueryEvent() throws IOException {
+        server.addCommits(linearHistory(100));
+        server.setBranch("main", sha(100));
+
+        var events = record(() -> {
+            try {
+                finder.findLastCommonCommits("main", "invalidBranch");
+                Assert.fail();
+            } catch (DataNotFoundException e) {
+                //recorded as failed
+            }
+        });
+
+        var queries = ofType(events, "ru.sailor.FinderQuery");
+        Assert.assertEquals(1, queries.size());
+        Assert.assertTrue(queries.get(0).getBoolean("failed"));
+        Assert.assertEquals("invalidBranch", queries.get(0).getString("branchB"));
+        Assert.assertNull(queries.get(0).getString("method"));
+    }
+
+    private List<RecordedEvent> record(Query query) throws IOException {
+        var file = folder.newFile("recording.jfr").toPath();
+        try (var recording = new Recording()) {
+            recording.enable(HttpRequestEvent.class);
+            recording.enable(CommitHistoryEvent.class);
+            recording.enable(FinderQueryEvent.class);
+            recording.start();
+            query.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+    }
+
+    private interface Query {
+        void run() throws IOException;
+    }
+
+}
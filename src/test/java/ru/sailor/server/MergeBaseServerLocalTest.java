@@ -0,0 +1,219 @@
+package ru.sailor.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sailor.client.FakeGithubServer;
+import ru.sailor.factory.LastCommonCommitsFinderFactoryImpl;
+import ru.sailor.metrics.Metrics;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static ru.sailor.TestHistory.commit;
+import static ru.sailor.TestHistory.linearHistory;
+import static ru.sailor.TestHistory.sha;
+
+/**
+ * Load tests of the merge-base service against a local fake GitHub.
+ */
+public class MergeBaseServerLocalTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private FakeGithubServer github;
+    private LastCommonCommitsFinderFactoryImpl factory;
+    private MergeBaseServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Before
+    public void setUp() throws IOException {
+        github = new FakeGithubServer();
+        github.addCommits(linearHistory(1_000));
+        github.addCommits(List.of(commit(1_001, 500), commit(1_002, 1_001)));
+        github.setBranch("main", sha(1_000));
+        github.setBranch("feature", sha(1_002));
+        factory = new LastCommonCommitsFinderFactoryImpl(github.getApiUrl(), null, Metrics.NOOP);
+        server = new MergeBaseServer(new InetSocketAddress("localhost", 0), factory, "token", 64);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        factory.close();
+        github.close();
+    }
+
+    @Test
+    public void testMergeBase() throws Exception {
+        var response = get("/merge-base/owner/repo?a=main&b=feature");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(List.of(sha(500)), mergeBases(response));
+    }
+
+    @Test
+    public void testIdenticalQueriesAreCoalesced() {
+        github.setLatency(Duration.ofMillis(200));
+
+        var responses = getConcurrently("/merge-base/owner/repo?a=main&b=feature", 50);
+
+        for (var response : responses) {
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertEquals(List.of(sha(500)), mergeBases(response));
+        }
+        Assert.assertEquals(50, server.getQueriesCount());
+        Assert.assertTrue(server.getCoalescedQueriesCount() > 0);
+        Assert.assertTrue(github.getRequestsCount() < 50);
+    }
+
+    @Test
+    public void testRepositoryFinderStaysWarm() throws Exception {
+        get("/merge-base/owner/repo?a=main&b=feature");
+        var requestsCount = github.getRequestsCount();
+
+        var responses = getConcurrently("/merge-base/owner/repo?a=feature&b=main", 100);
+
+        for (var response : responses) {
+            Assert.assertEquals(List.of(sha(500)), mergeBases(response));
+        }
+        //no commit history is requested again, only the heads are checked
+        Assert.assertEquals(0, github.getRequestsCount("commits"));
+        Assert.assertTrue(github.getRequestsCount() - requestsCount <= 2 * 100);
+    }
+
+    @Test
+    public void testMissingBranch() throws Exception {
+        Assert.assertEquals(400, get("/merge-base/owner/repo?a=main").statusCode());
+    }
+
+    @Test
+    public void testInvalidPath() throws Exception {
+        Assert.assertEquals(404, get("/merge-base/owner?a=main&b=feature").statusCode());
+    }
+
+    @Test
+    public void testUnknownBranch() throws Exception {
+        Assert.assertEquals(404, get("/merge-base/owner/repo?a=main&b=invalidBranch").statusCode());
+    }
+
+    @Test
+    public void testInvalidToken() throws Exception {
+        try (var anotherServer = new MergeBaseServer(new InetSocketAddress("localhost", 0), factory,
+                "invalidToken", 1)) {
+            anotherServer.start();
+            var response = client.send(request(anotherServer, "/merge-base/owner/repo?a=main&b=feature"),
+                    HttpResponse.BodyHandlers.ofString());
+
+            Assert.assertEquals(401, response.statusCode());
+        }
+    }
+
+    @Test
+    public void testOnlyGetIsSupported() throws Exception {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/merge-base/owner/repo"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+
+        Assert.assertEquals(405, client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @Test
+    public void testWebhookMovesBranch() throws Exception {
+        try (var webhookServer = new MergeBaseServer(new InetSocketAddress("localhost", 0), factory, "token", 4,
+                "secret")) {
+            webhookServer.start();
+            github.addCommits(List.of(commit(1_004, 1_000), commit(1_005, 1_004)));
+            github.setBranch("main", sha(1_005));
+            var payload = getClass().getResourceAsStream("/push-events/push-main.json").readAllBytes();
+
+            Assert.assertEquals(401, post(webhookServer, "push", payload, "sha256=" + "0".repeat(64)).statusCode());
+            Assert.assertEquals(202, post(webhookServer, "ping", "{}".getBytes(), sign("{}".getBytes())).statusCode());
+            Assert.assertEquals(200, post(webhookServer, "push", payload, sign(payload)).statusCode());
+
+            var response = client.send(request(webhookServer, "/merge-base/owner/repo?a=main&b=feature"),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(List.of(sha(500)), mergeBases(response));
+        }
+    }
+
+    @Test
+    public void testUnsignedEventIsRejected() throws Exception {
+        var payload = getClass().getResourceAsStream("/push-events/push-main.json").readAllBytes();
+        try (var webhookServer = new MergeBaseServer(new InetSocketAddress("localhost", 0), factory, "token", 4,
+                "secret")) {
+            webhookServer.start();
+
+            Assert.assertEquals(401, post(webhookServer, "push", payload, null).statusCode());
+        }
+        //without a secret events can't be checked, so they are not accepted at all
+        Assert.assertEquals(404, post(server, "push", payload, null).statusCode());
+    }
+
+    private HttpResponse<String> post(MergeBaseServer server, String event, byte[] payload,
+                                      String signature) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/webhook"))
+                .header("X-GitHub-Event", event)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload));
+        if (signature != null) {
+            request.header("X-Hub-Signature-256", signature);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String sign(byte[] payload) throws GeneralSecurityException {
+        var mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        var signature = new StringBuilder("sha256=");
+        for (var b : mac.doFinal(payload)) {
+            signature.append(String.format("%02x", b));
+        }
+        return signature.toString();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return client.send(request(server, path), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<HttpResponse<String>> getConcurrently(String path, int count) {
+        var futures = new ArrayList<CompletableFuture<HttpResponse<String>>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(client.sendAsync(request(server, path), HttpResponse.BodyHandlers.ofString()));
+        }
+        var responses = new ArrayList<HttpResponse<String>>();
+        for (var future : futures) {
+            responses.add(future.join());
+        }
+        return responses;
+    }
+
+    private static HttpRequest request(MergeBaseServer server, String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path)).build();
+    }
+
+    private static List<String> mergeBases(HttpResponse<String> response) {
+        try {
+            var result = new ArrayList<String>();
+            mapper.readTree(response.body()).path("mergeBases").forEach(node -> result.add(node.asText()));
+            return result;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
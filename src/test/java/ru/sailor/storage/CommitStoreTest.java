@@ -0,0 +1,164 @@
+package ru.sailor.storage;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.sailor.client.CachingGitClient;
+import ru.sailor.client.GitClient;
+import ru.sailor.data.GitBranch;
+import ru.sailor.data.GitCommit;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CommitStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            var commit = commit(sha(2), 2, sha(1));
+            store.put(commit);
+
+            Assert.assertEquals(commit, store.get(sha(2)));
+            Assert.assertNull(store.get(sha(1)));
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        var history = linearHistory(10_000);
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            store.putAll(history);
+        }
+
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            Assert.assertEquals(history.size(), store.size());
+            for (var commit : history) {
+                Assert.assertEquals(commit, store.get(commit.getSha()));
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicatesAreNotStored() throws IOException {
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            store.put(commit(sha(1), 1));
+            store.put(commit(sha(1), 1));
+
+            Assert.assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    public void testHistoryNewestFirst() throws IOException {
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            store.putAll(linearHistory(10));
+
+            var history = store.getHistory(sha(9), 3);
+            Assert.assertEquals(List.of(sha(9), sha(8), sha(7)), shas(history));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testStoreIsLocked() throws IOException {
+        try (var ignored = CommitStore.open(folder.getRoot().toPath())) {
+            CommitStore.open(folder.getRoot().toPath());
+        }
+    }
+
+    @Test
+    public void testCachingClientDoesNotAskDelegateForStoredHistory() throws IOException {
+        var history = linearHistory(10);
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            var client = new CachingGitClient(new HistoryClient(history), store);
+            Assert.assertEquals(10, client.getCommitHistory(sha(9), 10).size());
+        }
+
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            var client = new CachingGitClient(new HistoryClient(Collections.emptyList()), store);
+            Assert.assertEquals(shas(history.subList(5, 10)), reversed(shas(client.getCommitHistory(sha(9), 5))));
+        }
+    }
+
+    @Test
+    public void testCachingClientAsksDelegateForCutOffHistory() throws IOException {
+        var history = linearHistory(10);
+        try (var store = CommitStore.open(folder.getRoot().toPath())) {
+            //head is stored alone, like a head of a branch
+            store.put(history.get(9));
+            var client = new CachingGitClient(new HistoryClient(history), store);
+            Assert.assertNull(store.getCompleteHistory(sha(9), 5));
+            Assert.assertEquals(1, store.getCompleteHistory(sha(9), 1).size());
+
+            //delegate returns the whole history
+            Assert.assertEquals(10, client.getCommitHistory(sha(9), 5).size());
+            //walk reaches the root commit
+            Assert.assertEquals(10, store.getCompleteHistory(sha(9), 20).size());
+        }
+    }
+
+    private static List<GitCommit> linearHistory(int size) {
+        var history = new ArrayList<GitCommit>();
+        for (int i = 0; i < size; i++) {
+            history.add(i == 0 ? commit(sha(i), i) : commit(sha(i), i, sha(i - 1)));
+        }
+        return history;
+    }
+
+    private static GitCommit commit(String sha, long timestamp, String... parents) {
+        var parentCommits = new ArrayList<GitCommit>();
+        for (var parent : parents) {
+            parentCommits.add(GitCommit.builder().sha(parent).parents(Collections.emptyList()).build());
+        }
+        return GitCommit.builder()
+                .sha(sha)
+                .timestamp(LocalDateTime.of(2021, 1, 1, 0, 0).plusMinutes(timestamp))
+                .parents(parentCommits)
+                .build();
+    }
+
+    private static String sha(int number) {
+        return String.format("%040x", number);
+    }
+
+    private static List<String> shas(List<GitCommit> commits) {
+        var shas = new ArrayList<String>();
+        commits.forEach(commit -> shas.add(commit.getSha()));
+        return shas;
+    }
+
+    private static List<String> reversed(List<String> shas) {
+        var result = new ArrayList<>(shas);
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static class HistoryClient implements GitClient {
+
+        private final List<GitCommit> history;
+
+        HistoryClient(List<GitCommit> history) {
+            this.history = history;
+        }
+
+        @Override
+        public List<GitCommit> getCommitHistory(String commitSHA, Integer countOfCommits) {
+            var result = new ArrayList<>(history);
+            Collections.reverse(result);
+            return result;
+        }
+
+        @Override
+        public GitBranch getBranchInfo(String branchName) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}